@@ -1,10 +1,224 @@
 package org.ml.capman;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.ml.capman.EmployeeCapacity.CapacityType;
+
 /**
  * @author mlaux
  */
 public class BaseCapacitySummary {
 
+    //.... Employee ranges below this size are summarised sequentially in parallel builds
+    final static int PARALLEL_THRESHOLD = 1024;
+
+    private boolean compensated = false;
+    private EmployeeData<? extends Employee> employeeData = null;
+
+    //.... Pending compensation terms, per map of capacity values (identity) and indexed by CapacityType ordinal
+    private final Map<Map<CapacityType, Double>, double[]> compensation = new IdentityHashMap<>();
+
+    //.... Set while a change of an employee is applied; the factor tables are snapshots and may be outdated for that employee
+    private boolean direct = false;
+
+    //.... Set for summaries shared between several consumers (see CapacitySummaryCube), which may not change any more
+    private boolean readOnly = false;
+
+    /**
+     * @return True if the sums in this summary use compensated (Neumaier)
+     * summation, which is less sensitive to the summation order
+     */
+    public boolean isCompensated() {
+        return compensated;
+    }
+
+    /**
+     * @param compensated
+     */
+    void setCompensated(boolean compensated) {
+        this.compensated = compensated;
+    }
+
+    /**
+     * @return True if this summary is shared and can not be changed any more
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Make this summary read-only. All maps returned afterwards are
+     * unmodifiable, and adding employees or merging other summaries throws an
+     * UnsupportedOperationException
+     */
+    void setReadOnly() {
+        applyCompensation();
+        readOnly = true;
+    }
+
+    /**
+     * Throw an UnsupportedOperationException if this summary is read-only
+     */
+    final void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("The summary is shared and read-only");
+        }
+    }
+
+    /**
+     * Use the factor tables of the given employee data for the percentage
+     * factors of its employees
+     *
+     * @param employeeData
+     */
+    void setEmployeeData(EmployeeData<? extends Employee> employeeData) {
+        this.employeeData = employeeData;
+    }
+
+    /**
+     * @return The employee data used for the percentage factors, may be null
+     */
+    final EmployeeData<? extends Employee> getEmployeeData() {
+        return employeeData;
+    }
+
+    /**
+     * @param type
+     * @return The factor table for the given 2D type or null if no employee
+     * data has been set
+     */
+    final FactorTable getFactorTable(IType type) {
+        return employeeData == null || direct ? null : employeeData.getFactorTable(type);
+    }
+
+    /**
+     * Add (delta = 1) or remove (delta = -1) the contribution of one employee.
+     * Only the summaries holding data (CapacitySummaryData and
+     * CapacitySummaryData2D) support this
+     *
+     * @param employee
+     * @param row The position of the employee in the employee data set for
+     * this summary, or -1 if the factor tables are not to be used
+     * @param delta
+     */
+    void add(Employee employee, int row, int delta) {
+        throw new UnsupportedOperationException("This summary does not hold any data");
+    }
+
+    /**
+     * @param employee
+     * @return True if the employee contributes to this summary in its current
+     * state
+     */
+    boolean contains(Employee employee) {
+        return true;
+    }
+
+    /**
+     * Add (delta = 1) or remove (delta = -1) the current contribution of an
+     * employee which is changed, added or removed, see
+     * CapacitySummaryListener
+     *
+     * @param employee
+     * @param delta
+     */
+    final void applyChange(Employee employee, int delta) {
+        if (employee == null) {
+            throw new NullPointerException("employee may not be null");
+        }
+        if (!contains(employee)) {
+            return;
+        }
+        direct = true;
+        try {
+            add(employee, -1, delta);
+        } finally {
+            direct = false;
+        }
+        applyCompensation();
+    }
+
+    /**
+     * Drop the pending compensation terms for a map of capacity values which
+     * is no longer part of the summary
+     *
+     * @param values
+     */
+    final void discard(Map<CapacityType, Double> values) {
+        compensation.remove(values);
+    }
+
+    /**
+     * Add a value to the sum for the given capacity type in a map of capacity
+     * values
+     *
+     * @param values
+     * @param capacityType
+     * @param value
+     */
+    final void accumulate(Map<CapacityType, Double> values, CapacityType capacityType, double value) {
+        double sum = values.get(capacityType);
+        double t = sum + value;
+        if (compensated) {
+            double[] c = compensation.get(values);
+            if (c == null) {
+                c = new double[CapacityType.values().length];
+                compensation.put(values, c);
+            }
+            if (Math.abs(sum) >= Math.abs(value)) {
+                c[capacityType.ordinal()] += (sum - t) + value;
+            } else {
+                c[capacityType.ordinal()] += (value - t) + sum;
+            }
+        }
+        values.put(capacityType, t);
+    }
+
+    /**
+     * Add the capacity values of a map from another summary (including any
+     * pending compensation there) to a map of this summary
+     *
+     * @param values
+     * @param other
+     * @param otherValues
+     */
+    final void accumulate(Map<CapacityType, Double> values, BaseCapacitySummary other, Map<CapacityType, Double> otherValues) {
+        for (CapacityType capacityType : CapacityType.values()) {
+            accumulate(values, capacityType, otherValues.get(capacityType));
+        }
+        double[] otherCompensation = other.compensation.get(otherValues);
+        if (otherCompensation != null) {
+            if (compensated) {
+                double[] c = compensation.get(values);
+                if (c == null) {
+                    c = new double[CapacityType.values().length];
+                    compensation.put(values, c);
+                }
+                for (int i = 0; i < c.length; i++) {
+                    c[i] += otherCompensation[i];
+                }
+            } else {
+                for (CapacityType capacityType : CapacityType.values()) {
+                    values.put(capacityType, values.get(capacityType) + otherCompensation[capacityType.ordinal()]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fold the pending compensation terms into the sums
+     */
+    final void applyCompensation() {
+        for (Map<CapacityType, Double> values : compensation.keySet()) {
+            double[] c = compensation.get(values);
+            for (CapacityType capacityType : CapacityType.values()) {
+                values.put(capacityType, values.get(capacityType) + c[capacityType.ordinal()]);
+            }
+        }
+        compensation.clear();
+    }
+
     /**
      * @param type
      * @param employee
@@ -115,6 +329,16 @@ public class BaseCapacitySummary {
             case One:
                 return 1.0d;
             case Two:
+                FactorTable factorTable = getFactorTable(type);
+                if (factorTable != null) {
+                    int row = employeeData.getIndex(employee.getID());
+                    if (row >= 0 && employeeData.getEmployees().get(row) == employee) {
+                        int entry = factorTable.find(row, (String) primaryKey);
+                        if (entry >= 0) {
+                            return factorTable.getFactor(entry);
+                        }
+                    }
+                }
                 switch (type.getTypeKind()) {
                     case TypeDoublePercentage:
                         percentage = 0.01d * (Double) employee.get(type, (String) primaryKey);
@@ -0,0 +1,121 @@
+package org.ml.capman;
+
+import java.util.List;
+
+import org.ml.capman.EmployeeCapacity.CapacityType;
+
+/**
+ * The capacity data of all employees of an EmployeeData instance in one
+ * contiguous double[] per CapacityType. Entry i in each array belongs to the
+ * employee at position i in EmployeeData.getEmployees(), so whole columns (or
+ * ranges of them) can be summed without touching the Employee objects.
+ *
+ * This is a snapshot: changes to the employee capacity after the matrix has
+ * been built are not reflected.
+ *
+ * @author mlaux
+ */
+public class CapacityMatrix {
+
+    private final int size;
+    private final double[][] data = new double[CapacityType.values().length][];
+
+    /**
+     * @param employees
+     */
+    public CapacityMatrix(List<? extends Employee> employees) {
+        if (employees == null) {
+            throw new NullPointerException("employees may not be null");
+        }
+        size = employees.size();
+        for (CapacityType capacityType : CapacityType.values()) {
+            data[capacityType.ordinal()] = new double[size];
+        }
+        for (int i = 0; i < size; i++) {
+            double[] values = employees.get(i).getCapacity().getValues();
+            for (int c = 0; c < values.length; c++) {
+                data[c][i] = values[c];
+            }
+        }
+    }
+
+    /**
+     * @return The number of employees covered
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The column for the given type. The array is returned as is for
+     * sequential scans and must not be modified
+     *
+     * @param capacityType
+     * @return
+     */
+    public double[] get(CapacityType capacityType) {
+        if (capacityType == null) {
+            throw new NullPointerException("capacityType may not be null");
+        }
+        return data[capacityType.ordinal()];
+    }
+
+    /**
+     * @param capacityType
+     * @param index
+     * @return
+     */
+    public double get(CapacityType capacityType, int index) {
+        if (capacityType == null) {
+            throw new NullPointerException("capacityType may not be null");
+        }
+        return data[capacityType.ordinal()][index];
+    }
+
+    /**
+     * @param capacityType
+     * @return The sum over all employees
+     */
+    public double sum(CapacityType capacityType) {
+        return sum(capacityType, 0, size);
+    }
+
+    /**
+     * @param capacityType
+     * @param from The first index (inclusive)
+     * @param to The last index (exclusive)
+     * @return The sum over the employees in the given index range
+     */
+    public double sum(CapacityType capacityType, int from, int to) {
+        if (capacityType == null) {
+            throw new NullPointerException("capacityType may not be null");
+        }
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Invalid range [" + from + ", " + to + ") for size " + size);
+        }
+        double[] column = data[capacityType.ordinal()];
+        double sum = 0.0d;
+        for (int i = from; i < to; i++) {
+            sum += column[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @param capacityType
+     * @param employees The positions of the employees to sum over
+     * @return The sum over the employees in the given set
+     */
+    public double sum(CapacityType capacityType, EmployeeBitmap employees) {
+        if (capacityType == null) {
+            throw new NullPointerException("capacityType may not be null");
+        }
+        if (employees == null) {
+            throw new NullPointerException("employees may not be null");
+        }
+        if (employees.last() >= size) {
+            throw new IndexOutOfBoundsException("Invalid position " + employees.last() + " for size " + size);
+        }
+        return employees.sum(data[capacityType.ordinal()]);
+    }
+}
@@ -0,0 +1,258 @@
+package org.ml.capman;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.ml.capman.DataConfiguration.TypeDimension.One;
+import static org.ml.capman.DataConfiguration.TypeDimension.Two;
+
+/**
+ * The two-dimensional capacity summaries (CapacitySummaryData2D) for pairs of
+ * types, shared between all reporting steps working on the same EmployeeData
+ * instance. Summaries are computed on request for a whole collection of types
+ * at once and kept for later requests:
+ *
+ * - 1D x 1D pairs are computed on the dictionary-encoded columns without
+ * touching the Employee objects, and only for one direction of the pair
+ * - 1D x 2D pairs are computed in a single shared pass over all employees, and
+ * only for one direction of the pair
+ * - 2D x 2D pairs are also computed in that shared pass, but for each direction
+ * on its own, as the constraints (see ConstraintHandler) are directional and
+ * change how the capacity of an employee is distributed
+ * - all other directions are derived by transposing the computed summaries
+ * - the summaries for single types (get(type)) are rolled up from a pair
+ * summary with a 1D second type where one is available, and only computed
+ * from the employees otherwise
+ *
+ * The summaries are the same as the ones created by the
+ * CapacitySummaryData2D(type1, type2, employeeData) and
+ * CapacitySummaryData(type, employeeData) constructors, apart from the
+ * summation order for rolled up summaries. They are shared and so read-only
+ * (see BaseCapacitySummary.isReadOnly()). When a value of an employee
+ * changes, the summaries involving its type are dropped; all other changes of
+ * the employee data (see EmployeeData.getDataVersion()) drop all summaries.
+ *
+ * @author mlaux
+ */
+public class CapacitySummaryCube {
+
+    private final EmployeeData<? extends Employee> employeeData;
+    private final Map<String, CapacitySummaryData2D> summaries = new LinkedHashMap<>();
+    private final Map<String, CapacitySummaryData> summaries1D = new HashMap<>();
+    private long dataVersion;
+
+    /**
+     * @param employeeData
+     */
+    public CapacitySummaryCube(EmployeeData<? extends Employee> employeeData) {
+        if (employeeData == null) {
+            throw new NullPointerException("employeeData may not be null");
+        }
+        this.employeeData = employeeData;
+        dataVersion = employeeData.getDataVersion();
+    }
+
+    /**
+     * Drop the summaries affected by the changes of the employee data since
+     * they were computed
+     */
+    private void validate() {
+        long version = employeeData.getDataVersion();
+        if (version != dataVersion) {
+            if (employeeData.isChangedSince(dataVersion, null)) {
+                summaries.clear();
+                summaries1D.clear();
+            } else {
+                summaries.values().removeIf(summaryData -> employeeData.isChangedSince(dataVersion, summaryData.getType1())
+                        || employeeData.isChangedSince(dataVersion, summaryData.getType2()));
+                summaries1D.values().removeIf(summaryData -> employeeData.isChangedSince(dataVersion, summaryData.getType()));
+            }
+            dataVersion = version;
+        }
+    }
+
+    /**
+     * Compute the summaries for all ordered pairs of different types from the
+     * given collection which are not available yet
+     *
+     * @param types
+     */
+    public synchronized void prepare(Collection<? extends IType> types) {
+        if (types == null) {
+            throw new NullPointerException("types may not be null");
+        }
+        validate();
+        DataConfiguration configuration = DataConfiguration.getInstance();
+        List<IType> typeList = new ArrayList<>(types);
+
+        //.... Collect the summaries to compute; the key of the derived direction maps to the computed summary
+        List<CapacitySummaryData2D> fromColumns = new ArrayList<>();
+        List<CapacitySummaryData2D> fromEmployees = new ArrayList<>();
+        Map<String, CapacitySummaryData2D> transposed = new LinkedHashMap<>();
+
+        for (int i = 0; i < typeList.size(); i++) {
+            IType type1 = typeList.get(i);
+            if (type1 == null) {
+                throw new NullPointerException("type may not be null");
+            }
+            for (int j = i + 1; j < typeList.size(); j++) {
+                IType type2 = typeList.get(j);
+                if (type2 == null) {
+                    throw new NullPointerException("type may not be null");
+                }
+                if (configuration.isEqual(type1, type2)) {
+                    continue;
+                }
+                String key12 = getKey(type1, type2);
+                String key21 = getKey(type2, type1);
+                if (summaries.containsKey(key12) && summaries.containsKey(key21)) {
+                    continue;
+                }
+
+                if (type1.getTypeDimension().equals(Two) && type2.getTypeDimension().equals(Two)) {
+                    if (!summaries.containsKey(key12)) {
+                        CapacitySummaryData2D summaryData = new CapacitySummaryData2D(type1, type2, employeeData.getConstraintHandler());
+                        summaryData.setEmployeeData(employeeData);
+                        summaries.put(key12, summaryData);
+                        fromEmployees.add(summaryData);
+                    }
+                    if (!summaries.containsKey(key21)) {
+                        CapacitySummaryData2D summaryData = new CapacitySummaryData2D(type2, type1, employeeData.getConstraintHandler());
+                        summaryData.setEmployeeData(employeeData);
+                        summaries.put(key21, summaryData);
+                        fromEmployees.add(summaryData);
+                    }
+                    continue;
+                }
+
+                //.... One direction is enough, with the 1D type first for mixed pairs
+                if (summaries.containsKey(key12)) {
+                    transposed.put(key21, summaries.get(key12));
+                } else if (summaries.containsKey(key21)) {
+                    transposed.put(key12, summaries.get(key21));
+                } else {
+                    IType first = type1.getTypeDimension().equals(One) ? type1 : type2;
+                    IType second = first == type1 ? type2 : type1;
+                    CapacitySummaryData2D summaryData = new CapacitySummaryData2D(first, second, employeeData.getConstraintHandler());
+                    summaryData.setEmployeeData(employeeData);
+                    summaries.put(getKey(first, second), summaryData);
+                    transposed.put(getKey(second, first), summaryData);
+                    if (second.getTypeDimension().equals(One)) {
+                        fromColumns.add(summaryData);
+                    } else {
+                        fromEmployees.add(summaryData);
+                    }
+                }
+            }
+        }
+
+        if (!fromColumns.isEmpty()) {
+            EmployeeColumns columns = employeeData.getColumns();
+            for (CapacitySummaryData2D summaryData : fromColumns) {
+                summaryData.addColumns(columns);
+            }
+        }
+
+        if (!fromEmployees.isEmpty()) {
+            List<? extends Employee> employees = employeeData.getEmployees();
+            for (int i = 0; i < employees.size(); i++) {
+                for (CapacitySummaryData2D summaryData : fromEmployees) {
+                    summaryData.add(employees.get(i), i);
+                }
+            }
+        }
+
+        for (CapacitySummaryData2D summaryData : fromColumns) {
+            summaryData.setReadOnly();
+        }
+        for (CapacitySummaryData2D summaryData : fromEmployees) {
+            summaryData.setReadOnly();
+        }
+        for (String key : transposed.keySet()) {
+            CapacitySummaryData2D summaryData = transposed.get(key).transpose();
+            summaryData.setReadOnly();
+            summaries.put(key, summaryData);
+        }
+    }
+
+    /**
+     * @param type1
+     * @param type2
+     * @return The summary for type2 by type1, computed if not yet available
+     */
+    public synchronized CapacitySummaryData2D get(IType type1, IType type2) {
+        if (type1 == null) {
+            throw new NullPointerException("type1 may not be null");
+        }
+        if (type2 == null) {
+            throw new NullPointerException("type2 may not be null");
+        }
+        if (DataConfiguration.getInstance().isEqual(type1, type2)) {
+            throw new IllegalArgumentException("The types have to be different");
+        }
+        validate();
+        String key = getKey(type1, type2);
+        if (!summaries.containsKey(key)) {
+            List<IType> types = new ArrayList<>();
+            types.add(type1);
+            types.add(type2);
+            prepare(types);
+        }
+        return summaries.get(key);
+    }
+
+    /**
+     * @param type
+     * @return The summary for the given type, rolled up from an available
+     * summary of the type by a 1D type (every employee contributes to exactly
+     * one primary key of that) or computed if there is none
+     */
+    public synchronized CapacitySummaryData get(IType type) {
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        validate();
+        String key = type.getTypeDimension() + ":" + type.getTypeName();
+        CapacitySummaryData summaryData = summaries1D.get(key);
+        if (summaryData != null) {
+            return summaryData;
+        }
+
+        DataConfiguration configuration = DataConfiguration.getInstance();
+        for (CapacitySummaryData2D summaryData2D : summaries.values()) {
+            if (configuration.isEqual(summaryData2D.getType1(), type) && summaryData2D.getType2().getTypeDimension().equals(One)) {
+                summaryData = new CapacitySummaryData(summaryData2D);
+                break;
+            }
+        }
+        if (summaryData == null) {
+            summaryData = new CapacitySummaryData(type);
+            summaryData.setEmployeeData(employeeData);
+            if (type.getTypeDimension().equals(One)) {
+                summaryData.addColumns(employeeData.getColumns());
+            } else {
+                List<? extends Employee> employees = employeeData.getEmployees();
+                for (int i = 0; i < employees.size(); i++) {
+                    summaryData.add(employees.get(i), i);
+                }
+            }
+        }
+        summaryData.setReadOnly();
+        summaries1D.put(key, summaryData);
+        return summaryData;
+    }
+
+    /**
+     * @param type1
+     * @param type2
+     * @return
+     */
+    private static String getKey(IType type1, IType type2) {
+        return type1.getTypeDimension() + ":" + type1.getTypeName() + "|" + type2.getTypeDimension() + ":" + type2.getTypeName();
+    }
+
+}
@@ -1,8 +1,11 @@
 package org.ml.capman;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.ml.capman.DataConfiguration.TypeDimension.One;
 import static org.ml.capman.DataConfiguration.TypeDimension.Two;
@@ -18,53 +21,356 @@ public class CapacitySummaryData extends BaseCapacitySummary {
     private Map<CapacityType, Double> totalData = new HashMap<>();
     private Map<Comparable, Integer> count = new HashMap<>();
     private int totalCount = 0;
+    private final IType type;
 
     /**
      * @param type
      * @param employeeData
      */
     public CapacitySummaryData(IType type, EmployeeData<Employee> employeeData) {
-        if (type == null) {
-            throw new NullPointerException("type may not be null");
+        this(type);
+        if (employeeData == null) {
+            throw new NullPointerException("employeeData may not be null");
+        }
+        setEmployeeData(employeeData);
+
+        switch (type.getTypeDimension()) {
+            case One:
+                addColumns(employeeData.getColumns());
+                break;
+            case Two:
+                List<? extends Employee> employees = employeeData.getEmployees();
+                for (int i = 0; i < employees.size(); i++) {
+                    add(employees.get(i), i);
+                }
+        }
+    }
+
+    /**
+     * @param type
+     * @param employeeData
+     * @param compensated Use compensated summation for all sums
+     */
+    public CapacitySummaryData(IType type, EmployeeData<Employee> employeeData, boolean compensated) {
+        this(type);
+        if (employeeData == null) {
+            throw new NullPointerException("employeeData may not be null");
+        }
+        setCompensated(compensated);
+        setEmployeeData(employeeData);
+
+        if (!compensated && type.getTypeDimension().equals(One)) {
+            addColumns(employeeData.getColumns());
+        } else {
+            List<? extends Employee> employees = employeeData.getEmployees();
+            for (int i = 0; i < employees.size(); i++) {
+                add(employees.get(i), i);
+            }
+        }
+        applyCompensation();
+    }
+
+    /**
+     * A summary over a subset of the employees only
+     *
+     * @param type
+     * @param employeeData
+     * @param employees The positions in employeeData.getEmployees() of the
+     * employees to include
+     */
+    public CapacitySummaryData(IType type, EmployeeData<Employee> employeeData, EmployeeBitmap employees) {
+        this(type);
+        if (employeeData == null) {
+            throw new NullPointerException("employeeData may not be null");
+        }
+        if (employees == null) {
+            throw new NullPointerException("employees may not be null");
         }
+        setEmployeeData(employeeData);
+
+        List<? extends Employee> e = employeeData.getEmployees();
+        employees.forEach(row -> add(e.get(row), row));
+    }
+
+    /**
+     * Build the summary in parallel on the given pool. The employees are split
+     * into ranges which are summarised independently, and the partial results
+     * are merged. Apart from the summation order of the capacity values the
+     * result is the same as for the sequential constructors
+     *
+     * @param type
+     * @param employeeData
+     * @param compensated Use compensated summation for all sums
+     * @param pool
+     */
+    public CapacitySummaryData(IType type, EmployeeData<Employee> employeeData, boolean compensated, ForkJoinPool pool) {
+        this(type);
         if (employeeData == null) {
             throw new NullPointerException("employeeData may not be null");
         }
+        if (pool == null) {
+            throw new NullPointerException("pool may not be null");
+        }
+        setCompensated(compensated);
+        setEmployeeData(employeeData);
 
+        //.... Build the factor table up front rather than in one of the tasks
+        if (type.getTypeDimension().equals(Two)) {
+            employeeData.getFactorTable(type);
+        }
+
+        List<? extends Employee> employees = employeeData.getEmployees();
+        mergeRaw(pool.invoke(new SummaryTask<>(0, employees.size(), (from, to) -> {
+            CapacitySummaryData summaryData = new CapacitySummaryData(type);
+            summaryData.setCompensated(compensated);
+            summaryData.setEmployeeData(employeeData);
+            for (int i = from; i < to; i++) {
+                summaryData.add(employees.get(i), i);
+            }
+            return summaryData;
+        }, CapacitySummaryData::mergeRaw)));
+        applyCompensation();
+    }
+
+    /**
+     * An empty summary for the given type, to be filled via add()
+     *
+     * @param type
+     */
+    CapacitySummaryData(IType type) {
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        this.type = type;
         for (CapacityType capacityType : CapacityType.values()) {
             totalData.put(capacityType, 0.0d);
         }
+    }
+
+    /**
+     * Roll up a two-dimensional summary to the summary for its first type.
+     * This is only exact if every employee contributes to exactly one primary
+     * key of the second type, i. e. if the second type is of dimension One.
+     * Apart from the summation order of the capacity values the result is the
+     * same as for a summary computed directly
+     *
+     * @param summaryData
+     */
+    CapacitySummaryData(CapacitySummaryData2D summaryData) {
+        this(summaryData.getType1());
+        if (!summaryData.getType2().getTypeDimension().equals(One)) {
+            throw new IllegalArgumentException("Only summaries with a second type of dimension " + One + " can be rolled up");
+        }
+        setCompensated(summaryData.isCompensated());
+        setEmployeeData(summaryData.getEmployeeData());
+        for (Comparable primaryKey1 : summaryData.get().keySet()) {
+            Map<CapacityType, Double> d = new HashMap<>();
+            for (CapacityType capacityType : CapacityType.values()) {
+                d.put(capacityType, 0.0d);
+            }
+            int c = 0;
+            for (Comparable primaryKey2 : summaryData.get(primaryKey1).keySet()) {
+                Map<CapacityType, Double> values = summaryData.get(primaryKey1, primaryKey2);
+                for (CapacityType capacityType : CapacityType.values()) {
+                    accumulate(d, capacityType, values.get(capacityType));
+                }
+                c += summaryData.getCount(primaryKey1, primaryKey2);
+            }
+            data.put(primaryKey1, d);
+            count.put(primaryKey1, c);
+        }
+        for (CapacityType capacityType : CapacityType.values()) {
+            accumulate(totalData, capacityType, summaryData.getTotal().get(capacityType));
+        }
+        totalCount = summaryData.getTotalCount();
+        applyCompensation();
+    }
 
+    /**
+     * @return
+     */
+    public IType getType() {
+        return type;
+    }
+
+    /**
+     * Add the contribution of one employee to this summary
+     *
+     * @param employee
+     * @param row The position of the employee in the employee data set for
+     * this summary, or -1 if the employee is not part of that
+     */
+    void add(Employee employee, int row) {
+        add(employee, row, 1);
+    }
+
+    /**
+     * @param employee
+     * @param row
+     * @param delta
+     */
+    @Override
+    void add(Employee employee, int row, int delta) {
+        if (employee == null) {
+            throw new NullPointerException("employee may not be null");
+        }
+        checkWritable();
         switch (type.getTypeDimension()) {
             case One:
-                for (Employee employee : employeeData.getEmployees()) {
-                    update(employee, employee.get(type), type);
-                }
+                update(employee, employee.get(type), 1.0d, delta);
                 break;
             case Two:
-                for (Employee employee : employeeData.getEmployees()) {
+                FactorTable factorTable = row < 0 ? null : getFactorTable(type);
+                if (factorTable != null) {
+                    for (int entry = factorTable.getStart(row); entry < factorTable.getEnd(row); entry++) {
+                        update(employee, factorTable.getField(entry), factorTable.getFactor(entry), delta);
+                    }
+                } else {
                     for (String primaryKey : employee.getFields(type).keySet()) {
-                        update(employee, primaryKey, type);
+                        update(employee, primaryKey, computePercentage(employee, type, primaryKey), delta);
                     }
                 }
         }
     }
 
+    /**
+     * @param employee
+     * @return False for a 1D type if the employee has no value for it; such an
+     * employee can not be part of the summary until it gets one
+     */
+    @Override
+    boolean contains(Employee employee) {
+        return type.getTypeDimension().equals(Two) || employee.get(type) != null;
+    }
+
+    /**
+     * For 1D types the summary is a plain group-by on the dictionary codes of
+     * the type column, so we scan the columns sequentially and only create the
+     * map entries once per distinct value at the end
+     *
+     * @param columns
+     */
+    void addColumns(EmployeeColumns columns) {
+        if (columns == null) {
+            throw new NullPointerException("columns may not be null");
+        }
+        checkWritable();
+
+        EmployeeColumns.Column column = columns.getColumn(type);
+        int[] codes = column.getCodes();
+        CapacityType[] capacityTypes = CapacityType.values();
+        double[][] sums = new double[capacityTypes.length][column.getDictionary().size()];
+        double[] totals = new double[capacityTypes.length];
+        int[] counts = new int[column.getDictionary().size()];
+
+        for (CapacityType capacityType : capacityTypes) {
+            double[] capacity = columns.getCapacity(capacityType);
+            double[] sum = sums[capacityType.ordinal()];
+            double total = 0.0d;
+            for (int i = 0; i < codes.length; i++) {
+                if (codes[i] == EmployeeColumns.NO_VALUE) {
+                    throw new NullPointerException("primaryKey may not be null");
+                }
+                sum[codes[i]] += capacity[i];
+                total += capacity[i];
+            }
+            totals[capacityType.ordinal()] = total;
+        }
+        for (int code : codes) {
+            counts[code]++;
+        }
+
+        for (int code = 0; code < counts.length; code++) {
+            Comparable primaryKey = column.getDictionary().get(code);
+            if (!data.containsKey(primaryKey)) {
+                data.put(primaryKey, new HashMap<>());
+                for (CapacityType capacityType : capacityTypes) {
+                    data.get(primaryKey).put(capacityType, 0.0d);
+                }
+                count.put(primaryKey, 0);
+            }
+            Map<CapacityType, Double> d = data.get(primaryKey);
+            for (CapacityType capacityType : capacityTypes) {
+                accumulate(d, capacityType, sums[capacityType.ordinal()][code]);
+            }
+            count.put(primaryKey, count.get(primaryKey) + counts[code]);
+        }
+        for (CapacityType capacityType : capacityTypes) {
+            accumulate(totalData, capacityType, totals[capacityType.ordinal()]);
+        }
+        totalCount += codes.length;
+    }
+
+    /**
+     * Merge the data of another summary for the same type into this one. The
+     * result is the same as for a summary over the employees of both
+     * summaries, apart from the summation order of the capacity values
+     *
+     * @param other
+     */
+    public void merge(CapacitySummaryData other) {
+        mergeRaw(other);
+        applyCompensation();
+    }
+
+    /**
+     * Merge without folding the compensation terms into the sums, used for
+     * partial results
+     *
+     * @param other
+     */
+    void mergeRaw(CapacitySummaryData other) {
+        if (other == null) {
+            throw new NullPointerException("other may not be null");
+        }
+        checkWritable();
+        if (!DataConfiguration.getInstance().isEqual(type, other.type)) {
+            throw new IllegalArgumentException("Summaries for different types can not be merged: " + type + " / " + other.type);
+        }
+        for (Comparable primaryKey : other.data.keySet()) {
+            if (!data.containsKey(primaryKey)) {
+                data.put(primaryKey, new HashMap<>());
+                for (CapacityType capacityType : CapacityType.values()) {
+                    data.get(primaryKey).put(capacityType, 0.0d);
+                }
+                count.put(primaryKey, 0);
+            }
+            accumulate(data.get(primaryKey), other, other.data.get(primaryKey));
+            count.put(primaryKey, count.get(primaryKey) + other.count.get(primaryKey));
+        }
+        accumulate(totalData, other, other.totalData);
+        totalCount += other.totalCount;
+    }
+
+    /**
+     * Replace the maps by unmodifiable ones
+     */
+    @Override
+    void setReadOnly() {
+        super.setReadOnly();
+        Map<Comparable, Map<CapacityType, Double>> d = new TreeMap<>();
+        for (Comparable primaryKey : data.keySet()) {
+            d.put(primaryKey, Collections.unmodifiableMap(data.get(primaryKey)));
+        }
+        data = Collections.unmodifiableMap(d);
+        totalData = Collections.unmodifiableMap(totalData);
+        count = Collections.unmodifiableMap(count);
+    }
+
     /**
      * @param employee
      * @param primaryKey
-     * @param type
+     * @param percentage The share of the capacity of the employee for the
+     * primary key (only used for 2D types)
+     * @param delta 1 to add the contribution, -1 to remove it
      */
-    private void update(Employee employee, Comparable primaryKey, IType type) {
+    private void update(Employee employee, Comparable primaryKey, double percentage, int delta) {
         if (employee == null) {
             throw new NullPointerException("employee may not be null");
         }
         if (primaryKey == null) {
             throw new NullPointerException("primaryKey may not be null");
         }
-        if (type == null) {
-            throw new NullPointerException("type may not be null");
-        }
 
         if (!data.containsKey(primaryKey)) {
             data.put(primaryKey, new HashMap<>());
@@ -73,41 +379,42 @@ public class CapacitySummaryData extends BaseCapacitySummary {
             }
         }
 
+        double[] capacity = employee.getCapacity().getValues();
+
         switch (type.getTypeDimension()) {
 
             case One:
 
                 for (CapacityType capacityType : CapacityType.values()) {
-                    double d = data.get(primaryKey).get(capacityType) + employee.getCapacity(capacityType);
-                    double td = totalData.get(capacityType) + employee.getCapacity(capacityType);
-                    data.get(primaryKey).put(capacityType, d);
-                    totalData.put(capacityType, td);
+                    accumulate(data.get(primaryKey), capacityType, delta * capacity[capacityType.ordinal()]);
+                    accumulate(totalData, capacityType, delta * capacity[capacityType.ordinal()]);
                 }
                 break;
 
             case Two:
 
-                double percentage = computePercentage(employee, type, primaryKey);
-
                 for (CapacityType capacityType : CapacityType.values()) {
-                    double c = percentage * employee.getCapacity(capacityType);
-                    double d = data.get(primaryKey).get(capacityType) + c;
-                    double td = totalData.get(capacityType) + c;
-                    data.get(primaryKey).put(capacityType, d);
-                    totalData.put(capacityType, td);
+                    double c = delta * percentage * capacity[capacityType.ordinal()];
+                    accumulate(data.get(primaryKey), capacityType, c);
+                    accumulate(totalData, capacityType, c);
                 }
 
         }
 
-        //.... Data count for this primary key
+        //.... Data count for this primary key; keys without any contribution left are dropped
         if (!count.containsKey(primaryKey)) {
             count.put(primaryKey, 0);
         }
-        int c = count.get(primaryKey) + 1;
-        count.put(primaryKey, c);
+        int c = count.get(primaryKey) + delta;
+        if (c > 0) {
+            count.put(primaryKey, c);
+        } else {
+            count.remove(primaryKey);
+            discard(data.remove(primaryKey));
+        }
 
         // Data count for all primary keys
-        totalCount++;
+        totalCount += delta;
     }
 
     /**
@@ -1,8 +1,12 @@
 package org.ml.capman;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.ml.capman.DataConfiguration.TypeDimension.One;
 import static org.ml.capman.DataConfiguration.TypeDimension.Two;
@@ -18,26 +22,176 @@ public class CapacitySummaryData2D extends BaseCapacitySummary {
     private Map<CapacityType, Double> totalData = new HashMap<>();
     private Map<Comparable, Map<Comparable, Integer>> count = new HashMap<>();
     private int totalCount = 0;
+    private final IType type1;
+    private final IType type2;
+    private final ConstraintHandler constraintHandler;
+    private final boolean constrained;
 
     /**
      * @param type1
      * @param type2
      * @param employeeData
      */
-    public CapacitySummaryData2D(IType type1, IType type2, EmployeeData<Employee> employeeData) {
+    public CapacitySummaryData2D(IType type1, IType type2, EmployeeData<? extends Employee> employeeData) {
+        this(type1, type2, getConstraintHandler(employeeData));
+        setEmployeeData(employeeData);
+
+        List<? extends Employee> employees = employeeData.getEmployees();
+        for (int i = 0; i < employees.size(); i++) {
+            add(employees.get(i), i);
+        }
+    }
+
+    /**
+     * @param type1
+     * @param type2
+     * @param employeeData
+     * @param compensated Use compensated summation for all sums
+     */
+    public CapacitySummaryData2D(IType type1, IType type2, EmployeeData<? extends Employee> employeeData, boolean compensated) {
+        this(type1, type2, getConstraintHandler(employeeData));
+        setCompensated(compensated);
+        setEmployeeData(employeeData);
+
+        List<? extends Employee> employees = employeeData.getEmployees();
+        for (int i = 0; i < employees.size(); i++) {
+            add(employees.get(i), i);
+        }
+        applyCompensation();
+    }
+
+    /**
+     * Build the summary in parallel on the given pool. The employees are split
+     * into ranges which are summarised independently, and the partial results
+     * are merged. Apart from the summation order of the capacity values the
+     * result is the same as for the sequential constructors
+     *
+     * @param type1
+     * @param type2
+     * @param employeeData
+     * @param compensated Use compensated summation for all sums
+     * @param pool
+     */
+    public CapacitySummaryData2D(IType type1, IType type2, EmployeeData<? extends Employee> employeeData, boolean compensated, ForkJoinPool pool) {
+        this(type1, type2, getConstraintHandler(employeeData));
+        if (pool == null) {
+            throw new NullPointerException("pool may not be null");
+        }
+        setCompensated(compensated);
+        setEmployeeData(employeeData);
+
+        //.... Build the factor tables up front rather than in one of the tasks
+        for (IType type : new IType[]{type1, type2}) {
+            if (type.getTypeDimension().equals(Two)) {
+                employeeData.getFactorTable(type);
+            }
+        }
+
+        List<? extends Employee> employees = employeeData.getEmployees();
+        mergeRaw(pool.invoke(new SummaryTask<>(0, employees.size(), (from, to) -> {
+            CapacitySummaryData2D summaryData = new CapacitySummaryData2D(type1, type2, constraintHandler);
+            summaryData.setCompensated(compensated);
+            summaryData.setEmployeeData(employeeData);
+            for (int i = from; i < to; i++) {
+                summaryData.add(employees.get(i), i);
+            }
+            return summaryData;
+        }, CapacitySummaryData2D::mergeRaw)));
+        applyCompensation();
+    }
+
+    /**
+     * @param employeeData
+     * @return
+     */
+    private static ConstraintHandler getConstraintHandler(EmployeeData<? extends Employee> employeeData) {
+        if (employeeData == null) {
+            throw new NullPointerException("employeeData may not be null");
+        }
+        return employeeData.getConstraintHandler();
+    }
+
+    /**
+     * An empty summary for the given types, to be filled via add()
+     *
+     * @param type1
+     * @param type2
+     * @param constraintHandler
+     */
+    CapacitySummaryData2D(IType type1, IType type2, ConstraintHandler constraintHandler) {
         if (type1 == null) {
             throw new NullPointerException("type1 may not be null");
         }
         if (type2 == null) {
             throw new NullPointerException("type2 may not be null");
         }
-        if (employeeData == null) {
-            throw new NullPointerException("employeeData may not be null");
+        if (constraintHandler == null) {
+            throw new NullPointerException("constraintHandler may not be null");
         }
+        this.type1 = type1;
+        this.type2 = type2;
+        this.constraintHandler = constraintHandler;
+        constrained = type1.getTypeDimension().equals(Two) && type2.getTypeDimension().equals(Two) && constraintHandler.existConstraints(type1, type2);
 
         for (CapacityType capacityType : CapacityType.values()) {
             totalData.put(capacityType, 0.0d);
         }
+    }
+
+    /**
+     * @return
+     */
+    public IType getType1() {
+        return type1;
+    }
+
+    /**
+     * @return
+     */
+    public IType getType2() {
+        return type2;
+    }
+
+    /**
+     * Add the contribution of one employee to this summary
+     *
+     * @param employee
+     * @param row The position of the employee in the employee data set for
+     * this summary, or -1 if the employee is not part of that
+     */
+    void add(Employee employee, int row) {
+        add(employee, row, 1);
+    }
+
+    /**
+     * @param employee
+     * @return False if one of the types is a 1D type the employee has no
+     * value for; such an employee can not be part of the summary until it
+     * gets one
+     */
+    @Override
+    boolean contains(Employee employee) {
+        return (type1.getTypeDimension().equals(Two) || employee.get(type1) != null)
+                && (type2.getTypeDimension().equals(Two) || employee.get(type2) != null);
+    }
+
+    /**
+     * @param employee
+     * @param row
+     * @param delta
+     */
+    @Override
+    void add(Employee employee, int row, int delta) {
+        if (employee == null) {
+            throw new NullPointerException("employee may not be null");
+        }
+        checkWritable();
+
+        //.... The percentage factors come from the factor tables where available. For constrained pairs only the fields of type2
+        //.... allowed for a field of type1 contribute; these are taken from the constraint index in their sorted order and looked
+        //.... up for the employee, so the summation order (and so the totals) does not depend on how the constraints were added
+        FactorTable factorTable1 = row >= 0 && type1.getTypeDimension().equals(Two) ? getFactorTable(type1) : null;
+        FactorTable factorTable2 = row >= 0 && type2.getTypeDimension().equals(Two) ? getFactorTable(type2) : null;
 
         switch (type1.getTypeDimension()) {
 
@@ -47,16 +201,18 @@ public class CapacitySummaryData2D extends BaseCapacitySummary {
 
                     case One:
 
-                        for (Employee employee : employeeData.getEmployees()) {
-                            update(employee, employee.get(type1), type1, employee.get(type2), type2);
-                        }
+                        update(employee, employee.get(type1), employee.get(type2), 1.0d, delta);
                         break;
 
                     case Two:
 
-                        for (Employee employee : employeeData.getEmployees()) {
+                        if (factorTable2 != null) {
+                            for (int entry2 = factorTable2.getStart(row); entry2 < factorTable2.getEnd(row); entry2++) {
+                                update(employee, employee.get(type1), factorTable2.getField(entry2), factorTable2.getFactor(entry2), delta);
+                            }
+                        } else {
                             for (Comparable primaryKey2 : employee.getFields(type2).keySet()) {
-                                update(employee, employee.get(type1), type1, primaryKey2, type2);
+                                update(employee, employee.get(type1), primaryKey2, computePercentage(employee, type2, primaryKey2), delta);
                             }
                         }
                         break;
@@ -69,22 +225,32 @@ public class CapacitySummaryData2D extends BaseCapacitySummary {
 
                     case One:
 
-                        for (Employee employee : employeeData.getEmployees()) {
+                        if (factorTable1 != null) {
+                            for (int entry1 = factorTable1.getStart(row); entry1 < factorTable1.getEnd(row); entry1++) {
+                                update(employee, factorTable1.getField(entry1), employee.get(type2), factorTable1.getFactor(entry1), delta);
+                            }
+                        } else {
                             for (Comparable primaryKey1 : employee.getFields(type1).keySet()) {
-                                update(employee, primaryKey1, type1, employee.get(type2), type2);
+                                update(employee, primaryKey1, employee.get(type2), computePercentage(employee, type1, primaryKey1), delta);
                             }
                         }
                         break;
 
                     case Two:
 
-                        if (employeeData.getConstraintHandler().existConstraints(type1, type2)) {
+                        if (factorTable1 != null && factorTable2 != null) {
 
-                            for (Employee employee : employeeData.getEmployees()) {
-                                for (Comparable primaryKey1 : employee.getFields(type1).keySet()) {
-                                    for (Comparable primaryKey2 : employee.getFields(type2).keySet()) {
-                                        if (employeeData.getConstraintHandler().existsConstraint(type1, primaryKey1, type2, primaryKey2)) {
-                                            update(employee, primaryKey1, type1, primaryKey2, type2, true);
+                            for (int entry1 = factorTable1.getStart(row); entry1 < factorTable1.getEnd(row); entry1++) {
+                                String primaryKey1 = factorTable1.getField(entry1);
+                                if (!constrained) {
+                                    for (int entry2 = factorTable2.getStart(row); entry2 < factorTable2.getEnd(row); entry2++) {
+                                        update(employee, primaryKey1, factorTable2.getField(entry2), factorTable1.getFactor(entry1) * factorTable2.getFactor(entry2), delta);
+                                    }
+                                } else {
+                                    for (Comparable primaryKey2 : constraintHandler.getAllowedFields(type1, primaryKey1, type2)) {
+                                        int entry2 = factorTable2.find(row, (String) primaryKey2);
+                                        if (entry2 >= 0) {
+                                            update(employee, primaryKey1, primaryKey2, factorTable2.getFactor(entry2), delta);
                                         }
                                     }
                                 }
@@ -92,10 +258,17 @@ public class CapacitySummaryData2D extends BaseCapacitySummary {
 
                         } else {
 
-                            for (Employee employee : employeeData.getEmployees()) {
-                                for (Comparable primaryKey1 : employee.getFields(type1).keySet()) {
+                            for (Comparable primaryKey1 : employee.getFields(type1).keySet()) {
+                                if (!constrained) {
                                     for (Comparable primaryKey2 : employee.getFields(type2).keySet()) {
-                                        update(employee, primaryKey1, type1, primaryKey2, type2);
+                                        update(employee, primaryKey1, primaryKey2, computePercentage(employee, type1, primaryKey1, type2, primaryKey2), delta);
+                                    }
+                                } else {
+                                    Map<String, Comparable> fields2 = employee.getFields(type2);
+                                    for (Comparable primaryKey2 : constraintHandler.getAllowedFields(type1, primaryKey1, type2)) {
+                                        if (fields2.containsKey(primaryKey2)) {
+                                            update(employee, primaryKey1, primaryKey2, computePercentage(employee, type1, primaryKey1, type2, primaryKey2, true), delta);
+                                        }
                                     }
                                 }
                             }
@@ -109,41 +282,176 @@ public class CapacitySummaryData2D extends BaseCapacitySummary {
     }
 
     /**
-     * @param employee
-     * @param primaryKey1
-     * @param type1
-     * @param primaryKey2
-     * @param type2
+     * For two 1D types the summary is a group-by on the pairs of dictionary
+     * codes of the two type columns, so we can scan the columns sequentially
+     * without touching the Employee objects
+     *
+     * @param columns
      */
-    private void update(Employee employee, Comparable primaryKey1, IType type1, Comparable primaryKey2, IType type2) {
-        update(employee, primaryKey1, type1, primaryKey2, type2, false);
+    void addColumns(EmployeeColumns columns) {
+        if (columns == null) {
+            throw new NullPointerException("columns may not be null");
+        }
+        checkWritable();
+        if (!type1.getTypeDimension().equals(One) || !type2.getTypeDimension().equals(One)) {
+            throw new UnsupportedOperationException("Column based summaries are only supported for two types of dimension " + One);
+        }
+
+        EmployeeColumns.Column column1 = columns.getColumn(type1);
+        EmployeeColumns.Column column2 = columns.getColumn(type2);
+        int[] codes1 = column1.getCodes();
+        int[] codes2 = column2.getCodes();
+        long width = column2.getDictionary().size();
+
+        //.... Map the code pairs actually present to dense cell numbers
+        Map<Long, Integer> cells = new HashMap<>();
+        List<Long> cellKeys = new ArrayList<>();
+        int[] cellOfRow = new int[codes1.length];
+        for (int i = 0; i < codes1.length; i++) {
+            if (codes1[i] == EmployeeColumns.NO_VALUE) {
+                throw new NullPointerException("primaryKey1 may not be null");
+            }
+            if (codes2[i] == EmployeeColumns.NO_VALUE) {
+                throw new NullPointerException("primaryKey2 may not be null");
+            }
+            Long key = codes1[i] * width + codes2[i];
+            Integer cell = cells.get(key);
+            if (cell == null) {
+                cell = cellKeys.size();
+                cells.put(key, cell);
+                cellKeys.add(key);
+            }
+            cellOfRow[i] = cell;
+        }
+
+        CapacityType[] capacityTypes = CapacityType.values();
+        double[][] sums = new double[capacityTypes.length][cellKeys.size()];
+        int[] counts = new int[cellKeys.size()];
+        for (CapacityType capacityType : capacityTypes) {
+            double[] capacity = columns.getCapacity(capacityType);
+            double[] sum = sums[capacityType.ordinal()];
+            double total = totalData.get(capacityType);
+            for (int i = 0; i < cellOfRow.length; i++) {
+                sum[cellOfRow[i]] += capacity[i];
+                total += capacity[i];
+            }
+            totalData.put(capacityType, total);
+        }
+        for (int cell : cellOfRow) {
+            counts[cell]++;
+        }
+
+        for (int cell = 0; cell < counts.length; cell++) {
+            long key = cellKeys.get(cell);
+            Comparable primaryKey1 = column1.getDictionary().get((int) (key / width));
+            Comparable primaryKey2 = column2.getDictionary().get((int) (key % width));
+            Map<CapacityType, Double> d = getOrCreate(primaryKey1, primaryKey2);
+            for (CapacityType capacityType : capacityTypes) {
+                accumulate(d, capacityType, sums[capacityType.ordinal()][cell]);
+            }
+            count.get(primaryKey1).put(primaryKey2, count.get(primaryKey1).get(primaryKey2) + counts[cell]);
+        }
+        totalCount += cellOfRow.length;
     }
 
     /**
-     * @param employee
-     * @param primaryKey1
-     * @param type1
-     * @param primaryKey2
-     * @param type2
-     * @param constrained
+     * Merge the data of another summary for the same types into this one. The
+     * result is the same as for a summary over the employees of both
+     * summaries, apart from the summation order of the capacity values
+     *
+     * @param other
      */
-    private void update(Employee employee, Comparable primaryKey1, IType type1, Comparable primaryKey2, IType type2, boolean constrained) {
-        if (employee == null) {
-            throw new NullPointerException("employee may not be null");
+    public void merge(CapacitySummaryData2D other) {
+        mergeRaw(other);
+        applyCompensation();
+    }
+
+    /**
+     * Merge without folding the compensation terms into the sums, used for
+     * partial results
+     *
+     * @param other
+     */
+    void mergeRaw(CapacitySummaryData2D other) {
+        if (other == null) {
+            throw new NullPointerException("other may not be null");
         }
-        if (primaryKey1 == null) {
-            throw new NullPointerException("primaryKey1 may not be null");
+        checkWritable();
+        DataConfiguration configuration = DataConfiguration.getInstance();
+        if (!configuration.isEqual(type1, other.type1) || !configuration.isEqual(type2, other.type2)) {
+            throw new IllegalArgumentException("Summaries for different types can not be merged: " + type1 + " / " + type2 + " and " + other.type1 + " / " + other.type2);
         }
-        if (type1 == null) {
-            throw new NullPointerException("type1 may not be null");
+        if (constrained != other.constrained) {
+            throw new IllegalArgumentException("Summaries with and without constraints can not be merged");
         }
-        if (primaryKey2 == null) {
-            throw new NullPointerException("primaryKey2 may not be null");
+        for (Comparable primaryKey1 : other.data.keySet()) {
+            for (Comparable primaryKey2 : other.data.get(primaryKey1).keySet()) {
+                accumulate(getOrCreate(primaryKey1, primaryKey2), other, other.data.get(primaryKey1).get(primaryKey2));
+                count.get(primaryKey1).put(primaryKey2, count.get(primaryKey1).get(primaryKey2) + other.count.get(primaryKey1).get(primaryKey2));
+            }
         }
-        if (type2 == null) {
-            throw new NullPointerException("type2 may not be null");
+        accumulate(totalData, other, other.totalData);
+        totalCount += other.totalCount;
+    }
+
+    /**
+     * Derive the summary for the swapped types from this one. The cell values
+     * and counts are the same as for a summary computed directly, and so are
+     * the totals as long as the contributions of an employee are added in the
+     * same order in both directions - which is the case unless both types are
+     * of dimension Two. For two 2D types constraints are also directional, so
+     * these need to be computed for each direction on their own
+     *
+     * @return
+     */
+    CapacitySummaryData2D transpose() {
+        if (type1.getTypeDimension().equals(Two) && type2.getTypeDimension().equals(Two)) {
+            throw new UnsupportedOperationException("Summaries for two types of dimension " + Two + " cannot be transposed");
+        }
+        CapacitySummaryData2D transposed = new CapacitySummaryData2D(type2, type1, constraintHandler);
+        transposed.setCompensated(isCompensated());
+        transposed.setEmployeeData(getEmployeeData());
+        for (Comparable primaryKey1 : data.keySet()) {
+            for (Comparable primaryKey2 : data.get(primaryKey1).keySet()) {
+                transposed.getOrCreate(primaryKey2, primaryKey1).putAll(data.get(primaryKey1).get(primaryKey2));
+                transposed.count.get(primaryKey2).put(primaryKey1, count.get(primaryKey1).get(primaryKey2));
+            }
         }
+        transposed.totalData.putAll(totalData);
+        transposed.totalCount = totalCount;
+        return transposed;
+    }
 
+    /**
+     * Replace the maps by unmodifiable ones
+     */
+    @Override
+    void setReadOnly() {
+        super.setReadOnly();
+        Map<Comparable, Map<Comparable, Map<CapacityType, Double>>> d = new TreeMap<>();
+        for (Comparable primaryKey1 : data.keySet()) {
+            Map<Comparable, Map<CapacityType, Double>> d2 = new TreeMap<>();
+            for (Comparable primaryKey2 : data.get(primaryKey1).keySet()) {
+                d2.put(primaryKey2, Collections.unmodifiableMap(data.get(primaryKey1).get(primaryKey2)));
+            }
+            d.put(primaryKey1, Collections.unmodifiableMap(d2));
+        }
+        data = Collections.unmodifiableMap(d);
+        Map<Comparable, Map<Comparable, Integer>> c = new HashMap<>();
+        for (Comparable primaryKey1 : count.keySet()) {
+            c.put(primaryKey1, Collections.unmodifiableMap(count.get(primaryKey1)));
+        }
+        count = Collections.unmodifiableMap(c);
+        totalData = Collections.unmodifiableMap(totalData);
+    }
+
+    /**
+     * @param primaryKey1
+     * @param primaryKey2
+     * @return The data for the given cell, created with zero values and a zero
+     * count if it does not exist yet
+     */
+    private Map<CapacityType, Double> getOrCreate(Comparable primaryKey1, Comparable primaryKey2) {
         if (!data.containsKey(primaryKey1)) {
             data.put(primaryKey1, new TreeMap<>());
         }
@@ -159,80 +467,52 @@ public class CapacitySummaryData2D extends BaseCapacitySummary {
         if (!count.get(primaryKey1).containsKey(primaryKey2)) {
             count.get(primaryKey1).put(primaryKey2, 0);
         }
+        return data.get(primaryKey1).get(primaryKey2);
+    }
 
-        switch (type1.getTypeDimension()) {
-
-            case One:
-
-                switch (type2.getTypeDimension()) {
-
-                    case One:
-
-                        for (CapacityType capacityType : CapacityType.values()) {
-                            double d = data.get(primaryKey1).get(primaryKey2).get(capacityType) + employee.getCapacity(capacityType);
-                            double td = totalData.get(capacityType) + employee.getCapacity(capacityType);
-                            data.get(primaryKey1).get(primaryKey2).put(capacityType, d);
-                            totalData.put(capacityType, td);
-                        }
-                        break;
-
-                    case Two:
-
-                        for (CapacityType capacityType : CapacityType.values()) {
-                            double percentage = computePercentage(employee, type2, primaryKey2);
-                            double val = percentage * employee.getCapacity(capacityType);
-                            double d = data.get(primaryKey1).get(primaryKey2).get(capacityType) + val;
-                            double td = totalData.get(capacityType) + val;
-                            data.get(primaryKey1).get(primaryKey2).put(capacityType, d);
-                            totalData.put(capacityType, td);
-                        }
-                        break;
-                }
-                break;
-
-            case Two:
-
-                switch (type2.getTypeDimension()) {
-
-                    case One:
-
-                        for (CapacityType capacityType : CapacityType.values()) {
-                            double percentage = computePercentage(employee, type1, primaryKey1);
-                            double val = percentage * employee.getCapacity(capacityType);
-                            double d = data.get(primaryKey1).get(primaryKey2).get(capacityType) + val;
-                            double td = totalData.get(capacityType) + val;
-                            data.get(primaryKey1).get(primaryKey2).put(capacityType, d);
-                            totalData.put(capacityType, td);
-                        }
-                        break;
-
-                    case Two:
+    /**
+     * @param employee
+     * @param primaryKey1
+     * @param primaryKey2
+     * @param percentage The share of the capacity of the employee for the
+     * combination of the primary keys
+     * @param delta 1 to add the contribution, -1 to remove it
+     */
+    private void update(Employee employee, Comparable primaryKey1, Comparable primaryKey2, double percentage, int delta) {
+        if (employee == null) {
+            throw new NullPointerException("employee may not be null");
+        }
+        if (primaryKey1 == null) {
+            throw new NullPointerException("primaryKey1 may not be null");
+        }
+        if (primaryKey2 == null) {
+            throw new NullPointerException("primaryKey2 may not be null");
+        }
 
-                        for (CapacityType capacityType : CapacityType.values()) {
-                            double percentage1 = 1.0d;
-                            if (!constrained) {
-                                percentage1 = computePercentage(employee, type1, primaryKey1);
-                            }
-                            double percentage2 = computePercentage(employee, type2, primaryKey2);
-                            double val = percentage1 * percentage2 * employee.getCapacity(capacityType);
-                            //                            System.out.println("XX " + employee.getName() + " " + type1 + " " + type2 + ": " + primaryKey1 + " - " + percentage1 + " / " + primaryKey2 + " - " + percentage2 + " / " + val);
-                            double d = data.get(primaryKey1).get(primaryKey2).get(capacityType) + val;
-                            double td = totalData.get(capacityType) + val;
-                            data.get(primaryKey1).get(primaryKey2).put(capacityType, d);
-                            totalData.put(capacityType, td);
-                        }
-                        break;
-                }
-                break;
+        Map<CapacityType, Double> values = getOrCreate(primaryKey1, primaryKey2);
+        double[] capacity = employee.getCapacity().getValues();
 
+        for (CapacityType capacityType : CapacityType.values()) {
+            double val = delta * percentage * capacity[capacityType.ordinal()];
+            accumulate(values, capacityType, val);
+            accumulate(totalData, capacityType, val);
         }
 
-        //.... Data count
-        int c = count.get(primaryKey1).get(primaryKey2) + 1;
-        count.get(primaryKey1).put(primaryKey2, c);
+        //.... Data count; cells without any contribution left are dropped
+        int c = count.get(primaryKey1).get(primaryKey2) + delta;
+        if (c > 0) {
+            count.get(primaryKey1).put(primaryKey2, c);
+        } else {
+            count.get(primaryKey1).remove(primaryKey2);
+            discard(data.get(primaryKey1).remove(primaryKey2));
+            if (data.get(primaryKey1).isEmpty()) {
+                data.remove(primaryKey1);
+                count.remove(primaryKey1);
+            }
+        }
 
         // Data count for all primary keys
-        totalCount++;
+        totalCount += delta;
     }
 
     /**
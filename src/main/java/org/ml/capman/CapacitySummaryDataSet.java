@@ -0,0 +1,98 @@
+package org.ml.capman;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ml.capman.DataConfiguration.TypeDimension;
+
+/**
+ * The capacity summaries for a set of types, computed together instead of one
+ * CapacitySummaryData instance per type each walking all employees on its own:
+ *
+ * - 1D types are summarised on the dictionary-encoded columns of the
+ * EmployeeData instance, which does not touch the Employee objects at all
+ * - 2D types are summarised in one single pass over all employees, updating
+ * the summaries of all requested 2D types for each employee
+ *
+ * The resulting summaries are the same as the ones created by the
+ * CapacitySummaryData(type, employeeData) constructor.
+ *
+ * @author mlaux
+ */
+public class CapacitySummaryDataSet {
+
+    private final Map<TypeDimension, Map<String, CapacitySummaryData>> summaries = new EnumMap<>(TypeDimension.class);
+
+    /**
+     * @param types
+     * @param employeeData
+     */
+    public CapacitySummaryDataSet(Collection<? extends IType> types, EmployeeData<Employee> employeeData) {
+        if (types == null) {
+            throw new NullPointerException("types may not be null");
+        }
+        if (employeeData == null) {
+            throw new NullPointerException("employeeData may not be null");
+        }
+        for (TypeDimension typeDimension : TypeDimension.values()) {
+            summaries.put(typeDimension, new HashMap<>());
+        }
+
+        List<CapacitySummaryData> summaries2D = new ArrayList<>();
+        for (IType type : types) {
+            if (type == null) {
+                throw new NullPointerException("type may not be null");
+            }
+            Map<String, CapacitySummaryData> map = summaries.get(type.getTypeDimension());
+            if (map.containsKey(type.getTypeName())) {
+                continue;
+            }
+            CapacitySummaryData summaryData = new CapacitySummaryData(type);
+            summaryData.setEmployeeData(employeeData);
+            map.put(type.getTypeName(), summaryData);
+            switch (type.getTypeDimension()) {
+                case One:
+                    summaryData.addColumns(employeeData.getColumns());
+                    break;
+                case Two:
+                    summaries2D.add(summaryData);
+            }
+        }
+
+        if (!summaries2D.isEmpty()) {
+            List<? extends Employee> employees = employeeData.getEmployees();
+            for (int i = 0; i < employees.size(); i++) {
+                for (CapacitySummaryData summaryData : summaries2D) {
+                    summaryData.add(employees.get(i), i);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param type
+     * @return
+     */
+    public boolean contains(IType type) {
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        return summaries.get(type.getTypeDimension()).containsKey(type.getTypeName());
+    }
+
+    /**
+     * @param type
+     * @return The summary for the given type
+     */
+    public CapacitySummaryData get(IType type) {
+        if (!contains(type)) {
+            throw new IllegalArgumentException("No summary available for type " + type.getTypeName() + " with type dimension " + type.getTypeDimension());
+        }
+        return summaries.get(type.getTypeDimension()).get(type.getTypeName());
+    }
+
+}
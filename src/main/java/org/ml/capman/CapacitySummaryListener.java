@@ -0,0 +1,78 @@
+package org.ml.capman;
+
+/**
+ * Keeps a capacity summary up to date while single employees change: the old
+ * contribution of an employee is removed before a change and the new one is
+ * added after it, which takes time proportional to the data of that employee
+ * instead of a rebuild. Registered with EmployeeData.addChangeListener(), this
+ * also covers employees added to or removed from that instance. Employees
+ * without a value for a 1D type of the summary are left out until they get
+ * one. Shared summaries (see BaseCapacitySummary.isReadOnly()) can not be kept
+ * up to date this way
+ *
+ * @author mlaux
+ */
+public class CapacitySummaryListener implements EmployeeChangeListener {
+
+    private final BaseCapacitySummary summary;
+
+    /**
+     * @param summary
+     */
+    public CapacitySummaryListener(CapacitySummaryData summary) {
+        this((BaseCapacitySummary) summary);
+    }
+
+    /**
+     * @param summary
+     */
+    public CapacitySummaryListener(CapacitySummaryData2D summary) {
+        this((BaseCapacitySummary) summary);
+    }
+
+    /**
+     * @param summary
+     */
+    private CapacitySummaryListener(BaseCapacitySummary summary) {
+        if (summary == null) {
+            throw new NullPointerException("summary may not be null");
+        }
+        if (summary.isReadOnly()) {
+            throw new IllegalArgumentException("summary may not be read-only");
+        }
+        this.summary = summary;
+    }
+
+    /**
+     * @return The summary kept up to date
+     */
+    public BaseCapacitySummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * Remove the current contribution of the employee before it is changed or
+     * removed
+     *
+     * @param employee
+     */
+    @Override
+    public void beforeChange(Employee employee) {
+        synchronized (summary) {
+            summary.applyChange(employee, -1);
+        }
+    }
+
+    /**
+     * Add the contribution of the employee after it has been changed or added
+     *
+     * @param employee
+     */
+    @Override
+    public void afterChange(Employee employee) {
+        synchronized (summary) {
+            summary.applyChange(employee, 1);
+        }
+    }
+
+}
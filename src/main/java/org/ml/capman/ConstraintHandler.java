@@ -1,9 +1,11 @@
 package org.ml.capman;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.logging.Logger;
 
 import org.ml.tools.logging.LoggerFactory;
@@ -18,6 +20,9 @@ public class ConstraintHandler {
     private final Set<Constraint> constraints = new HashSet<>();
     private final Map<String, Set<String>> mappings = new HashMap<>();
 
+    //.... Type name 1 -> type name 2 -> field 1 -> allowed fields 2, for lookups without creating Constraint instances
+    private final Map<String, Map<String, Map<Comparable, Set<Comparable>>>> index = new HashMap<>();
+
     /**
      *
      */
@@ -32,9 +37,7 @@ public class ConstraintHandler {
         if (constraintHandler == null) {
             throw new NullPointerException("constraintHandler may not be null");
         }
-        for (Constraint constraint : constraintHandler.getConstraints()) {
-            addConstraint(constraint);
-        }
+        addConstraints(constraintHandler);
     }
 
     /**
@@ -54,13 +57,57 @@ public class ConstraintHandler {
         if (constraint == null) {
             throw new NullPointerException("constraint may not be null");
         }
-        constraints.add(constraint);
+        if (constraints.add(constraint)) {
+            index(constraint);
+        }
+    }
+
+    /**
+     * Add all constraints of another handler. Constraints already contained
+     * in this handler are skipped without touching the lookup structures
+     *
+     * @param constraintHandler
+     */
+    public void addConstraints(ConstraintHandler constraintHandler) {
+        if (constraintHandler == null) {
+            throw new NullPointerException("constraintHandler may not be null");
+        }
+        if (constraintHandler == this) {
+            return;
+        }
+        for (Constraint constraint : constraintHandler.constraints) {
+            if (constraints.add(constraint)) {
+                index(constraint);
+            }
+        }
+    }
+
+    /**
+     * Add a new constraint to the lookup structures
+     *
+     * @param constraint
+     */
+    private void index(Constraint constraint) {
 
         //.... This is for a quick lookup if ANY constraints exist for the given types - it relies on both types being of TypeDimension.TWO
         if (!mappings.containsKey(constraint.getType1().getTypeName())) {
             mappings.put(constraint.getType1().getTypeName(), new HashSet<>());
         }
         mappings.get(constraint.getType1().getTypeName()).add(constraint.getType2().getTypeName());
+
+        String typeName1 = constraint.getType1().getTypeName();
+        String typeName2 = constraint.getType2().getTypeName();
+        if (!index.containsKey(typeName1)) {
+            index.put(typeName1, new HashMap<>());
+        }
+        if (!index.get(typeName1).containsKey(typeName2)) {
+            index.get(typeName1).put(typeName2, new HashMap<>());
+        }
+        Map<Comparable, Set<Comparable>> fields = index.get(typeName1).get(typeName2);
+        if (!fields.containsKey(constraint.getField1())) {
+            fields.put(constraint.getField1(), new TreeSet<>());
+        }
+        fields.get(constraint.getField1()).add(constraint.getField2());
     }
 
     /**
@@ -95,8 +142,51 @@ public class ConstraintHandler {
      * @return
      */
     public boolean existsConstraint(IType type1, Comparable field1, IType type2, Comparable field2) {
-        Constraint constraint = new Constraint(type1, field1, type2, field2);
-        return constraints.contains(constraint);
+        if (field2 == null) {
+            throw new NullPointerException("field2 may not be null");
+        }
+        return getAllowedFields(type1, field1, type2).contains(field2);
+    }
+
+    /**
+     * Get the fields of type2 for which a constraint with the given field of
+     * type1 exists, in their natural order. The set is returned as is for
+     * lookups and iteration and must not be modified
+     *
+     * @param type1
+     * @param field1
+     * @param type2
+     * @return
+     */
+    public Set<Comparable> getAllowedFields(IType type1, Comparable field1, IType type2) {
+        if (type1 == null) {
+            throw new NullPointerException("type1 may not be null");
+        }
+        if (field1 == null) {
+            throw new NullPointerException("field1 may not be null");
+        }
+        if (type2 == null) {
+            throw new NullPointerException("type2 may not be null");
+        }
+        if (DataConfiguration.getInstance().isEqual(type1, type2)) {
+            throw new IllegalArgumentException("The types have to be different");
+        }
+        if (type1.getTypeDimension().equals(DataConfiguration.TypeDimension.One)) {
+            throw new IllegalArgumentException("Type 1 (" + type1 + ") dimension needs to be " + DataConfiguration.TypeDimension.Two);
+        }
+        if (type2.getTypeDimension().equals(DataConfiguration.TypeDimension.One)) {
+            throw new IllegalArgumentException("Type 2 (" + type2 + ")  dimension needs to be " + DataConfiguration.TypeDimension.Two);
+        }
+        Map<String, Map<Comparable, Set<Comparable>>> byType2 = index.get(type1.getTypeName());
+        if (byType2 == null) {
+            return Collections.emptySet();
+        }
+        Map<Comparable, Set<Comparable>> fields = byType2.get(type2.getTypeName());
+        if (fields == null) {
+            return Collections.emptySet();
+        }
+        Set<Comparable> allowedFields = fields.get(field1);
+        return allowedFields == null ? Collections.emptySet() : allowedFields;
     }
 
     /**
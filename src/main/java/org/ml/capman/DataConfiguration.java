@@ -6,6 +6,7 @@ package org.ml.capman;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -20,6 +21,9 @@ import static org.ml.capman.DataConfiguration.TypeDimension.One;
 public class DataConfiguration {
 
     private final Map<TypeDimension, Map<String, IType>> types = new HashMap<>();
+    private final Map<TypeDimension, Map<String, Integer>> ordinals = new HashMap<>();
+    private final Map<TypeDimension, List<IType>> typesByOrdinal = new HashMap<>();
+    private final Map<IType, Integer> ordinalsByInstance = new IdentityHashMap<>();
     private static final DataConfiguration configuration = new DataConfiguration();
 
     /**
@@ -105,6 +109,8 @@ public class DataConfiguration {
     private DataConfiguration() {
         for (TypeDimension typeDimension : TypeDimension.values()) {
             types.put(typeDimension, new TreeMap<>());
+            ordinals.put(typeDimension, new HashMap<>());
+            typesByOrdinal.put(typeDimension, new ArrayList<>());
         }
     }
 
@@ -122,10 +128,7 @@ public class DataConfiguration {
         if (type == null) {
             throw new NullPointerException("type may not be null");
         }
-        if (type.getTypeKind().isPercentage && type.getTypeDimension().equals(One)) {
-            throw new UnsupportedOperationException("TypeKind with isPercentage() true can not be TypeDimension.One for type = " + type);
-        }
-        types.get(type.getTypeDimension()).put(type.getTypeName(), type);
+        register(type);
     }
 
     /**
@@ -136,11 +139,32 @@ public class DataConfiguration {
             throw new NullPointerException("types may not be null");
         }
         for (IType type : types) {
-            if (type.getTypeKind().isPercentage && type.getTypeDimension().equals(One)) {
-                throw new UnsupportedOperationException("TypeKind with isPercentage() true can not be TypeDimension.One for type = " + type);
-            }
-            this.types.get(type.getTypeDimension()).put(type.getTypeName(), type);
+            register(type);
+        }
+    }
+
+    /**
+     * Register a type and assign it a dense ordinal within its TypeDimension.
+     * Ordinals are handed out in order of registration and are stable: a type
+     * registered again under a known name keeps the ordinal of that name
+     *
+     * @param type
+     */
+    private void register(IType type) {
+        if (type.getTypeKind().isPercentage && type.getTypeDimension().equals(One)) {
+            throw new UnsupportedOperationException("TypeKind with isPercentage() true can not be TypeDimension.One for type = " + type);
+        }
+        TypeDimension typeDimension = type.getTypeDimension();
+        Integer ordinal = ordinals.get(typeDimension).get(type.getTypeName());
+        if (ordinal == null) {
+            ordinal = typesByOrdinal.get(typeDimension).size();
+            ordinals.get(typeDimension).put(type.getTypeName(), ordinal);
+            typesByOrdinal.get(typeDimension).add(type);
+        } else {
+            typesByOrdinal.get(typeDimension).set(ordinal, type);
         }
+        ordinalsByInstance.put(type, ordinal);
+        types.get(typeDimension).put(type.getTypeName(), type);
     }
 
     /**
@@ -181,6 +205,72 @@ public class DataConfiguration {
         return types.get(typeDimension);
     }
 
+    /**
+     * The dense ordinal of a type within the given TypeDimension. The lookup is
+     * done by instance first, which avoids hashing the type name for the
+     * registered IType instances, and by type name otherwise
+     *
+     * @param type
+     * @param typeDimension
+     * @return The ordinal in the range [0, getTypeCount(typeDimension)) or -1
+     * if the type is not supported with the given TypeDimension
+     */
+    public int getOrdinal(IType type, TypeDimension typeDimension) {
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        if (typeDimension == null) {
+            throw new NullPointerException("typeDimension may not be null");
+        }
+        if (type.getTypeDimension() == typeDimension) {
+            Integer ordinal = ordinalsByInstance.get(type);
+            if (ordinal != null) {
+                return ordinal;
+            }
+        }
+        Integer ordinal = ordinals.get(typeDimension).get(type.getTypeName());
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * @param type
+     * @return The ordinal of the type within its own TypeDimension or -1 if the
+     * type is not supported
+     */
+    public int getOrdinal(IType type) {
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        return getOrdinal(type, type.getTypeDimension());
+    }
+
+    /**
+     * @param typeDimension
+     * @return The number of types registered for the given TypeDimension, i.
+     * e. the upper (exclusive) bound of the ordinals in this dimension
+     */
+    public int getTypeCount(TypeDimension typeDimension) {
+        if (typeDimension == null) {
+            throw new NullPointerException("typeDimension may not be null");
+        }
+        return typesByOrdinal.get(typeDimension).size();
+    }
+
+    /**
+     * @param typeDimension
+     * @param ordinal
+     * @return
+     */
+    public IType get(TypeDimension typeDimension, int ordinal) {
+        if (typeDimension == null) {
+            throw new NullPointerException("typeDimension may not be null");
+        }
+        if (ordinal < 0 || ordinal >= typesByOrdinal.get(typeDimension).size()) {
+            throw new IndexOutOfBoundsException("No type with ordinal " + ordinal + " for TypeDimension " + typeDimension);
+        }
+        return typesByOrdinal.get(typeDimension).get(ordinal);
+    }
+
     /**
      * @param typeName
      * @param typeDimension
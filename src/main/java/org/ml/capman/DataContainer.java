@@ -1,7 +1,12 @@
 package org.ml.capman;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.ml.capman.DataConfiguration.TypeDimension;
 
@@ -20,19 +25,50 @@ import static org.ml.capman.DataConfiguration.TypeKind.TypeString;
  */
 public class DataContainer {
 
-    private Map<String, Comparable> data1D = new HashMap<>();
-    private Map<String, Map<String, Comparable>> data2D = new HashMap<>();
-    private Map<String, String> minField2D = new HashMap<>();
-    private Map<String, Comparable> minValue2D = new HashMap<>();
-    private Map<String, String> maxField2D = new HashMap<>();
-    private Map<String, Comparable> maxValue2D = new HashMap<>();
+    //.... All values are stored in slots addressed by the dense type ordinals assigned by DataConfiguration
+    private Comparable[] data1D;
+    private Map<String, Comparable>[] data2D;
+    private String[] minField2D;
+    private Comparable[] minValue2D;
+    private String[] maxField2D;
+    private Comparable[] maxValue2D;
+    private TreeMap<Comparable, Set<String>>[] valueIndex2D;
+    private boolean[] extremaStale;
     private DataConfiguration configuration;
+    private long version = 0;
 
     /**
      *
      */
     public DataContainer() {
         this.configuration = DataConfiguration.getInstance();
+        data1D = new Comparable[configuration.getTypeCount(One)];
+        int n = configuration.getTypeCount(Two);
+        data2D = newMapArray(n);
+        minField2D = new String[n];
+        minValue2D = new Comparable[n];
+        maxField2D = new String[n];
+        maxValue2D = new Comparable[n];
+        valueIndex2D = newIndexArray(n);
+        extremaStale = new boolean[n];
+    }
+
+    /**
+     * For read-only views on data stored elsewhere (see MappedEmployee), which
+     * override all accessors and do not need any slots
+     *
+     * @param configuration
+     */
+    DataContainer(DataConfiguration configuration) {
+        this.configuration = configuration;
+        data1D = new Comparable[0];
+        data2D = newMapArray(0);
+        minField2D = new String[0];
+        minValue2D = new Comparable[0];
+        maxField2D = new String[0];
+        maxValue2D = new Comparable[0];
+        valueIndex2D = newIndexArray(0);
+        extremaStale = new boolean[0];
     }
 
     /**
@@ -46,13 +82,18 @@ public class DataContainer {
         if (value == null) {
             throw new IllegalArgumentException("value may not be null");
         }
-        if (!configuration.supports(type, One)) {
-            throw new IllegalArgumentException("type name '" + type.getTypeName() + "' not supported with type dimension " + One);
-        }
-        if (!validateType(type, value, One)) {
+        int ordinal = getOrdinal(type, One);
+        if (!validateType(ordinal, value, One)) {
             throw new IllegalArgumentException("type validation failed for type name '" + type.getTypeName() + "' with type dimension " + One);
         }
-        data1D.put(type.getTypeName(), value);
+        ensureCapacity1D(ordinal);
+        beforeChange();
+        try {
+            data1D[ordinal] = value;
+        } finally {
+            touch(type);
+            afterChange();
+        }
     }
 
     /**
@@ -60,13 +101,8 @@ public class DataContainer {
      * @return
      */
     public Comparable get(IType type) {
-        if (type == null) {
-            throw new NullPointerException("type may not be null");
-        }
-        if (!configuration.supports(type, One)) {
-            throw new IllegalArgumentException("type name '" + type.getTypeName() + "' not supported with type dimension " + One);
-        }
-        return data1D.get(type.getTypeName());
+        int ordinal = getOrdinal(type, One);
+        return ordinal < data1D.length ? data1D[ordinal] : null;
     }
 
     /**
@@ -84,71 +120,190 @@ public class DataContainer {
         if (value == null) {
             throw new IllegalArgumentException("value may not be null");
         }
-        if (!configuration.supports(type, Two)) {
-            throw new IllegalArgumentException("type name '" + type.getTypeName() + "' not supported with type dimension " + Two);
-        }
-        if (!validateType(type, value, Two)) {
+        int ordinal = getOrdinal(type, Two);
+        if (!validateType(ordinal, value, Two)) {
             throw new IllegalArgumentException("type validation failed for type name '" + type.getTypeName() + "' with type dimension " + Two);
         }
 
-        String name = type.getTypeName();
-
-        if (!data2D.containsKey(name)) {
-            data2D.put(name, new HashMap<>());
-        }
-        //.... Need to make sure we deal with value updates correctly for the min/max calculations
-        boolean updateValue = data2D.get(name).containsKey(field);
-
-        data2D.get(name).put(field, value);
-
-        //.... Update min/max data for convenience methods
-        if (minField2D.containsKey(name)) {
-            if (updateValue) {
-                //.... A known name/field which provided a value previiusly - as this may have changed we need to redo the min/max analysis from scratch
-                minField2D.remove(name);
-                minValue2D.remove(name);
-                maxField2D.remove(name);
-                maxValue2D.remove(name);
-
-                for (String f : data2D.get(name).keySet()) {
-                    Comparable v = data2D.get(name).get(f);
-                    if (!minField2D.containsKey(name)) {
-                        minField2D.put(name, f);
-                        minValue2D.put(name, v);
-                        maxField2D.put(name, f);
-                        maxValue2D.put(name, v);
-                    } else {
-                        if (v.compareTo(minValue2D.get(name)) < 0) {
-                            minField2D.put(name, f);
-                            minValue2D.put(name, v);
-                        }
-                        if (v.compareTo(maxValue2D.get(name)) > 0) {
-                            maxField2D.put(name, f);
-                            maxValue2D.put(name, v);
-                        }
-                    }
-                }
+        beforeChange();
+        try {
+            set2D(ordinal, field, value);
+        } finally {
+            touch(type);
+            afterChange();
+        }
+    }
 
-            } else {
-                //.... A new field for a known name; we do the comparisons to the stored min/max data
-                if (value.compareTo(minValue2D.get(name)) < 0) {
-                    minField2D.put(name, field);
-                    minValue2D.put(name, value);
-                }
-                if (value.compareTo(maxValue2D.get(name)) > 0) {
-                    maxField2D.put(name, field);
-                    maxValue2D.put(name, value);
-                }
+    /**
+     * @param ordinal
+     * @param field
+     * @param value
+     */
+    private void set2D(int ordinal, String field, Comparable value) {
+        Map<String, Comparable> fields = getFields(ordinal);
+        Comparable previous = fields.put(field, value);
+
+        //.... Update min/max data for convenience methods. This is done incrementally as long as the current min/max
+        //     field is not overwritten with a value that may no longer be extremal. Once that happens, a value index
+        //     (value -> fields) is built for the type and maintained from then on, so that every later update only
+        //     costs O(log n) instead of a rescan of all fields
+        if (extremaStale[ordinal]) {
+            return;
+        }
+        TreeMap<Comparable, Set<String>> index = valueIndex2D[ordinal];
+        if (index != null) {
+            if (previous != null) {
+                unindex(index, previous, field);
             }
-        } else {
+            index(index, value, field);
+            updateExtrema(ordinal, index);
+            return;
+        }
+        if (minField2D[ordinal] == null) {
             //.... A new name which has not been seen before, this we just use the values of the new entry 
-            minField2D.put(name, field);
-            minValue2D.put(name, value);
-            maxField2D.put(name, field);
-            maxValue2D.put(name, value);
+            minField2D[ordinal] = field;
+            minValue2D[ordinal] = value;
+            maxField2D[ordinal] = field;
+            maxValue2D[ordinal] = value;
+        } else if (previous != null
+                && ((field.equals(minField2D[ordinal]) && value.compareTo(minValue2D[ordinal]) > 0)
+                || (field.equals(maxField2D[ordinal]) && value.compareTo(maxValue2D[ordinal]) < 0))) {
+            //.... The current min or max field gets a value which may no longer be extremal
+            index = new TreeMap<>();
+            for (Map.Entry<String, Comparable> entry : fields.entrySet()) {
+                index(index, entry.getValue(), entry.getKey());
+            }
+            valueIndex2D[ordinal] = index;
+            updateExtrema(ordinal, index);
+        } else {
+            //.... A new field, an update of a field which is neither min nor max or an update which keeps the min/max 
+            //     field extremal; we do the comparisons to the stored min/max data
+            if (field.equals(minField2D[ordinal]) || value.compareTo(minValue2D[ordinal]) < 0) {
+                minField2D[ordinal] = field;
+                minValue2D[ordinal] = value;
+            }
+            if (field.equals(maxField2D[ordinal]) || value.compareTo(maxValue2D[ordinal]) > 0) {
+                maxField2D[ordinal] = field;
+                maxValue2D[ordinal] = value;
+            }
         }
     }
 
+    /**
+     * Take the min/max data for a 2D type from its value index. The current
+     * min/max field is kept if it is still extremal, so ties are resolved as
+     * in the incremental update
+     *
+     * @param ordinal
+     * @param index
+     */
+    private void updateExtrema(int ordinal, TreeMap<Comparable, Set<String>> index) {
+        Map.Entry<Comparable, Set<String>> first = index.firstEntry();
+        if (!first.getValue().contains(minField2D[ordinal])) {
+            minField2D[ordinal] = first.getValue().iterator().next();
+        }
+        minValue2D[ordinal] = data2D[ordinal].get(minField2D[ordinal]);
+        Map.Entry<Comparable, Set<String>> last = index.lastEntry();
+        if (!last.getValue().contains(maxField2D[ordinal])) {
+            maxField2D[ordinal] = last.getValue().iterator().next();
+        }
+        maxValue2D[ordinal] = data2D[ordinal].get(maxField2D[ordinal]);
+    }
+
+    /**
+     * @param index
+     * @param value
+     * @param field
+     */
+    private static void index(TreeMap<Comparable, Set<String>> index, Comparable value, String field) {
+        Set<String> fields = index.get(value);
+        if (fields == null) {
+            fields = new LinkedHashSet<>(2);
+            index.put(value, fields);
+        }
+        fields.add(field);
+    }
+
+    /**
+     * @param index
+     * @param value
+     * @param field
+     */
+    private static void unindex(TreeMap<Comparable, Set<String>> index, Comparable value, String field) {
+        Set<String> fields = index.get(value);
+        if (fields != null && fields.remove(field) && fields.isEmpty()) {
+            index.remove(value);
+        }
+    }
+
+    /**
+     * Set a 1D value without validation, change tracking or listener calls.
+     * This is for readers of data which has been validated before, like
+     * snapshots
+     *
+     * @param ordinal The ordinal of the type as assigned by DataConfiguration
+     * @param value
+     */
+    void setRaw(int ordinal, Comparable value) {
+        ensureCapacity1D(ordinal);
+        data1D[ordinal] = value;
+    }
+
+    /**
+     * Set a 2D value without validation, change tracking or listener calls,
+     * see setRaw(int, Comparable). The min/max data is only computed by
+     * finishRawUpdates()
+     *
+     * @param ordinal The ordinal of the type as assigned by DataConfiguration
+     * @param field
+     * @param value
+     */
+    void setRaw(int ordinal, String field, Comparable value) {
+        getFields(ordinal).put(field, value);
+        valueIndex2D[ordinal] = null;
+        extremaStale[ordinal] = true;
+    }
+
+    /**
+     * @return A counter increased with every change of the data in this
+     * container. Consumers which derive data from the container can compare it
+     * to the version they have seen last to find out whether the derived data
+     * needs to be rebuilt
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Mark the data in this container as changed
+     */
+    protected void touch() {
+        version++;
+    }
+
+    /**
+     * Mark the values of the given type in this container as changed. Calls
+     * touch() here
+     *
+     * @param type
+     */
+    protected void touch(IType type) {
+        touch();
+    }
+
+    /**
+     * Called by the set methods before a value is changed. Does nothing here
+     */
+    protected void beforeChange() {
+    }
+
+    /**
+     * Called by the set methods after a value has been changed, also if the
+     * change failed. Does nothing here
+     */
+    protected void afterChange() {
+    }
+
     /**
      * @param type
      * @param field
@@ -161,14 +316,9 @@ public class DataContainer {
         if (field == null) {
             throw new NullPointerException("field may not be null");
         }
-        if (!configuration.supports(type, Two)) {
-            throw new IllegalArgumentException("type name '" + type.getTypeName() + "' not supported with type dimension " + Two);
-        }
-        //.... Make sure we at least have the map established since it is a supported type, the field has just not been set (yet)
-        if (!data2D.containsKey(type.getTypeName())) {
-            data2D.put(type.getTypeName(), new HashMap<>());
-        }
-        return data2D.get(type.getTypeName()).get(field);
+        //.... Reads never create slots or maps, so concurrent readers are safe as long as nobody writes
+        int ordinal = getOrdinal(type, Two);
+        return ordinal < data2D.length && data2D[ordinal] != null ? data2D[ordinal].get(field) : null;
     }
 
     /**
@@ -181,7 +331,7 @@ public class DataContainer {
         if (type == null) {
             throw new NullPointerException("type may not be null");
         }
-        if (!configuration.supports(type, TypeDimension.One)) {
+        if (configuration.getOrdinal(type, One) < 0) {
             throw new IllegalArgumentException("Unknown type name: " + type.getTypeName());
         }
         if (!type.getTypeKind().isBoolean()) {
@@ -204,7 +354,7 @@ public class DataContainer {
         if (field == null) {
             throw new NullPointerException("field may not be null");
         }
-        if (!configuration.supports(type, TypeDimension.Two)) {
+        if (configuration.getOrdinal(type, Two) < 0) {
             throw new IllegalArgumentException("Unknown type name: " + type.getTypeName());
         }
         if (!type.getTypeKind().isBoolean()) {
@@ -215,19 +365,13 @@ public class DataContainer {
 
     /**
      * @param type
-     * @return
+     * @return The fields of the type, or an empty map if none have been set.
+     * Reads do not change the container, so they are safe from several threads
+     * as long as nobody writes at the same time
      */
     public Map<String, Comparable> getFields(IType type) {
-        if (type == null) {
-            throw new NullPointerException("type may not be null");
-        }
-        if (!configuration.supports(type, Two)) {
-            throw new IllegalArgumentException("type name '" + type.getTypeName() + "' not supported with type dimension " + Two);
-        }
-        if (!data2D.containsKey(type.getTypeName())) {
-            data2D.put(type.getTypeName(), new HashMap<>());
-        }
-        return data2D.get(type.getTypeName());
+        int ordinal = getOrdinal(type, Two);
+        return ordinal < data2D.length && data2D[ordinal] != null ? data2D[ordinal] : Collections.<String, Comparable>emptyMap();
     }
 
     /**
@@ -235,13 +379,11 @@ public class DataContainer {
      * @return
      */
     public String getMinField(IType type) {
-        if (type == null) {
-            throw new NullPointerException("type may not be null");
+        int ordinal = getOrdinal(type, Two);
+        if (ordinal >= minField2D.length) {
+            return null;
         }
-        if (!configuration.supports(type, Two)) {
-            throw new IllegalArgumentException("type name '" + type.getTypeName() + "' not supported with type dimension " + Two);
-        }
-        return minField2D.get(type.getTypeName());
+        return minField2D[ordinal];
     }
 
     /**
@@ -249,13 +391,11 @@ public class DataContainer {
      * @return
      */
     public Comparable getMinValue(IType type) {
-        if (type == null) {
-            throw new NullPointerException("type may not be null");
-        }
-        if (!configuration.supports(type, Two)) {
-            throw new IllegalArgumentException("type name '" + type.getTypeName() + "' not supported with type dimension " + Two);
+        int ordinal = getOrdinal(type, Two);
+        if (ordinal >= minValue2D.length) {
+            return null;
         }
-        return minValue2D.get(type.getTypeName());
+        return minValue2D[ordinal];
     }
 
     /**
@@ -263,13 +403,11 @@ public class DataContainer {
      * @return
      */
     public String getMaxField(IType type) {
-        if (type == null) {
-            throw new NullPointerException("type may not be null");
-        }
-        if (!configuration.supports(type, Two)) {
-            throw new IllegalArgumentException("type name '" + type.getTypeName() + "' not supported with type dimension " + Two);
+        int ordinal = getOrdinal(type, Two);
+        if (ordinal >= maxField2D.length) {
+            return null;
         }
-        return maxField2D.get(type.getTypeName());
+        return maxField2D[ordinal];
     }
 
     /**
@@ -277,26 +415,149 @@ public class DataContainer {
      * @return
      */
     public Comparable getMaxValue(IType type) {
+        int ordinal = getOrdinal(type, Two);
+        if (ordinal >= maxValue2D.length) {
+            return null;
+        }
+        return maxValue2D[ordinal];
+    }
+
+    /**
+     * Compute the min/max data for all 2D types left stale by raw updates (see
+     * setRaw(int, String, Comparable)). Readers doing raw updates call this
+     * once they are done and before the container is shared, so the min/max
+     * getters never change the container
+     */
+    void finishRawUpdates() {
+        for (int ordinal = 0; ordinal < extremaStale.length; ordinal++) {
+            updateExtrema(ordinal);
+        }
+    }
+
+    /**
+     * Redo the min/max analysis for a 2D type from scratch if raw updates (see
+     * setRaw(int, String, Comparable)) left it stale. This is done once per
+     * bulk load; later updates go through the incremental path again
+     *
+     * @param ordinal
+     */
+    private void updateExtrema(int ordinal) {
+        if (!extremaStale[ordinal]) {
+            return;
+        }
+        minField2D[ordinal] = null;
+        minValue2D[ordinal] = null;
+        maxField2D[ordinal] = null;
+        maxValue2D[ordinal] = null;
+        for (Map.Entry<String, Comparable> entry : data2D[ordinal].entrySet()) {
+            Comparable v = entry.getValue();
+            if (minField2D[ordinal] == null) {
+                minField2D[ordinal] = entry.getKey();
+                minValue2D[ordinal] = v;
+                maxField2D[ordinal] = entry.getKey();
+                maxValue2D[ordinal] = v;
+            } else {
+                if (v.compareTo(minValue2D[ordinal]) < 0) {
+                    minField2D[ordinal] = entry.getKey();
+                    minValue2D[ordinal] = v;
+                }
+                if (v.compareTo(maxValue2D[ordinal]) > 0) {
+                    maxField2D[ordinal] = entry.getKey();
+                    maxValue2D[ordinal] = v;
+                }
+            }
+        }
+        extremaStale[ordinal] = false;
+    }
+
+    /**
+     * Resolve the storage slot for a type
+     *
+     * @param type
+     * @param typeDimension
+     * @return
+     */
+    private int getOrdinal(IType type, TypeDimension typeDimension) {
         if (type == null) {
             throw new NullPointerException("type may not be null");
         }
-        if (!configuration.supports(type, Two)) {
-            throw new IllegalArgumentException("type name '" + type.getTypeName() + "' not supported with type dimension " + Two);
+        int ordinal = configuration.getOrdinal(type, typeDimension);
+        if (ordinal < 0) {
+            throw new IllegalArgumentException("type name '" + type.getTypeName() + "' not supported with type dimension " + typeDimension);
+        }
+        return ordinal;
+    }
+
+    /**
+     * @param ordinal
+     * @return The field map for the 2D type with the given ordinal - this is
+     * created on first access
+     */
+    private Map<String, Comparable> getFields(int ordinal) {
+        ensureCapacity2D(ordinal);
+        if (data2D[ordinal] == null) {
+            data2D[ordinal] = new HashMap<>();
+        }
+        return data2D[ordinal];
+    }
+
+    /**
+     * Types can be registered after this container has been created, so the
+     * slot arrays grow on demand
+     *
+     * @param ordinal
+     */
+    private void ensureCapacity1D(int ordinal) {
+        if (ordinal >= data1D.length) {
+            data1D = Arrays.copyOf(data1D, Math.max(ordinal + 1, configuration.getTypeCount(One)));
+        }
+    }
+
+    /**
+     * @param ordinal
+     */
+    private void ensureCapacity2D(int ordinal) {
+        if (ordinal >= data2D.length) {
+            int n = Math.max(ordinal + 1, configuration.getTypeCount(Two));
+            data2D = Arrays.copyOf(data2D, n);
+            minField2D = Arrays.copyOf(minField2D, n);
+            minValue2D = Arrays.copyOf(minValue2D, n);
+            maxField2D = Arrays.copyOf(maxField2D, n);
+            maxValue2D = Arrays.copyOf(maxValue2D, n);
+            valueIndex2D = Arrays.copyOf(valueIndex2D, n);
+            extremaStale = Arrays.copyOf(extremaStale, n);
         }
-        return maxValue2D.get(type.getTypeName());
+    }
+
+    /**
+     * @param n
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Comparable>[] newMapArray(int n) {
+        return (Map<String, Comparable>[]) new Map[n];
+    }
+
+    /**
+     * @param n
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    private static TreeMap<Comparable, Set<String>>[] newIndexArray(int n) {
+        return (TreeMap<Comparable, Set<String>>[]) new TreeMap[n];
     }
 
     /**
      * Check whether a value to be stored is of the required (defined) kind for
      * the given type
      *
-     * @param type
+     * @param ordinal
      * @param value
      * @param typeDimension
      * @return
      */
-    private boolean validateType(IType type, Comparable value, TypeDimension typeDimension) {
-        TypeKind requiredType = configuration.get(typeDimension).get(type.getTypeName()).getTypeKind();
+    private boolean validateType(int ordinal, Comparable value, TypeDimension typeDimension) {
+        TypeKind requiredType = configuration.get(typeDimension, ordinal).getTypeKind();
         switch (requiredType) {
             case TypeDouble:
             case TypeDoublePercentage:
@@ -331,7 +592,7 @@ public class DataContainer {
         sb.append(TypeDimension.Two);
         sb.append("\n");
         for (String typeName : DataConfiguration.getInstance().get(TypeDimension.Two).keySet()) {
-            IType type = DataConfiguration.getInstance().get(TypeDimension.One).get(typeName);
+            IType type = DataConfiguration.getInstance().get(TypeDimension.Two).get(typeName);
             sb.append(typeName);
             sb.append(":\n");
             for (String field : getFields(type).keySet()) {
@@ -1,6 +1,12 @@
 package org.ml.capman;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -22,6 +28,29 @@ public class Employee extends DataContainer {
     private IType sortNameType;
     private final Map<EmployeeUrl, UrlContent> urls = new HashMap<>();
 
+    //.... Cached aggregates over the organisation of this employee. If these are valid for an employee, they are
+    //     valid for all its reports as well; conversely, invalidation always covers the complete manager chain.
+    //     The aggregates are computed under AGGREGATES_LOCK and published by the volatile write of aggregatesValid,
+    //     so concurrent readers (e. g. reporting steps run in parallel) either see complete values or compute them
+    private static final Object AGGREGATES_LOCK = new Object();
+    private volatile boolean aggregatesValid = false;
+    private int organisationSize = 0;
+    private int organisationSizeByHC = 0;
+    private double organisationFTE = 0.0d;
+
+    //.... Change tracking in addition to DataContainer.getVersion(): a change of an employee (including a change of
+    //     its manager) also counts as a change of the direct reports of its manager, and as a change of the
+    //     organisations of the employee itself and of all its managers
+    private long reportsVersion = 0;
+    private long organisationVersion = 0;
+
+    //.... Created on first use, as most employees never get listeners
+    private List<EmployeeChangeListener> changeListeners = null;
+
+    //.... The EmployeeData instances containing this employee, which are told about every change (see touch()). They
+    //     are held weakly, so an instance which is no longer used is not kept alive by its employees
+    private List<WeakReference<EmployeeData<?>>> owners = null;
+
     /**
      * Types of URL data that can be stored for an employee. Currently, this is
      * not extensible or configurable.
@@ -51,6 +80,18 @@ public class Employee extends DataContainer {
         }
     }
 
+    /**
+     * For read-only views on data stored elsewhere, see MappedEmployee. The ID
+     * is taken as it is and no URL data is set up
+     *
+     * @param ID
+     * @param configuration
+     */
+    Employee(String ID, DataConfiguration configuration) {
+        super(configuration);
+        this.ID = ID;
+    }
+
     /**
      * @return
      */
@@ -70,6 +111,7 @@ public class Employee extends DataContainer {
             throw new NullPointerException("urlContent may not be null");
         }
         urls.put(employeeUrl, urlContent);
+        touch();
     }
 
     /**
@@ -102,6 +144,22 @@ public class Employee extends DataContainer {
         }
     }
 
+    /**
+     * @return The IType which holds the name for the employee or null if it
+     * has not been set
+     */
+    IType getNameType() {
+        return nameType;
+    }
+
+    /**
+     * @return The IType used for sorting this employee or null if it has not
+     * been set
+     */
+    IType getSortNameType() {
+        return sortNameType;
+    }
+
     /**
      * Set the IType which is to be used for sorting this employee
      *
@@ -133,7 +191,185 @@ public class Employee extends DataContainer {
         if (capacityType == null) {
             throw new NullPointerException("capacityType may not be null");
         }
-        capacity.set(capacityType, value);
+        beforeChange();
+        try {
+            capacity.set(capacityType, value);
+        } finally {
+            changed();
+            notifyOwners(null, true);
+            afterChange();
+        }
+        if (manager != null) {
+            manager.invalidateOrganisationAggregates();
+        }
+    }
+
+    /**
+     * Register a listener for changes of the data or the capacity of this
+     * employee. Changes made directly on the EmployeeCapacity instance (see
+     * getCapacity()) are not reported
+     *
+     * @param listener
+     */
+    public synchronized void addChangeListener(EmployeeChangeListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener may not be null");
+        }
+        if (changeListeners == null) {
+            changeListeners = new ArrayList<>();
+        }
+        changeListeners.add(listener);
+    }
+
+    /**
+     * @param listener
+     */
+    public synchronized void removeChangeListener(EmployeeChangeListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener may not be null");
+        }
+        if (changeListeners != null) {
+            changeListeners.remove(listener);
+        }
+    }
+
+    /**
+     *
+     */
+    @Override
+    protected void beforeChange() {
+        if (changeListeners != null) {
+            for (EmployeeChangeListener listener : changeListeners) {
+                listener.beforeChange(this);
+            }
+        }
+    }
+
+    /**
+     *
+     */
+    @Override
+    protected void afterChange() {
+        if (changeListeners != null) {
+            for (EmployeeChangeListener listener : changeListeners) {
+                listener.afterChange(this);
+            }
+        }
+    }
+
+    /**
+     * Besides the version of the data of this employee, this also updates the
+     * versions for its manager and the organisations it is part of. The
+     * EmployeeData instances containing this employee drop all their derived
+     * data
+     */
+    @Override
+    protected void touch() {
+        changed();
+        notifyOwners(null, false);
+    }
+
+    /**
+     * As touch(), but the EmployeeData instances containing this employee only
+     * drop the derived data depending on the values of the given type
+     *
+     * @param type
+     */
+    @Override
+    protected void touch(IType type) {
+        changed();
+        notifyOwners(type, false);
+    }
+
+    /**
+     * Update the versions of this employee, its manager and the organisations
+     * it is part of
+     */
+    private void changed() {
+        super.touch();
+        if (manager != null) {
+            manager.reportsVersion++;
+        }
+        touchOrganisation(this);
+    }
+
+    /**
+     * Tell the EmployeeData instances containing this employee about a change
+     *
+     * @param type The type of the changed value, or null
+     * @param capacity True if the capacity has changed
+     */
+    private void notifyOwners(IType type, boolean capacity) {
+        if (owners == null) {
+            return;
+        }
+        Iterator<WeakReference<EmployeeData<?>>> iterator = owners.iterator();
+        while (iterator.hasNext()) {
+            EmployeeData<?> owner = iterator.next().get();
+            if (owner == null) {
+                iterator.remove();
+            } else if (type != null) {
+                owner.valueChanged(type);
+            } else if (capacity) {
+                owner.capacityChanged();
+            } else {
+                owner.employeeChanged();
+            }
+        }
+    }
+
+    /**
+     * @param owner An EmployeeData instance this employee has been added to
+     */
+    synchronized void addOwner(EmployeeData<?> owner) {
+        if (owners == null) {
+            owners = new ArrayList<>(1);
+        }
+        owners.add(new WeakReference<>(owner));
+    }
+
+    /**
+     * @param owner An EmployeeData instance this employee has been removed
+     * from, or which no longer tracks it
+     */
+    synchronized void removeOwner(EmployeeData<?> owner) {
+        if (owners != null) {
+            Iterator<WeakReference<EmployeeData<?>>> iterator = owners.iterator();
+            while (iterator.hasNext()) {
+                EmployeeData<?> o = iterator.next().get();
+                if (o == null || o == owner) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param employee
+     */
+    private static void touchOrganisation(Employee employee) {
+        while (employee != null) {
+            employee.organisationVersion++;
+            employee = employee.manager;
+        }
+    }
+
+    /**
+     * @return A counter increased with every change of one of the direct
+     * reports of this employee (see DataContainer.getVersion()) and when a
+     * direct report is added or removed
+     */
+    public long getReportsVersion() {
+        return reportsVersion;
+    }
+
+    /**
+     * @return A counter increased with every change of this employee or of
+     * one of its direct or indirect reports, and with every change of the
+     * reporting lines within its organisation
+     */
+    public long getOrganisationVersion() {
+        return organisationVersion;
     }
 
     /**
@@ -169,15 +405,8 @@ public class Employee extends DataContainer {
      * @return
      */
     public int organisationSize() {
-        if (employees.isEmpty()) {
-            return 0;
-        } else {
-            int count = getEmployees().size();
-            for (Employee employee : getEmployees().values()) {
-                count += employee.organisationSize();
-            }
-            return count;
-        }
+        updateOrganisationAggregates();
+        return organisationSize;
     }
 
     /**
@@ -187,19 +416,86 @@ public class Employee extends DataContainer {
      * @return
      */
     public int organisationSizeByHC() {
-        if (employees.isEmpty()) {
-            return 0;
-        } else {
-            int count = 0;
-            for (Employee employee : getEmployees().values()) {
-                if (employee.getCapacity().getAsInt(EmployeeCapacity.CapacityType.HC) == 1) {
-                    count++;
+        updateOrganisationAggregates();
+        return organisationSizeByHC;
+    }
+
+    /**
+     * The FTE sum of the organisation (i. e. all reports). Reports without an
+     * FTE value (EmployeeCapacity.NOT_SET) do not contribute
+     *
+     * @return
+     */
+    public double organisationFTE() {
+        updateOrganisationAggregates();
+        return organisationFTE;
+    }
+
+    /**
+     * Compute the organisation aggregates for this employee and all reports in
+     * one post-order pass. Subtrees for which the aggregates are still valid
+     * are not visited again, so after a pass over the complete tree all
+     * organisationSize*() calls are O(1) until the tree or the capacity of an
+     * employee changes. This is safe to call from several threads as long as
+     * the tree itself is not changed at the same time
+     */
+    public void updateOrganisationAggregates() {
+        if (aggregatesValid) {
+            return;
+        }
+        synchronized (AGGREGATES_LOCK) {
+            if (aggregatesValid) {
+                return;
+            }
+
+            //.... Collect all employees needing an update in pre-order; the reverse order then has all reports before their manager
+            List<Employee> order = new ArrayList<>();
+            Deque<Employee> stack = new ArrayDeque<>();
+            stack.push(this);
+            while (!stack.isEmpty()) {
+                Employee employee = stack.pop();
+                order.add(employee);
+                for (Employee child : employee.employees.values()) {
+                    if (!child.aggregatesValid) {
+                        stack.push(child);
+                    }
                 }
             }
-            for (Employee employee : getEmployees().values()) {
-                count += employee.organisationSizeByHC();
+
+            for (int i = order.size() - 1; i >= 0; i--) {
+                Employee employee = order.get(i);
+                int size = 0;
+                int sizeByHC = 0;
+                double fte = 0.0d;
+                for (Employee child : employee.employees.values()) {
+                    size += 1 + child.organisationSize;
+                    if (child.getCapacity().getAsInt(EmployeeCapacity.CapacityType.HC) == 1) {
+                        sizeByHC++;
+                    }
+                    sizeByHC += child.organisationSizeByHC;
+                    double childFTE = child.getCapacity(EmployeeCapacity.CapacityType.FTE);
+                    if (childFTE != EmployeeCapacity.NOT_SET) {
+                        fte += childFTE;
+                    }
+                    fte += child.organisationFTE;
+                }
+                employee.organisationSize = size;
+                employee.organisationSizeByHC = sizeByHC;
+                employee.organisationFTE = fte;
+                employee.aggregatesValid = true;
             }
-            return count;
+        }
+    }
+
+    /**
+     * Mark the organisation aggregates of this employee and all its managers
+     * as outdated
+     */
+    void invalidateOrganisationAggregates() {
+        Employee employee = this;
+        while (employee != null && employee.aggregatesValid) {
+            employee.aggregatesValid = false;
+            employee = employee.manager;
         }
     }
 
@@ -224,14 +520,47 @@ public class Employee extends DataContainer {
         if (manager == null) {
             throw new IllegalArgumentException("manager may not be null");
         }
+        if (this.manager != null) {
+            this.manager.invalidateOrganisationAggregates();
+            this.manager.reportsVersion++;
+            touchOrganisation(this.manager);
+        }
         this.manager = manager;
+        manager.invalidateOrganisationAggregates();
+        touch();
     }
 
     /**
      *
      */
     public void clearManager() {
+        if (manager != null) {
+            manager.invalidateOrganisationAggregates();
+            manager.reportsVersion++;
+            touchOrganisation(manager);
+        }
         this.manager = null;
+        touch();
+    }
+
+    /**
+     * Restore the reporting lines of this employee without change tracking,
+     * for readers of data which has been assembled before, like snapshots.
+     * Unlike setManager() and addEmployee(), this does not update the other
+     * side of the reporting lines
+     *
+     * @param manager The manager or null
+     * @param reports The direct reports
+     */
+    void restoreReportingLines(Employee manager, List<Employee> reports) {
+        if (reports == null) {
+            throw new NullPointerException("reports may not be null");
+        }
+        this.manager = manager;
+        for (Employee employee : reports) {
+            employees.put(employee.getID(), employee);
+        }
+        aggregatesValid = false;
     }
 
     /**
@@ -252,6 +581,23 @@ public class Employee extends DataContainer {
         }
         employees.put(employee.getID(), employee);
         employee.setManager(this);
+        invalidateOrganisationAggregates();
+    }
+
+    /**
+     * Remove a direct report of this employee, which then has no manager
+     *
+     * @param employee
+     */
+    public void removeEmployee(Employee employee) {
+        if (employee == null) {
+            throw new IllegalArgumentException("employee may not be null");
+        }
+        if (employees.get(employee.getID()) != employee) {
+            throw new IllegalArgumentException("Employee " + employee.getID() + " is not a direct report of " + ID);
+        }
+        employees.remove(employee.getID());
+        employee.clearManager();
     }
 
     /**
@@ -266,6 +612,7 @@ public class Employee extends DataContainer {
      */
     public void setRoot(boolean root) {
         this.root = root;
+        touch();
     }
 
     /**
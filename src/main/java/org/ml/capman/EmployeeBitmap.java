@@ -0,0 +1,688 @@
+package org.ml.capman;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of employee positions (the position of an employee in
+ * EmployeeData.getEmployees()), meant for filters on low-cardinality types
+ * like boolean flags or countries. Combining filters (and(), or(), andNot())
+ * and counting or summing over the result works on 64 positions per machine
+ * word instead of one employee at a time.
+ *
+ * The positions are split into chunks of 65536 by their upper 16 bits, and
+ * each non-empty chunk is stored in the most compact of three containers:
+ *
+ * - an array container: the sorted lower 16 bits, for sparse chunks
+ * - a bitmap container: 1024 words with one bit per position, for dense chunks
+ * - a run container: start and length of each run of consecutive positions,
+ * for chunks with few long runs (e. g. after sorting by the type)
+ *
+ * Instances are immutable.
+ *
+ * @author mlaux
+ */
+public class EmployeeBitmap {
+
+    private final static int CHUNK_BITS = 16;
+    private final static int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private final static int WORDS = CHUNK_SIZE / 64;
+
+    /**
+     * An empty set
+     */
+    public final static EmployeeBitmap EMPTY = new EmployeeBitmap(new char[0], new Container[0]);
+
+    private final char[] keys;
+    private final Container[] containers;
+
+    /**
+     * @param keys
+     * @param containers
+     */
+    private EmployeeBitmap(char[] keys, Container[] containers) {
+        this.keys = keys;
+        this.containers = containers;
+    }
+
+    /**
+     * @param rows The positions of the employees, in ascending order
+     * @return
+     */
+    public static EmployeeBitmap of(int[] rows) {
+        if (rows == null) {
+            throw new NullPointerException("rows may not be null");
+        }
+        Builder builder = new Builder();
+        long[] words = null;
+        int key = -1;
+        int previous = -1;
+        for (int row : rows) {
+            if (row <= previous) {
+                throw new IllegalArgumentException("The positions need to be in strictly ascending order: " + row + " after " + previous);
+            }
+            previous = row;
+            if (row >>> CHUNK_BITS != key) {
+                if (words != null) {
+                    builder.add(key, Container.compress(words));
+                }
+                key = row >>> CHUNK_BITS;
+                words = new long[WORDS];
+            }
+            int low = row & (CHUNK_SIZE - 1);
+            words[low >>> 6] |= 1L << low;
+        }
+        if (words != null) {
+            builder.add(key, Container.compress(words));
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param from The first position (inclusive)
+     * @param to The last position (exclusive)
+     * @return The set of all positions in the given range
+     */
+    public static EmployeeBitmap range(int from, int to) {
+        if (from < 0 || from > to) {
+            throw new IllegalArgumentException("Invalid range [" + from + ", " + to + ")");
+        }
+        Builder builder = new Builder();
+        for (int key = from >>> CHUNK_BITS; from < to; key++) {
+            int end = Math.min(to, (key + 1) << CHUNK_BITS);
+            builder.add(key, new RunContainer(new char[]{(char) from}, new char[]{(char) (end - from - 1)}));
+            from = end;
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return The number of positions in this set
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (Container container : containers) {
+            cardinality += container.cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * @return
+     */
+    public boolean isEmpty() {
+        return containers.length == 0;
+    }
+
+    /**
+     * @param row
+     * @return
+     */
+    public boolean contains(int row) {
+        if (row < 0) {
+            return false;
+        }
+        int i = Arrays.binarySearch(keys, (char) (row >>> CHUNK_BITS));
+        return i >= 0 && containers[i].contains((char) row);
+    }
+
+    /**
+     * @return The largest position in this set or -1 if the set is empty
+     */
+    public int last() {
+        if (containers.length == 0) {
+            return -1;
+        }
+        return (keys[keys.length - 1] << CHUNK_BITS) | containers[containers.length - 1].last();
+    }
+
+    /**
+     * @param other
+     * @return The positions contained in both sets
+     */
+    public EmployeeBitmap and(EmployeeBitmap other) {
+        if (other == null) {
+            throw new NullPointerException("other may not be null");
+        }
+        Builder builder = new Builder();
+        int i1 = 0;
+        int i2 = 0;
+        while (i1 < keys.length && i2 < other.keys.length) {
+            if (keys[i1] < other.keys[i2]) {
+                i1++;
+            } else if (keys[i1] > other.keys[i2]) {
+                i2++;
+            } else {
+                builder.add(keys[i1], containers[i1++].and(other.containers[i2++]));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param other
+     * @return The positions contained in at least one of the sets
+     */
+    public EmployeeBitmap or(EmployeeBitmap other) {
+        if (other == null) {
+            throw new NullPointerException("other may not be null");
+        }
+        Builder builder = new Builder();
+        int i1 = 0;
+        int i2 = 0;
+        while (i1 < keys.length || i2 < other.keys.length) {
+            if (i2 == other.keys.length || (i1 < keys.length && keys[i1] < other.keys[i2])) {
+                builder.add(keys[i1], containers[i1++]);
+            } else if (i1 == keys.length || keys[i1] > other.keys[i2]) {
+                builder.add(other.keys[i2], other.containers[i2++]);
+            } else {
+                long[] words = containers[i1++].toWords();
+                other.containers[i2].or(words);
+                builder.add(other.keys[i2++], Container.compress(words));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param other
+     * @return The positions contained in this set but not in the other one
+     */
+    public EmployeeBitmap andNot(EmployeeBitmap other) {
+        if (other == null) {
+            throw new NullPointerException("other may not be null");
+        }
+        Builder builder = new Builder();
+        int i2 = 0;
+        for (int i1 = 0; i1 < keys.length; i1++) {
+            while (i2 < other.keys.length && other.keys[i2] < keys[i1]) {
+                i2++;
+            }
+            if (i2 < other.keys.length && other.keys[i2] == keys[i1]) {
+                long[] words = containers[i1].toWords();
+                long[] otherWords = other.containers[i2].toWords();
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] &= ~otherWords[w];
+                }
+                builder.add(keys[i1], Container.compress(words));
+            } else {
+                builder.add(keys[i1], containers[i1]);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param consumer Called for each position in this set, in ascending order
+     */
+    public void forEach(IntConsumer consumer) {
+        if (consumer == null) {
+            throw new NullPointerException("consumer may not be null");
+        }
+        for (int i = 0; i < containers.length; i++) {
+            containers[i].forEach(keys[i] << CHUNK_BITS, consumer);
+        }
+    }
+
+    /**
+     * @return The positions in this set, in ascending order
+     */
+    public int[] toArray() {
+        int[] rows = new int[cardinality()];
+        int n = 0;
+        for (int i = 0; i < containers.length; i++) {
+            n = containers[i].toArray(keys[i] << CHUNK_BITS, rows, n);
+        }
+        return rows;
+    }
+
+    /**
+     * @param values Values by position, like a column of a CapacityMatrix
+     * @return The sum of the values at the positions in this set
+     */
+    public double sum(double[] values) {
+        if (values == null) {
+            throw new NullPointerException("values may not be null");
+        }
+        double sum = 0.0d;
+        for (int i = 0; i < containers.length; i++) {
+            sum += containers[i].sum(keys[i] << CHUNK_BITS, values);
+        }
+        return sum;
+    }
+
+    /**
+     * @return
+     */
+    @Override
+    public String toString() {
+        return "EmployeeBitmap{cardinality=" + cardinality() + ", containers=" + containers.length + "}";
+    }
+
+    /**
+     * Collects the non-empty containers in ascending key order
+     */
+    private static class Builder {
+
+        private final List<Character> keys = new ArrayList<>();
+        private final List<Container> containers = new ArrayList<>();
+
+        /**
+         * @param key
+         * @param container
+         */
+        private void add(int key, Container container) {
+            if (container != null) {
+                keys.add((char) key);
+                containers.add(container);
+            }
+        }
+
+        /**
+         * @return
+         */
+        private EmployeeBitmap build() {
+            if (keys.isEmpty()) {
+                return EMPTY;
+            }
+            char[] k = new char[keys.size()];
+            for (int i = 0; i < k.length; i++) {
+                k[i] = keys.get(i);
+            }
+            return new EmployeeBitmap(k, containers.toArray(new Container[containers.size()]));
+        }
+    }
+
+    /**
+     * The positions within one chunk, given by their lower 16 bits
+     */
+    private static abstract class Container {
+
+        /**
+         * @param words One bit per position of the chunk
+         * @return The most compact container for the given positions or null
+         * if there are none
+         */
+        static Container compress(long[] words) {
+            int cardinality = 0;
+            int runs = 0;
+            long carry = 0L;
+            for (long word : words) {
+                cardinality += Long.bitCount(word);
+
+                //.... A run starts at every set bit whose predecessor is not set
+                runs += Long.bitCount(word & ~((word << 1) | carry));
+                carry = word >>> 63;
+            }
+            if (cardinality == 0) {
+                return null;
+            }
+            int bitmapSize = 8 * WORDS;
+            int arraySize = 2 * cardinality;
+            int runSize = 4 * runs;
+            if (runSize < arraySize && runSize < bitmapSize) {
+                return RunContainer.of(words, runs);
+            }
+            if (arraySize < bitmapSize) {
+                return ArrayContainer.of(words, cardinality);
+            }
+            return new BitmapContainer(words, cardinality);
+        }
+
+        /**
+         * @return
+         */
+        abstract int cardinality();
+
+        /**
+         * @param low
+         * @return
+         */
+        abstract boolean contains(char low);
+
+        /**
+         * @return The largest lower 16 bits contained
+         */
+        abstract int last();
+
+        /**
+         * Set the bits of all positions of this container
+         *
+         * @param words
+         */
+        abstract void or(long[] words);
+
+        /**
+         * @param base The upper bits of the positions
+         * @param consumer
+         */
+        abstract void forEach(int base, IntConsumer consumer);
+
+        /**
+         * @param base The upper bits of the positions
+         * @param rows
+         * @param n The next free entry in rows
+         * @return The next free entry in rows after adding the positions
+         */
+        abstract int toArray(int base, int[] rows, int n);
+
+        /**
+         * @param base The upper bits of the positions
+         * @param values
+         * @return
+         */
+        abstract double sum(int base, double[] values);
+
+        /**
+         * @return
+         */
+        long[] toWords() {
+            long[] words = new long[WORDS];
+            or(words);
+            return words;
+        }
+
+        /**
+         * @param other
+         * @return The intersection or null if it is empty
+         */
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] words = toWords();
+            long[] otherWords = other.toWords();
+            for (int w = 0; w < WORDS; w++) {
+                words[w] &= otherWords[w];
+            }
+            return compress(words);
+        }
+    }
+
+    /**
+     * Sorted lower 16 bits
+     */
+    private static class ArrayContainer extends Container {
+
+        private final char[] values;
+
+        /**
+         * @param values
+         */
+        private ArrayContainer(char[] values) {
+            this.values = values;
+        }
+
+        /**
+         * @param words
+         * @param cardinality
+         * @return
+         */
+        static ArrayContainer of(long[] words, int cardinality) {
+            char[] values = new char[cardinality];
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0L) {
+                    values[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values);
+        }
+
+        @Override
+        int cardinality() {
+            return values.length;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return Arrays.binarySearch(values, low) >= 0;
+        }
+
+        @Override
+        int last() {
+            return values[values.length - 1];
+        }
+
+        @Override
+        void or(long[] words) {
+            for (char value : values) {
+                words[value >>> 6] |= 1L << value;
+            }
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (char value : values) {
+                consumer.accept(base | value);
+            }
+        }
+
+        @Override
+        int toArray(int base, int[] rows, int n) {
+            for (char value : values) {
+                rows[n++] = base | value;
+            }
+            return n;
+        }
+
+        @Override
+        double sum(int base, double[] values) {
+            double sum = 0.0d;
+            for (char value : this.values) {
+                sum += values[base | value];
+            }
+            return sum;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[values.length];
+            int n = 0;
+            for (char value : values) {
+                if (other.contains(value)) {
+                    result[n++] = value;
+                }
+            }
+            return n == 0 ? null : new ArrayContainer(Arrays.copyOf(result, n));
+        }
+    }
+
+    /**
+     * One bit per position
+     */
+    private static class BitmapContainer extends Container {
+
+        private final long[] words;
+        private final int cardinality;
+
+        /**
+         * @param words
+         * @param cardinality
+         */
+        private BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0L;
+        }
+
+        @Override
+        int last() {
+            for (int w = WORDS - 1; w >= 0; w--) {
+                if (words[w] != 0L) {
+                    return (w << 6) + 63 - Long.numberOfLeadingZeros(words[w]);
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        void or(long[] words) {
+            for (int w = 0; w < WORDS; w++) {
+                words[w] |= this.words[w];
+            }
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0L) {
+                    consumer.accept(base + (w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        int toArray(int base, int[] rows, int n) {
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0L) {
+                    rows[n++] = base + (w << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return n;
+        }
+
+        @Override
+        double sum(int base, double[] values) {
+            double sum = 0.0d;
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0L) {
+                    sum += values[base + (w << 6) + Long.numberOfTrailingZeros(word)];
+                    word &= word - 1;
+                }
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * Runs of consecutive positions, each given by its start and its length
+     * minus one
+     */
+    private static class RunContainer extends Container {
+
+        private final char[] starts;
+        private final char[] lengths;
+
+        /**
+         * @param starts
+         * @param lengths
+         */
+        private RunContainer(char[] starts, char[] lengths) {
+            this.starts = starts;
+            this.lengths = lengths;
+        }
+
+        /**
+         * @param words
+         * @param runs
+         * @return
+         */
+        static RunContainer of(long[] words, int runs) {
+            char[] starts = new char[runs];
+            char[] lengths = new char[runs];
+            int n = -1;
+            int previous = -2;
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0L) {
+                    int low = (w << 6) + Long.numberOfTrailingZeros(word);
+                    if (low == previous + 1) {
+                        lengths[n]++;
+                    } else {
+                        starts[++n] = (char) low;
+                    }
+                    previous = low;
+                    word &= word - 1;
+                }
+            }
+            return new RunContainer(starts, lengths);
+        }
+
+        @Override
+        int cardinality() {
+            int cardinality = starts.length;
+            for (char length : lengths) {
+                cardinality += length;
+            }
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char low) {
+            int i = Arrays.binarySearch(starts, low);
+            if (i >= 0) {
+                return true;
+            }
+            i = -i - 2;
+            return i >= 0 && low - starts[i] <= lengths[i];
+        }
+
+        @Override
+        int last() {
+            return starts[starts.length - 1] + lengths[lengths.length - 1];
+        }
+
+        @Override
+        void or(long[] words) {
+            for (int i = 0; i < starts.length; i++) {
+                int end = starts[i] + lengths[i];
+                for (int low = starts[i]; low <= end; low++) {
+                    words[low >>> 6] |= 1L << low;
+                }
+            }
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (int i = 0; i < starts.length; i++) {
+                int end = base + starts[i] + lengths[i];
+                for (int row = base + starts[i]; row <= end; row++) {
+                    consumer.accept(row);
+                }
+            }
+        }
+
+        @Override
+        int toArray(int base, int[] rows, int n) {
+            for (int i = 0; i < starts.length; i++) {
+                int end = base + starts[i] + lengths[i];
+                for (int row = base + starts[i]; row <= end; row++) {
+                    rows[n++] = row;
+                }
+            }
+            return n;
+        }
+
+        @Override
+        double sum(int base, double[] values) {
+            double sum = 0.0d;
+            for (int i = 0; i < starts.length; i++) {
+                int end = base + starts[i] + lengths[i];
+                for (int row = base + starts[i]; row <= end; row++) {
+                    sum += values[row];
+                }
+            }
+            return sum;
+        }
+    }
+
+}
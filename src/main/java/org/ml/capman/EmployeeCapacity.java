@@ -1,14 +1,14 @@
 package org.ml.capman;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * @author mlaux
  */
 public class EmployeeCapacity {
 
-    private Map<CapacityType, Double> data = new HashMap<>();
+    //.... Indexed by CapacityType.ordinal()
+    private final double[] data = new double[CapacityType.values().length];
     public final static double NOT_SET = -1.0d;
     private boolean checkConstraint = false;
     private final static double DEFAULT_LOWER_BOUND = 0.0d;
@@ -27,9 +27,7 @@ public class EmployeeCapacity {
      *
      */
     public EmployeeCapacity() {
-        for (CapacityType capacityType : CapacityType.values()) {
-            data.put(capacityType, NOT_SET);
-        }
+        Arrays.fill(data, NOT_SET);
     }
 
     /**
@@ -67,7 +65,7 @@ public class EmployeeCapacity {
                 throw new IllegalArgumentException("value '" + value + "' is out of bounds [" + lowerBound + "/" + upperBound + "]");
             }
         }
-        data.put(type, value);
+        data[type.ordinal()] = value;
     }
 
     /**
@@ -78,7 +76,7 @@ public class EmployeeCapacity {
         if (capacityType == null) {
             throw new NullPointerException("capacityType may not be null");
         }
-        return data.get(capacityType);
+        return data[capacityType.ordinal()];
     }
 
     /**
@@ -89,7 +87,17 @@ public class EmployeeCapacity {
         if (capacityType == null) {
             throw new NullPointerException("capacityType may not be null");
         }
-        return (int) Math.round(data.get(capacityType));
+        return (int) Math.round(data[capacityType.ordinal()]);
+    }
+
+    /**
+     * The backing array, indexed by CapacityType.ordinal(). This is for bulk
+     * readers inside this package and must not be modified
+     *
+     * @return
+     */
+    double[] getValues() {
+        return data;
     }
 
     /**
@@ -103,7 +111,7 @@ public class EmployeeCapacity {
             sb.append("CapacityType ");
             sb.append(capacityType);
             sb.append(" : ");
-            sb.append(data.get(capacityType));
+            sb.append(data[capacityType.ordinal()]);
             sb.append("\n");
         }
         return sb.toString();
@@ -0,0 +1,24 @@
+package org.ml.capman;
+
+/**
+ * Notified about changes of the data (see DataContainer.set()) or the capacity
+ * (see Employee.setCapacity()) of an employee: beforeChange() is called with
+ * the employee still in its old state, afterChange() with the employee in its
+ * new state. This allows derived data like capacity summaries to replace the
+ * contribution of the employee instead of being rebuilt.
+ *
+ * @author mlaux
+ */
+public interface EmployeeChangeListener {
+
+    /**
+     * @param employee
+     */
+    void beforeChange(Employee employee);
+
+    /**
+     * @param employee
+     */
+    void afterChange(Employee employee);
+
+}
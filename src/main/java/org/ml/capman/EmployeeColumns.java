@@ -0,0 +1,209 @@
+package org.ml.capman;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.ml.capman.DataConfiguration.TypeDimension.One;
+
+import org.ml.capman.EmployeeCapacity.CapacityType;
+
+/**
+ * A columnar (struct of arrays) representation of the employee data held by an
+ * EmployeeData instance. There is one column per 1D type, addressed by the type
+ * ordinal, and the capacity data as a CapacityMatrix. Row i in every column
+ * belongs to the employee at position i in EmployeeData.getEmployees().
+ *
+ * The 1D columns are dictionary-encoded: each distinct value is stored once in
+ * the dictionary and the column itself holds int codes into the dictionary, so
+ * scans over a column are sequential reads of an int[] and group-by operations
+ * can be done on the codes directly.
+ *
+ * This is a snapshot: changes to the employees after the columns have been
+ * built are not reflected.
+ *
+ * @author mlaux
+ */
+public class EmployeeColumns {
+
+    /**
+     * Code used for rows where the employee has no value for the type
+     */
+    public final static int NO_VALUE = -1;
+
+    private final int size;
+    private final Column[] columns;
+    private final CapacityMatrix capacity;
+
+    /**
+     * One dictionary-encoded 1D type column
+     */
+    public static class Column {
+
+        private final IType type;
+        private final List<Comparable> dictionary = new ArrayList<>();
+        private final Map<Comparable, Integer> codes = new HashMap<>();
+        private final int[] values;
+
+        /**
+         * @param type
+         * @param size
+         */
+        private Column(IType type, int size) {
+            this.type = type;
+            this.values = new int[size];
+        }
+
+        /**
+         * @param index
+         * @param value
+         */
+        private void set(int index, Comparable value) {
+            if (value == null) {
+                values[index] = NO_VALUE;
+                return;
+            }
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add(value);
+                codes.put(value, code);
+            }
+            values[index] = code;
+        }
+
+        /**
+         * @return
+         */
+        public IType getType() {
+            return type;
+        }
+
+        /**
+         * @return The distinct values of this column, in order of first
+         * appearance. The position of a value in this list is its code
+         */
+        public List<Comparable> getDictionary() {
+            return Collections.unmodifiableList(dictionary);
+        }
+
+        /**
+         * @param value
+         * @return The code for the value or NO_VALUE if the value does not
+         * occur in this column
+         */
+        public int getCode(Comparable value) {
+            if (value == null) {
+                throw new NullPointerException("value may not be null");
+            }
+            Integer code = codes.get(value);
+            return code == null ? NO_VALUE : code;
+        }
+
+        /**
+         * @param index
+         * @return
+         */
+        public int getCodeAt(int index) {
+            return values[index];
+        }
+
+        /**
+         * @param index
+         * @return
+         */
+        public Comparable getValueAt(int index) {
+            int code = values[index];
+            return code == NO_VALUE ? null : dictionary.get(code);
+        }
+
+        /**
+         * The raw codes of this column, one per employee. The array is returned
+         * as is for sequential scans and must not be modified
+         *
+         * @return
+         */
+        public int[] getCodes() {
+            return values;
+        }
+    }
+
+    /**
+     * @param employees
+     */
+    public EmployeeColumns(List<? extends Employee> employees) {
+        this(employees, new CapacityMatrix(employees));
+    }
+
+    /**
+     * @param employees
+     * @param capacity The capacity data for the same list of employees
+     */
+    public EmployeeColumns(List<? extends Employee> employees, CapacityMatrix capacity) {
+        if (employees == null) {
+            throw new NullPointerException("employees may not be null");
+        }
+        if (capacity == null) {
+            throw new NullPointerException("capacity may not be null");
+        }
+        if (capacity.size() != employees.size()) {
+            throw new IllegalArgumentException("capacity size " + capacity.size() + " does not match the number of employees " + employees.size());
+        }
+        this.capacity = capacity;
+        DataConfiguration configuration = DataConfiguration.getInstance();
+        size = employees.size();
+        columns = new Column[configuration.getTypeCount(One)];
+        for (int ordinal = 0; ordinal < columns.length; ordinal++) {
+            columns[ordinal] = new Column(configuration.get(One, ordinal), size);
+        }
+
+        for (int i = 0; i < size; i++) {
+            Employee employee = employees.get(i);
+            for (Column column : columns) {
+                column.set(i, employee.get(column.type));
+            }
+        }
+    }
+
+    /**
+     * @return The number of rows, i. e. employees
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param type
+     * @return
+     */
+    public Column getColumn(IType type) {
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        int ordinal = DataConfiguration.getInstance().getOrdinal(type, One);
+        if (ordinal < 0 || ordinal >= columns.length) {
+            throw new IllegalArgumentException("No column available for type " + type.getTypeName() + " with type dimension " + One);
+        }
+        return columns[ordinal];
+    }
+
+    /**
+     * The capacity column for the given type. The array is returned as is for
+     * sequential scans and must not be modified
+     *
+     * @param capacityType
+     * @return
+     */
+    public double[] getCapacity(CapacityType capacityType) {
+        return capacity.get(capacityType);
+    }
+
+    /**
+     * @return
+     */
+    public CapacityMatrix getCapacityMatrix() {
+        return capacity;
+    }
+}
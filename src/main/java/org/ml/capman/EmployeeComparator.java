@@ -1,12 +1,50 @@
 package org.ml.capman;
 
+import java.text.Collator;
 import java.util.Comparator;
+import java.util.Locale;
+import java.util.Objects;
 
 /**
+ * Orders employees by their sort name and ID. By default the plain String
+ * order is used; with a locale the comparison is done with a Collator for that
+ * locale. All instances with the same locale are equal, so that sort orders
+ * cached by EmployeeData (see getSortOrder()) are shared between them
+ *
  * @author osboxes
  */
 public class EmployeeComparator implements Comparator<Employee> {
 
+    private final Locale locale;
+    private final Collator collator;
+
+    /**
+     *
+     */
+    public EmployeeComparator() {
+        locale = null;
+        collator = null;
+    }
+
+    /**
+     * @param locale
+     */
+    public EmployeeComparator(Locale locale) {
+        if (locale == null) {
+            throw new NullPointerException("locale may not be null");
+        }
+        this.locale = locale;
+        collator = Collator.getInstance(locale);
+    }
+
+    /**
+     * @return The locale for the comparison or null if the plain String order
+     * is used
+     */
+    public Locale getLocale() {
+        return locale;
+    }
+
     /**
      * #
      *
@@ -22,7 +60,45 @@ public class EmployeeComparator implements Comparator<Employee> {
         if (employee2 == null) {
             throw new NullPointerException("employee2 may not be null");
         }
-        return employee1.getSortSignature().compareTo(employee2.getSortSignature());
+        if (collator == null) {
+            return employee1.getSortSignature().compareTo(employee2.getSortSignature());
+        }
+        return collator.compare(employee1.getSortSignature(), employee2.getSortSignature());
+    }
+
+    /**
+     * @param sortSignature
+     * @return A key for the given sort signature which orders the same way as
+     * this comparator
+     */
+    Comparable getSortKey(String sortSignature) {
+        if (sortSignature == null) {
+            throw new NullPointerException("sortSignature may not be null");
+        }
+        if (collator == null) {
+            return sortSignature;
+        }
+        return collator.getCollationKey(sortSignature);
+    }
+
+    /**
+     * @param other
+     * @return
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (other == null || other.getClass() != getClass()) {
+            return false;
+        }
+        return Objects.equals(locale, ((EmployeeComparator) other).locale);
+    }
+
+    /**
+     * @return
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(locale);
     }
 
 }
@@ -1,9 +1,16 @@
 package org.ml.capman;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.ml.capman.DataConfiguration.TypeDimension.One;
 
 /**
  * @param <EMP>
@@ -11,10 +18,52 @@ import java.util.Map;
  */
 public class EmployeeData<EMP extends Employee> {
 
-    private final List<EMP> employees = new ArrayList<>();
-    private final Map<String, EMP> employeesByID = new HashMap<>();
+    private final ArrayList<EMP> employees = new ArrayList<>();
+    private Map<String, EMP> employeesByID = new HashMap<>();
+    private Map<String, Integer> indexByID = new HashMap<>();
     private EMP rootEmployee = null;
     private ConstraintHandler constraintHandler = null;
+    private final List<EmployeeChangeListener> changeListeners = new ArrayList<>();
+
+    //.... Increased with every change of one of the employees (see Employee.touch()). The last version with a change of
+    //     the values of a type, of a capacity or of anything else is kept as well, so derived data built for an older
+    //     version is dropped before it is used again if, and only if, it depends on one of these changes. The kind of
+    //     a change is recorded before the new version is published
+    private final AtomicLong dataVersion = new AtomicLong();
+    private volatile long structureVersion = 0;
+    private volatile long capacityVersion = 0;
+    private final Map<String, TypeVersion> typeVersions = new ConcurrentHashMap<>();
+    private long derivedDataVersion = 0;
+
+    //.... Derived data - built on demand and dropped whenever the set of employees or the data it depends on changes
+    private EmployeeColumns columns = null;
+    private CapacityMatrix capacityMatrix = null;
+    private HierarchyIndex hierarchyIndex = null;
+    private CapacitySummaryCube summaryCube = null;
+    private final Map<String, FactorTable> factorTables = new HashMap<>();
+    private String[] sortKeys = null;
+    private final Map<Comparator<?>, int[]> sortOrders = new HashMap<>();
+    private final Map<Comparator<?>, int[]> sortRanks = new HashMap<>();
+    private final Map<String, ValueIndex> valueIndexes = new HashMap<>();
+    private final Map<String, Map<Comparable, EmployeeBitmap>> bitmaps = new HashMap<>();
+
+    /**
+     * The last data version with a change of the values of a type
+     */
+    private static class TypeVersion {
+
+        private final IType type;
+        private final long version;
+
+        /**
+         * @param type
+         * @param version
+         */
+        private TypeVersion(IType type, long version) {
+            this.type = type;
+            this.version = version;
+        }
+    }
 
     /**
      * @return
@@ -43,6 +92,7 @@ public class EmployeeData<EMP extends Employee> {
             throw new IllegalArgumentException("constraintHandler may not be null");
         }
         this.constraintHandler = constraintHandler;
+        clearDerivedData();
     }
 
     /**
@@ -56,10 +106,9 @@ public class EmployeeData<EMP extends Employee> {
         if (this.constraintHandler == null) {
             this.constraintHandler = constraintHandler;
         } else {
-            for (Constraint constraint : constraintHandler.getConstraints()) {
-                this.constraintHandler.addConstraint(constraint);
-            }
+            this.constraintHandler.addConstraints(constraintHandler);
         }
+        clearDerivedData();
     }
 
     /**
@@ -73,6 +122,21 @@ public class EmployeeData<EMP extends Employee> {
         return employeesByID.get(ID);
     }
 
+    /**
+     * The position of the employee in getEmployees(). This is the row index
+     * used by all derived data like the columnar representation
+     *
+     * @param ID
+     * @return The index or -1 if there is no employee with the given ID
+     */
+    public int getIndex(String ID) {
+        if (ID == null) {
+            throw new IllegalArgumentException("ID may not be null");
+        }
+        Integer index = indexByID.get(ID);
+        return index == null ? -1 : index;
+    }
+
     /**
      * @param employee
      */
@@ -83,8 +147,629 @@ public class EmployeeData<EMP extends Employee> {
         if (employeesByID.containsKey(employee.getID())) {
             throw new IllegalArgumentException("UUID violation: ID " + employee.getID() + " is already used");
         }
+        indexByID.put(employee.getID(), employees.size());
         employees.add(employee);
         employeesByID.put(employee.getID(), employee);
+        employee.addOwner(this);
+        for (EmployeeChangeListener listener : changeListeners) {
+            employee.addChangeListener(listener);
+            listener.afterChange(employee);
+        }
+        clearDerivedData();
+    }
+
+    /**
+     * Add all employees of a batch whose IDs are not used in this instance
+     * yet; the others are skipped (with caching importers, the same employees
+     * can be provided by several nodes). Unlike addEmployee() for each
+     * employee, the lookup maps are resized at most once and derived data is
+     * dropped once
+     *
+     * @param batch
+     * @return The number of employees added
+     */
+    public int addEmployees(List<? extends EMP> batch) {
+        if (batch == null) {
+            throw new IllegalArgumentException("batch may not be null");
+        }
+
+        //.... Check the complete batch first, so an invalid entry does not leave the batch half added
+        for (EMP employee : batch) {
+            if (employee == null) {
+                throw new IllegalArgumentException("batch may not contain null");
+            }
+        }
+        int n = employees.size() + batch.size();
+        employees.ensureCapacity(n);
+
+        //.... A batch at least as large as the current data would lead to several resizes
+        if (batch.size() > employeesByID.size()) {
+            int capacity = (int) (n / 0.75f) + 1;
+            Map<String, EMP> e = new HashMap<>(capacity);
+            e.putAll(employeesByID);
+            employeesByID = e;
+            Map<String, Integer> i = new HashMap<>(capacity);
+            i.putAll(indexByID);
+            indexByID = i;
+        }
+
+        int added = 0;
+        for (EMP employee : batch) {
+            if (employeesByID.putIfAbsent(employee.getID(), employee) != null) {
+                continue;
+            }
+            indexByID.put(employee.getID(), employees.size());
+            employees.add(employee);
+            employee.addOwner(this);
+            for (EmployeeChangeListener listener : changeListeners) {
+                employee.addChangeListener(listener);
+                listener.afterChange(employee);
+            }
+            added++;
+        }
+        if (added > 0) {
+            clearDerivedData();
+        }
+        return added;
+    }
+
+    /**
+     * Remove an employee, which is detached from its manager. The employees
+     * after it move up by one position in getEmployees()
+     *
+     * @param ID
+     * @return The removed employee or null if there is no employee with the
+     * given ID
+     * @throws IllegalStateException If the employee is the root employee or
+     * still has direct reports
+     */
+    public EMP removeEmployee(String ID) {
+        if (ID == null) {
+            throw new IllegalArgumentException("ID may not be null");
+        }
+        EMP employee = employeesByID.get(ID);
+        if (employee == null) {
+            return null;
+        }
+        if (employee == rootEmployee) {
+            throw new IllegalStateException("The root employee " + ID + " can not be removed");
+        }
+        if (!employee.getEmployees().isEmpty()) {
+            throw new IllegalStateException("Employee " + ID + " can not be removed as it still has direct reports");
+        }
+        for (EmployeeChangeListener listener : changeListeners) {
+            listener.beforeChange(employee);
+            employee.removeChangeListener(listener);
+        }
+        if (employee.hasManager()) {
+            employee.getManager().removeEmployee(employee);
+        }
+        int index = indexByID.remove(ID);
+        employees.remove(index);
+        employeesByID.remove(ID);
+        for (int i = index; i < employees.size(); i++) {
+            indexByID.put(employees.get(i).getID(), i);
+        }
+        employee.removeOwner(this);
+        clearDerivedData();
+        return employee;
+    }
+
+    /**
+     * Register a listener for changes of all employees in this instance,
+     * including the ones added later. An added employee is reported like a
+     * change to its current state (afterChange()), a removed one like a change
+     * from its last state (beforeChange()). Capacity summaries over all
+     * employees of this instance can be kept up to date this way with a
+     * CapacitySummaryListener. Derived data (see clearDerivedData()) is not
+     * updated this way; the parts depending on a change are rebuilt on their
+     * next access
+     *
+     * @param listener
+     */
+    public void addChangeListener(EmployeeChangeListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener may not be null");
+        }
+        changeListeners.add(listener);
+        for (EMP employee : employees) {
+            employee.addChangeListener(listener);
+        }
+    }
+
+    /**
+     * @param listener
+     */
+    public void removeChangeListener(EmployeeChangeListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener may not be null");
+        }
+        changeListeners.remove(listener);
+        for (EMP employee : employees) {
+            employee.removeChangeListener(listener);
+        }
+    }
+
+    /**
+     * Stop tracking the employees of this instance: they no longer report
+     * their changes to it or to its change listeners. This is for intermediate
+     * instances whose employees have been merged into another instance (see
+     * EmployeeDataAssembleStep), which would otherwise be told about every
+     * later change. Derived data of this instance is not kept up to date any
+     * more afterwards
+     */
+    public void detachEmployees() {
+        for (EMP employee : employees) {
+            employee.removeOwner(this);
+            for (EmployeeChangeListener listener : changeListeners) {
+                employee.removeChangeListener(listener);
+            }
+        }
+        changeListeners.clear();
+    }
+
+    /**
+     * Get the columnar representation of the employee data. This is built on
+     * first access and kept until the set of employees, a 1D value or a
+     * capacity of one of the employees changes
+     *
+     * @return
+     */
+    public synchronized EmployeeColumns getColumns() {
+        validateDerivedData();
+        if (columns == null) {
+            columns = new EmployeeColumns(employees, getCapacityMatrix());
+        }
+        return columns;
+    }
+
+    /**
+     * Get the capacity data of all employees in contiguous arrays. This is
+     * built on first access and kept until the set of employees or the
+     * capacity of one of the employees changes
+     *
+     * @return
+     */
+    public synchronized CapacityMatrix getCapacityMatrix() {
+        validateDerivedData();
+        if (capacityMatrix == null) {
+            capacityMatrix = new CapacityMatrix(employees);
+        }
+        return capacityMatrix;
+    }
+
+    /**
+     * Get the interval index over the reporting hierarchy below the root
+     * employee. This is built on first access and kept until the set of
+     * employees, the reporting line or the capacity of one of the employees or
+     * the root employee changes
+     *
+     * @return
+     */
+    public synchronized HierarchyIndex getHierarchyIndex() {
+        if (rootEmployee == null) {
+            throw new UnsupportedOperationException("The root employee has not been set");
+        }
+        validateDerivedData();
+        if (hierarchyIndex == null) {
+            hierarchyIndex = new HierarchyIndex(rootEmployee);
+        }
+        return hierarchyIndex;
+    }
+
+    /**
+     * Get the percentage factors of all employees for a 2D type. The table is
+     * built on first access and kept until the set of employees or a value of
+     * the type changes
+     *
+     * @param type
+     * @return
+     */
+    public synchronized FactorTable getFactorTable(IType type) {
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        validateDerivedData();
+        if (!factorTables.containsKey(type.getTypeName())) {
+            factorTables.put(type.getTypeName(), new FactorTable(type, employees));
+        }
+        return factorTables.get(type.getTypeName());
+    }
+
+    /**
+     * @param index
+     * @return The sort key (sort name and ID) of the employee at the given
+     * position in getEmployees(). The keys of all employees are computed on
+     * first access and kept until the set of employees or one of the employees
+     * changes (for the sort orders as well, as comparators may look at any
+     * value)
+     */
+    public synchronized String getSortKey(int index) {
+        validateDerivedData();
+        return getSortKeys()[index];
+    }
+
+    /**
+     * @return
+     */
+    private String[] getSortKeys() {
+        if (sortKeys == null) {
+            sortKeys = new String[employees.size()];
+            for (int i = 0; i < sortKeys.length; i++) {
+                sortKeys[i] = employees.get(i).getSortSignature();
+            }
+        }
+        return sortKeys;
+    }
+
+    /**
+     * Get the order of the employees for the given comparator as a
+     * permutation: entry i is the position in getEmployees() of the i-th
+     * employee in sorted order. The order is computed once per comparator
+     * (comparators are considered the same if they are equal) and kept until
+     * the set of employees or one of the employees changes. For an
+     * EmployeeComparator the precomputed sort keys (or collation keys) are
+     * compared instead of calling the comparator. The array is returned as is
+     * and must not be modified
+     *
+     * @param comparator
+     * @return
+     */
+    public synchronized int[] getSortOrder(Comparator<? super EMP> comparator) {
+        if (comparator == null) {
+            throw new NullPointerException("comparator may not be null");
+        }
+        validateDerivedData();
+        if (!sortOrders.containsKey(comparator)) {
+            Integer[] order = new Integer[employees.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            if (comparator instanceof EmployeeComparator) {
+                EmployeeComparator employeeComparator = (EmployeeComparator) comparator;
+                String[] keys = getSortKeys();
+                Comparable[] sortKeys = new Comparable[keys.length];
+                for (int i = 0; i < keys.length; i++) {
+                    sortKeys[i] = employeeComparator.getSortKey(keys[i]);
+                }
+                Arrays.sort(order, (i1, i2) -> sortKeys[i1].compareTo(sortKeys[i2]));
+            } else {
+                Arrays.sort(order, (i1, i2) -> comparator.compare(employees.get(i1), employees.get(i2)));
+            }
+            int[] sortOrder = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                sortOrder[i] = order[i];
+            }
+            sortOrders.put(comparator, sortOrder);
+        }
+        return sortOrders.get(comparator);
+    }
+
+    /**
+     * @param comparator
+     * @return All employees in the order given by the comparator, see
+     * getSortOrder()
+     */
+    public List<EMP> getSortedEmployees(Comparator<? super EMP> comparator) {
+        int[] sortOrder = getSortOrder(comparator);
+        return new AbstractList<EMP>() {
+            @Override
+            public EMP get(int index) {
+                return employees.get(sortOrder[index]);
+            }
+
+            @Override
+            public int size() {
+                return sortOrder.length;
+            }
+        };
+    }
+
+    /**
+     * @param comparator
+     * @param rows Positions in getEmployees()
+     * @return The employees at the given positions in the order given by the
+     * comparator, see getSortOrder()
+     */
+    public List<EMP> getSortedEmployees(Comparator<? super EMP> comparator, int[] rows) {
+        if (rows == null) {
+            throw new NullPointerException("rows may not be null");
+        }
+        int[] sortOrder;
+        int[] ranks;
+        synchronized (this) {
+            sortOrder = getSortOrder(comparator);
+            ranks = sortRanks.get(comparator);
+            if (ranks == null) {
+                ranks = new int[sortOrder.length];
+                for (int i = 0; i < sortOrder.length; i++) {
+                    ranks[sortOrder[i]] = i;
+                }
+                sortRanks.put(comparator, ranks);
+            }
+        }
+
+        //.... Sorting the ranks of the rows gives their positions in the sort order
+        int[] r = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            r[i] = ranks[rows[i]];
+        }
+        Arrays.sort(r);
+        List<EMP> sortedEmployees = new ArrayList<>(r.length);
+        for (int rank : r) {
+            sortedEmployees.add(employees.get(sortOrder[rank]));
+        }
+        return sortedEmployees;
+    }
+
+    /**
+     * @param comparator
+     * @param type
+     * @param value The value (for 2D types: the field) to select
+     * @return The employees with the given value for the type in the order
+     * given by the comparator, see getValueIndex()
+     */
+    public List<EMP> getSortedEmployees(Comparator<? super EMP> comparator, IType type, Comparable value) {
+        return getSortedEmployees(comparator, getValueIndex(type).getRows(value));
+    }
+
+    /**
+     * Get the inverted index for a type, mapping each value (for 2D types:
+     * each field) to the positions of the employees having it. The index is
+     * built on first access and kept until the set of employees or a value of
+     * the type changes
+     *
+     * @param type
+     * @return
+     */
+    public synchronized ValueIndex getValueIndex(IType type) {
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        validateDerivedData();
+        String key = getKey(type);
+        if (!valueIndexes.containsKey(key)) {
+            switch (type.getTypeDimension()) {
+                case One:
+                    valueIndexes.put(key, new ValueIndex(type, getColumns()));
+                    break;
+                case Two:
+                    valueIndexes.put(key, new ValueIndex(getFactorTable(type)));
+            }
+        }
+        return valueIndexes.get(key);
+    }
+
+    /**
+     * Get the set of employees with the given value (for 2D types: field) for
+     * the type as a compressed bitmap over their positions in getEmployees().
+     * Bitmaps for different types can be combined with and() / or() and the
+     * capacity summed with CapacityMatrix.sum(). The bitmap is built on first
+     * access and kept until the set of employees or a value of the type
+     * changes
+     *
+     * @param type
+     * @param value
+     * @return
+     */
+    public synchronized EmployeeBitmap getBitmap(IType type, Comparable value) {
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        if (value == null) {
+            throw new NullPointerException("value may not be null");
+        }
+        validateDerivedData();
+        String key = getKey(type);
+        if (!bitmaps.containsKey(key)) {
+            bitmaps.put(key, new HashMap<>());
+        }
+        Map<Comparable, EmployeeBitmap> map = bitmaps.get(key);
+        if (!map.containsKey(value)) {
+            map.put(value, EmployeeBitmap.of(getValueIndex(type).getRows(value)));
+        }
+        return map.get(value);
+    }
+
+    /**
+     * @param manager
+     * @return The organisation of the given manager (see
+     * HierarchyIndex.getOrganisation()) as a bitmap over the positions in
+     * getEmployees(). This is not kept
+     */
+    public EmployeeBitmap getOrganisationBitmap(EMP manager) {
+        if (manager == null) {
+            throw new NullPointerException("manager may not be null");
+        }
+        List<Employee> organisation = getHierarchyIndex().getOrganisation(manager);
+        int[] rows = new int[organisation.size()];
+        int n = 0;
+        for (Employee employee : organisation) {
+            int index = getIndex(employee.getID());
+            if (index >= 0) {
+                rows[n++] = index;
+            }
+        }
+        rows = Arrays.copyOf(rows, n);
+        Arrays.sort(rows);
+        return EmployeeBitmap.of(rows);
+    }
+
+    /**
+     * Get the two-dimensional capacity summaries shared by all reporting steps.
+     * The summaries are computed on request and kept until the set of
+     * employees or the constraints change, or the employees change in a way
+     * affecting them (see CapacitySummaryCube)
+     *
+     * @return
+     */
+    public synchronized CapacitySummaryCube getSummaryCube() {
+        validateDerivedData();
+        if (summaryCube == null) {
+            summaryCube = new CapacitySummaryCube(this);
+        }
+        return summaryCube;
+    }
+
+    /**
+     * Drop all derived data (like the columnar representation, the capacity
+     * matrix, the hierarchy index, the factor tables, the sort orders, the
+     * value indexes and bitmaps or the summary cube). This happens automatically
+     * when employees are added or removed, when constraints are set and, on the
+     * next access, when the reporting line of an employee changes. When a
+     * value or the capacity of an employee changes, only the derived data
+     * depending on it is dropped on the next access (see getDataVersion()).
+     * This only needs to be called explicitly when the constraints in the
+     * constraint handler are modified in place after derived data has been
+     * requested
+     */
+    public synchronized void clearDerivedData() {
+        structureVersion = dataVersion.get() + 1;
+        dataVersion.incrementAndGet();
+        dropDerivedData();
+    }
+
+    /**
+     * Drop all derived data without changing the data version
+     */
+    private void dropDerivedData() {
+        columns = null;
+        capacityMatrix = null;
+        hierarchyIndex = null;
+        summaryCube = null;
+        factorTables.clear();
+        dropSortData();
+        valueIndexes.clear();
+        bitmaps.clear();
+    }
+
+    /**
+     * Drop the derived data depending on the values of a type
+     *
+     * @param type
+     */
+    private void dropDerivedData(IType type) {
+        if (type.getTypeDimension().equals(One)) {
+            columns = null;
+        } else {
+            factorTables.remove(type.getTypeName());
+        }
+        valueIndexes.remove(getKey(type));
+        bitmaps.remove(getKey(type));
+    }
+
+    /**
+     * Drop the sort keys and orders. Comparators may look at any value or the
+     * capacity, so these are dropped for every change
+     */
+    private void dropSortData() {
+        sortKeys = null;
+        sortOrders.clear();
+        sortRanks.clear();
+    }
+
+    /**
+     * @return A counter increased with every change of the data, the capacity
+     * or the reporting lines of one of the employees in this instance (see
+     * DataContainer.getVersion()) and with every call of clearDerivedData(),
+     * so holders of derived data like the summary cube can tell it may be
+     * outdated; see isChangedSince() for what has changed
+     */
+    public long getDataVersion() {
+        return dataVersion.get();
+    }
+
+    /**
+     * @param version A data version, see getDataVersion()
+     * @param type A type or null
+     * @return True if anything but a value of a type has changed since the
+     * given version, or a value of the given type
+     */
+    boolean isChangedSince(long version, IType type) {
+        if (structureVersion > version || capacityVersion > version) {
+            return true;
+        }
+        if (type == null) {
+            return false;
+        }
+        TypeVersion typeVersion = typeVersions.get(getKey(type));
+        return typeVersion != null && typeVersion.version > version;
+    }
+
+    /**
+     * Called by the employees in this instance whenever they change, apart
+     * from changes of their values or their capacity
+     */
+    synchronized void employeeChanged() {
+        structureVersion = dataVersion.get() + 1;
+        dataVersion.incrementAndGet();
+    }
+
+    /**
+     * Called by the employees in this instance whenever one of their values
+     * changes
+     *
+     * @param type
+     */
+    synchronized void valueChanged(IType type) {
+        typeVersions.put(getKey(type), new TypeVersion(type, dataVersion.get() + 1));
+        dataVersion.incrementAndGet();
+    }
+
+    /**
+     * Called by the employees in this instance whenever their capacity changes
+     */
+    synchronized void capacityChanged() {
+        capacityVersion = dataVersion.get() + 1;
+        dataVersion.incrementAndGet();
+    }
+
+    /**
+     * Drop the derived data depending on the changes of the employees since it
+     * was built. Called by all accessors for derived data
+     */
+    private synchronized void validateDerivedData() {
+        long version = dataVersion.get();
+        if (version == derivedDataVersion) {
+            return;
+        }
+        if (structureVersion > derivedDataVersion) {
+            dropDerivedData();
+        } else {
+            if (capacityVersion > derivedDataVersion) {
+                columns = null;
+                capacityMatrix = null;
+                hierarchyIndex = null;
+            }
+            for (TypeVersion typeVersion : typeVersions.values()) {
+                if (typeVersion.version > derivedDataVersion) {
+                    dropDerivedData(typeVersion.type);
+                }
+            }
+            dropSortData();
+
+            //.... The summary cube drops the summaries affected by the changes by itself
+        }
+        derivedDataVersion = version;
+    }
+
+    /**
+     * @param type
+     * @return The key of a type for the maps of derived data
+     */
+    private static String getKey(IType type) {
+        return type.getTypeDimension() + ":" + type.getTypeName();
+    }
+
+    /**
+     * Compute the cached organisation aggregates (see
+     * Employee.organisationSize() etc.) for the complete tree below the root
+     * employee in a single pass
+     */
+    public void updateOrganisationAggregates() {
+        if (rootEmployee != null) {
+            rootEmployee.updateOrganisationAggregates();
+        }
     }
 
     /**
@@ -102,5 +787,6 @@ public class EmployeeData<EMP extends Employee> {
             throw new IllegalArgumentException("rootEmployee may not be null");
         }
         this.rootEmployee = rootEmployee;
+        clearDerivedData();
     }
 }
@@ -0,0 +1,622 @@
+package org.ml.capman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import org.ml.capman.DataConfiguration.TypeDimension;
+import org.ml.capman.EmployeeCapacity.CapacityType;
+
+import static org.ml.capman.DataConfiguration.TypeDimension.One;
+import static org.ml.capman.DataConfiguration.TypeDimension.Two;
+
+/**
+ * An append-only journal of changes to employee data, to be applied on top of
+ * a snapshot (see EmployeeDataSnapshot). A journal records additions and
+ * removals of employees, changes of 1D and 2D values, of capacity and of
+ * managers, and new constraints. Replaying a journal onto the employee data
+ * read from its base snapshot takes time proportional to the number of
+ * changes (apart from removals, which renumber the employees after the
+ * removed one); compact() folds a journal into a new snapshot and starts the
+ * journal again on top of it.
+ *
+ * The journal starts with a magic number, a format version and the checksum
+ * of its base snapshot (see EmployeeDataSnapshot.getChecksum()), followed by
+ * one record per change. A journal is only appended to or replayed if the
+ * given base checksum matches, so its changes are never applied to a
+ * snapshot they are already contained in. Each record is written with its
+ * length and a CRC32 checksum, so a record which was only partly written,
+ * e. g. because the process was killed while appending, is recognized: it is
+ * ignored when replaying and cut off when the journal is opened for appending
+ * again. Values are written as described in ValueCodec.
+ * Employees are referred to by their ID as returned by Employee.getID(), types
+ * by their name, as for snapshots.
+ *
+ * @author mlaux
+ */
+public class EmployeeDataJournal implements Closeable {
+
+    private final static int MAGIC = 0x434d4a4e;   // "CMJN"
+    public final static int FORMAT_VERSION = 2;
+    private final static int HEADER_SIZE = 16;
+    private final static int MAX_RECORD_SIZE = 1 << 26;
+
+    //.... Record kinds
+    private final static int ADD_EMPLOYEE = 1;
+    private final static int REMOVE_EMPLOYEE = 2;
+    private final static int SET_VALUE = 3;
+    private final static int SET_FIELD = 4;
+    private final static int SET_CAPACITY = 5;
+    private final static int SET_MANAGER = 6;
+    private final static int ADD_CONSTRAINT = 7;
+
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(128);
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * @param out
+     */
+    private EmployeeDataJournal(OutputStream out) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+    }
+
+    /**
+     * Open a journal for appending; the journal is created if it does not
+     * exist yet. An incomplete record at the end of an existing journal is
+     * removed first
+     *
+     * @param path
+     * @param base The checksum of the base snapshot
+     * @return
+     * @throws IOException If the file exists, but is not a journal in a
+     * supported format version, belongs to another base snapshot, or a
+     * complete record is corrupt
+     */
+    public static EmployeeDataJournal append(Path path, long base) throws IOException {
+        if (path == null) {
+            throw new NullPointerException("path may not be null");
+        }
+        if (Files.exists(path) && Files.size(path) > 0) {
+            long end;
+            try (InputStream in = Files.newInputStream(path)) {
+                end = new Reader(in, base, null).scan();
+            }
+            if (end < Files.size(path)) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(end);
+                }
+            }
+            return new EmployeeDataJournal(Files.newOutputStream(path, StandardOpenOption.APPEND));
+        }
+        EmployeeDataJournal journal = new EmployeeDataJournal(Files.newOutputStream(path));
+        journal.writeHeader(base);
+        return journal;
+    }
+
+    /**
+     * Apply all changes recorded in a journal
+     *
+     * @param path
+     * @param employeeData The employee data read from the base snapshot
+     * @param base The checksum of the base snapshot
+     * @return The number of changes applied
+     * @throws IOException
+     */
+    public static int replay(Path path, EmployeeData<Employee> employeeData, long base) throws IOException {
+        if (path == null) {
+            throw new NullPointerException("path may not be null");
+        }
+        try (InputStream in = Files.newInputStream(path)) {
+            return replay(in, employeeData, base);
+        }
+    }
+
+    /**
+     * Apply all changes recorded in a journal read from the stream. The
+     * stream is not closed
+     *
+     * @param in
+     * @param employeeData The employee data read from the base snapshot
+     * @param base The checksum of the base snapshot
+     * @return The number of changes applied
+     * @throws IOException If the data is not a journal in a supported format
+     * version, belongs to another base snapshot, a complete record is
+     * corrupt, or a record refers to a type not registered with
+     * DataConfiguration
+     * @throws IllegalStateException If a change can not be applied to the
+     * employee data, e. g. because it refers to an unknown employee
+     */
+    public static int replay(InputStream in, EmployeeData<Employee> employeeData, long base) throws IOException {
+        if (in == null) {
+            throw new NullPointerException("in may not be null");
+        }
+        if (employeeData == null) {
+            throw new NullPointerException("employeeData may not be null");
+        }
+        Reader reader = new Reader(in, base, employeeData);
+        reader.scan();
+        return reader.records;
+    }
+
+    /**
+     * Fold a journal into a new snapshot: the base snapshot is read, the
+     * journal is replayed and the result is written to the target, which may
+     * be the base snapshot itself. The journal is then replaced by an empty
+     * journal on top of the target. The journal may not be open for
+     * appending meanwhile.
+     *
+     * Both files are written to temporary files first and then moved into
+     * place, the target first. If the process dies between the two moves,
+     * the journal still refers to the old base snapshot, so it is rejected
+     * by replay() and append() rather than applied to the target a second
+     * time; as all its changes are contained in the target, it may simply be
+     * deleted then.
+     *
+     * @param snapshot The base snapshot of the journal
+     * @param journal
+     * @param target
+     * @return The number of changes applied
+     * @throws IOException
+     */
+    public static int compact(Path snapshot, Path journal, Path target) throws IOException {
+        if (journal == null) {
+            throw new NullPointerException("journal may not be null");
+        }
+        if (target == null) {
+            throw new NullPointerException("target may not be null");
+        }
+        EmployeeData<Employee> employeeData = EmployeeDataSnapshot.read(snapshot);
+        int records = replay(journal, employeeData, EmployeeDataSnapshot.getChecksum(snapshot));
+
+        //.... Write to temporary files first, so a failure does not damage the existing files
+        Path tempTarget = target.resolveSibling(target.getFileName() + ".tmp");
+        Path tempJournal = journal.resolveSibling(journal.getFileName() + ".tmp");
+        long base = EmployeeDataSnapshot.write(employeeData, tempTarget);
+        try (EmployeeDataJournal emptyJournal = new EmployeeDataJournal(Files.newOutputStream(tempJournal))) {
+            emptyJournal.writeHeader(base);
+        }
+        Files.move(tempTarget, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(tempJournal, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return records;
+    }
+
+    /**
+     * @param ID
+     * @param nameType
+     * @param sortNameType The sort name type or null to use the name type
+     * @throws IOException
+     */
+    public synchronized void addEmployee(String ID, IType nameType, IType sortNameType) throws IOException {
+        checkID(ID);
+        if (nameType == null) {
+            throw new NullPointerException("nameType may not be null");
+        }
+        record.writeByte(ADD_EMPLOYEE);
+        writeString(ID);
+        writeString(nameType.getTypeName());
+        writeString(sortNameType == null ? null : sortNameType.getTypeName());
+        commit();
+    }
+
+    /**
+     * Record the removal of an employee, which must not have any direct
+     * reports at that point
+     *
+     * @param ID
+     * @throws IOException
+     */
+    public synchronized void removeEmployee(String ID) throws IOException {
+        checkID(ID);
+        record.writeByte(REMOVE_EMPLOYEE);
+        writeString(ID);
+        commit();
+    }
+
+    /**
+     * @param ID
+     * @param type A 1D type
+     * @param value
+     * @throws IOException
+     */
+    public synchronized void set(String ID, IType type, Comparable value) throws IOException {
+        checkID(ID);
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("value may not be null");
+        }
+        record.writeByte(SET_VALUE);
+        writeString(ID);
+        writeString(type.getTypeName());
+        writeValue(value);
+        commit();
+    }
+
+    /**
+     * @param ID
+     * @param type A 2D type
+     * @param field
+     * @param value
+     * @throws IOException
+     */
+    public synchronized void set(String ID, IType type, String field, Comparable value) throws IOException {
+        checkID(ID);
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        if (field == null) {
+            throw new NullPointerException("field may not be null");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("value may not be null");
+        }
+        record.writeByte(SET_FIELD);
+        writeString(ID);
+        writeString(type.getTypeName());
+        writeString(field);
+        writeValue(value);
+        commit();
+    }
+
+    /**
+     * @param ID
+     * @param capacityType
+     * @param value
+     * @throws IOException
+     */
+    public synchronized void setCapacity(String ID, CapacityType capacityType, double value) throws IOException {
+        checkID(ID);
+        if (capacityType == null) {
+            throw new NullPointerException("capacityType may not be null");
+        }
+        record.writeByte(SET_CAPACITY);
+        writeString(ID);
+        writeString(capacityType.name());
+        record.writeDouble(value);
+        commit();
+    }
+
+    /**
+     * @param ID
+     * @param managerID The ID of the new manager or null to record that the
+     * employee no longer has a manager
+     * @throws IOException
+     */
+    public synchronized void setManager(String ID, String managerID) throws IOException {
+        checkID(ID);
+        record.writeByte(SET_MANAGER);
+        writeString(ID);
+        writeString(managerID);
+        commit();
+    }
+
+    /**
+     * @param type1 A 2D type
+     * @param field1
+     * @param type2 A 2D type
+     * @param field2
+     * @throws IOException
+     */
+    public synchronized void addConstraint(IType type1, Comparable field1, IType type2, Comparable field2) throws IOException {
+        if (type1 == null) {
+            throw new NullPointerException("type1 may not be null");
+        }
+        if (field1 == null) {
+            throw new NullPointerException("field1 may not be null");
+        }
+        if (type2 == null) {
+            throw new NullPointerException("type2 may not be null");
+        }
+        if (field2 == null) {
+            throw new NullPointerException("field2 may not be null");
+        }
+        record.writeByte(ADD_CONSTRAINT);
+        writeString(type1.getTypeName());
+        writeValue(field1);
+        writeString(type2.getTypeName());
+        writeValue(field2);
+        commit();
+    }
+
+    /**
+     * Records are written through on each change already, so this is only
+     * needed for streams which buffer themselves
+     *
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * @param ID
+     */
+    private static void checkID(String ID) {
+        if (ID == null) {
+            throw new IllegalArgumentException("ID may not be null");
+        }
+    }
+
+    /**
+     * @param base The checksum of the base snapshot
+     * @throws IOException
+     */
+    private void writeHeader(long base) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(base);
+        out.flush();
+    }
+
+    /**
+     * Write the record assembled in the record buffer, framed by its length
+     * and checksum
+     *
+     * @throws IOException
+     */
+    private void commit() throws IOException {
+        crc.reset();
+        crc.update(recordBytes.toByteArray(), 0, recordBytes.size());
+        out.writeInt(recordBytes.size());
+        recordBytes.writeTo(out);
+        out.writeInt((int) crc.getValue());
+        out.flush();
+        recordBytes.reset();
+    }
+
+    /**
+     * @param s
+     * @throws IOException
+     */
+    private void writeString(String s) throws IOException {
+        if (s == null) {
+            record.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        record.writeInt(bytes.length);
+        record.write(bytes);
+    }
+
+    /**
+     * @param value
+     * @throws IOException
+     */
+    private void writeValue(Comparable value) throws IOException {
+        try {
+            ValueCodec.writeValue(record, value, this::writeString);
+        } catch (IllegalArgumentException ex) {
+            recordBytes.reset();
+            throw ex;
+        }
+    }
+
+    /**
+     * Reads the records of a journal and applies them to the employee data,
+     * if there is any
+     */
+    private static class Reader {
+
+        private final DataInputStream in;
+        private final long base;
+        private final EmployeeData<Employee> employeeData;
+        private final DataConfiguration configuration = DataConfiguration.getInstance();
+        private final CRC32 crc = new CRC32();
+        private DataInputStream record;
+        private int records = 0;
+
+        /**
+         * @param in
+         * @param base The checksum of the base snapshot
+         * @param employeeData The employee data to apply the records to, or
+         * null to only check them
+         */
+        private Reader(InputStream in, long base, EmployeeData<Employee> employeeData) {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+            this.base = base;
+            this.employeeData = employeeData;
+        }
+
+        /**
+         * @return The position after the last complete record
+         * @throws IOException
+         */
+        private long scan() throws IOException {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a journal");
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported journal format version " + version + " (supported: " + FORMAT_VERSION + ")");
+            }
+            long journalBase = in.readLong();
+            if (journalBase != base) {
+                throw new IOException("The journal belongs to the snapshot with checksum " + journalBase + ", not " + base);
+            }
+            long position = HEADER_SIZE;
+            while (true) {
+                byte[] bytes;
+                int checksum;
+                try {
+                    int length = in.readInt();
+                    if (length < 1 || length > MAX_RECORD_SIZE) {
+                        throw new IOException("Corrupt journal record " + (records + 1) + ": length " + length);
+                    }
+                    bytes = new byte[length];
+                    in.readFully(bytes);
+                    checksum = in.readInt();
+                } catch (EOFException ex) {
+
+                    //.... End of the journal, or a record which was only partly written
+                    return position;
+                }
+                crc.reset();
+                crc.update(bytes, 0, bytes.length);
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("Corrupt journal record " + (records + 1) + ": checksum mismatch");
+                }
+                if (employeeData != null) {
+                    record = new DataInputStream(new ByteArrayInputStream(bytes));
+                    apply();
+                }
+                records++;
+                position += 4 + bytes.length + 4;
+            }
+        }
+
+        /**
+         * @throws IOException
+         */
+        private void apply() throws IOException {
+            int kind = record.readByte();
+            switch (kind) {
+                case ADD_EMPLOYEE:
+                    String ID = readString();
+                    Employee employee = new Employee(ID);
+                    if (!employee.getID().equals(ID)) {
+                        throw new IllegalStateException("Journal record " + (records + 1) + ": " + ID + " is not a valid employee ID");
+                    }
+                    employee.setNameType(readType(One));
+                    String sortNameType = readString();
+                    if (sortNameType != null) {
+                        employee.setSortNameType(getType(sortNameType, One));
+                    }
+                    employeeData.addEmployee(employee);
+                    break;
+                case REMOVE_EMPLOYEE:
+                    employeeData.removeEmployee(readEmployee().getID());
+                    break;
+                case SET_VALUE:
+                    readEmployee().set(readType(One), readValue());
+                    break;
+                case SET_FIELD:
+                    readEmployee().set(readType(Two), readString(), readValue());
+                    break;
+                case SET_CAPACITY:
+                    readEmployee().setCapacity(CapacityType.valueOf(readString()), record.readDouble());
+                    break;
+                case SET_MANAGER:
+                    employee = readEmployee();
+                    String managerID = readString();
+                    Employee manager = managerID == null ? null : getEmployee(managerID);
+                    for (Employee e = manager; e != null; e = e.getManager()) {
+                        if (e == employee) {
+                            throw new IllegalStateException("Journal record " + (records + 1) + ": " + managerID + " can not become the manager of " + employee.getID() + " as it reports to it");
+                        }
+                    }
+                    if (employee.hasManager()) {
+                        employee.getManager().removeEmployee(employee);
+                    }
+                    if (manager != null) {
+                        manager.addEmployee(employee);
+                    }
+                    break;
+                case ADD_CONSTRAINT:
+                    //.... Constraints are changed in place in the handler, which EmployeeData does not notice by itself
+                    employeeData.getConstraintHandler().addConstraint(readType(Two), readValue(), readType(Two), readValue());
+                    employeeData.clearDerivedData();
+                    break;
+                default:
+                    throw new IOException("Corrupt journal record " + (records + 1) + ": unknown kind " + kind);
+            }
+        }
+
+        /**
+         * @return
+         * @throws IOException
+         */
+        private Employee readEmployee() throws IOException {
+            return getEmployee(readString());
+        }
+
+        /**
+         * @param ID
+         * @return
+         */
+        private Employee getEmployee(String ID) {
+            if (ID == null) {
+                throw new IllegalStateException("Journal record " + (records + 1) + ": employee ID missing");
+            }
+            Employee employee = employeeData.getEmployee(ID);
+            if (employee == null) {
+                throw new IllegalStateException("Journal record " + (records + 1) + ": unknown employee " + ID);
+            }
+            return employee;
+        }
+
+        /**
+         * @param typeDimension
+         * @return
+         * @throws IOException
+         */
+        private IType readType(TypeDimension typeDimension) throws IOException {
+            return getType(readString(), typeDimension);
+        }
+
+        /**
+         * @param typeName
+         * @param typeDimension
+         * @return
+         * @throws IOException
+         */
+        private IType getType(String typeName, TypeDimension typeDimension) throws IOException {
+            if (typeName == null || !configuration.supports(typeName, typeDimension)) {
+                throw new IOException("Type " + typeName + " (" + typeDimension + ") of journal record " + (records + 1) + " is not registered");
+            }
+            return configuration.get(typeName, typeDimension);
+        }
+
+        /**
+         * @return
+         * @throws IOException
+         */
+        private String readString() throws IOException {
+            int length = record.readInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length];
+            record.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return
+         * @throws IOException
+         */
+        private Comparable readValue() throws IOException {
+            try {
+                return ValueCodec.readValue(record, this::readString);
+            } catch (IOException ex) {
+                throw new IOException("Corrupt journal record " + (records + 1) + ": " + ex.getMessage(), ex);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,524 @@
+package org.ml.capman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.ml.capman.DataConfiguration.TypeDimension;
+import org.ml.capman.DataConfiguration.TypeKind;
+import org.ml.capman.Employee.EmployeeUrl;
+import org.ml.capman.EmployeeCapacity.CapacityType;
+import org.ml.table.content.UrlContent;
+
+import static org.ml.capman.DataConfiguration.TypeDimension.One;
+import static org.ml.capman.DataConfiguration.TypeDimension.Two;
+
+/**
+ * Binary snapshots of a fully assembled EmployeeData instance: the types used,
+ * the 1D and 2D values, capacity, URLs and reporting lines of all employees,
+ * the root employee and the constraints. Reading a snapshot is much cheaper
+ * than assembling the data again, as values are stored without the
+ * validation done by DataContainer.set() and the reporting lines are
+ * restored as they are.
+ *
+ * The format starts with a magic number and a format version, and ends with a
+ * CRC32 checksum over all data before it. IType instances are provided by the
+ * application, so a snapshot only records type names and kinds; when reading,
+ * all these types have to be registered with DataConfiguration with the same
+ * kind, in any order. Counts and indexes are written as variable length ints,
+ * and each string is written once and referred to by index afterwards.
+ * Values are written as described in ValueCodec. The checksum also identifies
+ * a snapshot, e. g. as the base of a journal (see EmployeeDataJournal).
+ *
+ * @author mlaux
+ */
+public class EmployeeDataSnapshot {
+
+    private final static int MAGIC = 0x434d534e;   // "CMSN"
+    public final static int FORMAT_VERSION = 1;
+
+    //.... String references: a new string, null, or (with this offset) the index of a string seen before
+    private final static int STRING_NEW = 0;
+    private final static int STRING_NULL = 1;
+    private final static int STRING_OFFSET = 2;
+
+    /**
+     *
+     */
+    private EmployeeDataSnapshot() {
+    }
+
+    /**
+     * @param employeeData
+     * @param path
+     * @return The checksum of the snapshot
+     * @throws IOException
+     */
+    public static long write(EmployeeData<? extends Employee> employeeData, Path path) throws IOException {
+        if (path == null) {
+            throw new NullPointerException("path may not be null");
+        }
+        try (OutputStream out = Files.newOutputStream(path)) {
+            return write(employeeData, out);
+        }
+    }
+
+    /**
+     * Write a snapshot to the stream. The stream is flushed, but not closed
+     *
+     * @param employeeData
+     * @param out
+     * @return The checksum of the snapshot
+     * @throws IOException
+     */
+    public static long write(EmployeeData<? extends Employee> employeeData, OutputStream out) throws IOException {
+        if (employeeData == null) {
+            throw new NullPointerException("employeeData may not be null");
+        }
+        if (out == null) {
+            throw new NullPointerException("out may not be null");
+        }
+        return new Writer(out).write(employeeData);
+    }
+
+    /**
+     * Get the checksum stored at the end of a snapshot file, without reading
+     * or checking the snapshot itself
+     *
+     * @param path
+     * @return
+     * @throws IOException If the file is too short to be a snapshot
+     */
+    public static long getChecksum(Path path) throws IOException {
+        if (path == null) {
+            throw new NullPointerException("path may not be null");
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < 16) {
+                throw new IOException("Not an employee data snapshot");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, channel.size() - 8 + buffer.position()) < 0) {
+                    throw new IOException("Not an employee data snapshot");
+                }
+            }
+            buffer.flip();
+            return buffer.getLong();
+        }
+    }
+
+    /**
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static EmployeeData<Employee> read(Path path) throws IOException {
+        if (path == null) {
+            throw new NullPointerException("path may not be null");
+        }
+        try (InputStream in = Files.newInputStream(path)) {
+            return read(in);
+        }
+    }
+
+    /**
+     * Read a snapshot from the stream. The stream is not closed
+     *
+     * @param in
+     * @return
+     * @throws IOException If the data is not a snapshot in a supported format
+     * version, the checksum does not match, or a type of the snapshot is not
+     * registered with DataConfiguration
+     */
+    public static EmployeeData<Employee> read(InputStream in) throws IOException {
+        if (in == null) {
+            throw new NullPointerException("in may not be null");
+        }
+
+        //.... Corrupt data may fail before the checksum is checked at the end
+        try {
+            return new Reader(in).read();
+        } catch (IndexOutOfBoundsException | NegativeArraySizeException | NullPointerException | IllegalArgumentException ex) {
+            throw new IOException("Corrupt snapshot", ex);
+        }
+    }
+
+    /**
+     *
+     */
+    private static class Writer {
+
+        private final CRC32 crc = new CRC32();
+        private final DataOutputStream data;
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final DataConfiguration configuration = DataConfiguration.getInstance();
+
+        /**
+         * @param out
+         */
+        private Writer(OutputStream out) {
+            data = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(out), crc));
+        }
+
+        /**
+         * @param employeeData
+         * @return The checksum
+         * @throws IOException
+         */
+        private long write(EmployeeData<? extends Employee> employeeData) throws IOException {
+            data.writeInt(MAGIC);
+            data.writeInt(FORMAT_VERSION);
+
+            //.... Type registry
+            for (TypeDimension typeDimension : TypeDimension.values()) {
+                writeVarInt(configuration.getTypeCount(typeDimension));
+                for (int ordinal = 0; ordinal < configuration.getTypeCount(typeDimension); ordinal++) {
+                    IType type = configuration.get(typeDimension, ordinal);
+                    writeString(type.getTypeName());
+                    writeString(type.getTypeKind().name());
+                }
+            }
+
+            //.... Employees
+            List<? extends Employee> employees = employeeData.getEmployees();
+            writeVarInt(employees.size());
+            writeVarInt(CapacityType.values().length);
+            writeVarInt(EmployeeUrl.values().length);
+            for (Employee employee : employees) {
+                writeEmployee(employee);
+            }
+
+            //.... Reporting lines, by position in the employee list
+            for (Employee employee : employees) {
+                writeVarInt(employee.hasManager() ? getIndex(employeeData, employee.getManager()) + 1 : 0);
+                writeVarInt(employee.getEmployees().size());
+                for (Employee report : employee.getEmployees().values()) {
+                    writeVarInt(getIndex(employeeData, report));
+                }
+            }
+            writeVarInt(employeeData.getRootEmployee() == null ? 0 : getIndex(employeeData, employeeData.getRootEmployee()) + 1);
+
+            //.... Constraints
+            writeVarInt(employeeData.getConstraintHandler().getConstraints().size());
+            for (Constraint constraint : employeeData.getConstraintHandler().getConstraints()) {
+                writeVarInt(configuration.getOrdinal(constraint.getType1(), Two));
+                writeValue(constraint.getField1());
+                writeVarInt(configuration.getOrdinal(constraint.getType2(), Two));
+                writeValue(constraint.getField2());
+            }
+
+            long checksum = crc.getValue();
+            data.writeLong(checksum);
+            data.flush();
+            return checksum;
+        }
+
+        /**
+         * @param employee
+         * @throws IOException
+         */
+        private void writeEmployee(Employee employee) throws IOException {
+            writeString(employee.getID());
+            data.writeBoolean(employee.isRoot());
+            writeVarInt(employee.getNameType() == null ? 0 : configuration.getOrdinal(employee.getNameType(), One) + 1);
+            writeVarInt(employee.getSortNameType() == null ? 0 : configuration.getOrdinal(employee.getSortNameType(), One) + 1);
+            for (double value : employee.getCapacity().getValues()) {
+                data.writeDouble(value);
+            }
+
+            //.... 1D values
+            int n = 0;
+            for (int ordinal = 0; ordinal < configuration.getTypeCount(One); ordinal++) {
+                if (employee.get(configuration.get(One, ordinal)) != null) {
+                    n++;
+                }
+            }
+            writeVarInt(n);
+            for (int ordinal = 0; ordinal < configuration.getTypeCount(One); ordinal++) {
+                Comparable value = employee.get(configuration.get(One, ordinal));
+                if (value != null) {
+                    writeVarInt(ordinal);
+                    writeValue(value);
+                }
+            }
+
+            //.... 2D values
+            n = 0;
+            for (int ordinal = 0; ordinal < configuration.getTypeCount(Two); ordinal++) {
+                if (!employee.getFields(configuration.get(Two, ordinal)).isEmpty()) {
+                    n++;
+                }
+            }
+            writeVarInt(n);
+            for (int ordinal = 0; ordinal < configuration.getTypeCount(Two); ordinal++) {
+                Map<String, Comparable> fields = employee.getFields(configuration.get(Two, ordinal));
+                if (!fields.isEmpty()) {
+                    writeVarInt(ordinal);
+                    writeVarInt(fields.size());
+                    for (Map.Entry<String, Comparable> entry : fields.entrySet()) {
+                        writeString(entry.getKey());
+                        writeValue(entry.getValue());
+                    }
+                }
+            }
+
+            //.... URLs
+            for (EmployeeUrl employeeUrl : EmployeeUrl.values()) {
+                UrlContent urlContent = employee.getUrl(employeeUrl);
+                writeString(urlContent.getAddress());
+                writeString(urlContent.getText());
+            }
+        }
+
+        /**
+         * @param employeeData
+         * @param employee
+         * @return
+         */
+        private int getIndex(EmployeeData<? extends Employee> employeeData, Employee employee) {
+            int index = employeeData.getIndex(employee.getID());
+            if (index < 0) {
+                throw new IllegalArgumentException("Employee " + employee.getID() + " is referenced in the hierarchy, but not part of the employee data");
+            }
+            return index;
+        }
+
+        /**
+         * @param value
+         * @throws IOException
+         */
+        private void writeValue(Comparable value) throws IOException {
+            ValueCodec.writeValue(data, value, this::writeString);
+        }
+
+        /**
+         * @param s
+         * @throws IOException
+         */
+        private void writeString(String s) throws IOException {
+            if (s == null) {
+                writeVarInt(STRING_NULL);
+                return;
+            }
+            Integer index = strings.get(s);
+            if (index != null) {
+                writeVarInt(index + STRING_OFFSET);
+                return;
+            }
+            strings.put(s, strings.size());
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(STRING_NEW);
+            writeVarInt(bytes.length);
+            data.write(bytes);
+        }
+
+        /**
+         * @param value A non-negative value
+         * @throws IOException
+         */
+        private void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                data.writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            data.writeByte(value);
+        }
+    }
+
+    /**
+     *
+     */
+    private static class Reader {
+
+        private final CRC32 crc = new CRC32();
+        private final DataInputStream data;
+        private final List<String> strings = new ArrayList<>();
+        private final DataConfiguration configuration = DataConfiguration.getInstance();
+        private final Map<TypeDimension, IType[]> types = new HashMap<>();
+
+        /**
+         * @param in
+         */
+        private Reader(InputStream in) {
+            data = new DataInputStream(new CheckedInputStream(new BufferedInputStream(in), crc));
+        }
+
+        /**
+         * @return
+         * @throws IOException
+         */
+        private EmployeeData<Employee> read() throws IOException {
+            if (data.readInt() != MAGIC) {
+                throw new IOException("Not an employee data snapshot");
+            }
+            int version = data.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot format version " + version + " (supported: " + FORMAT_VERSION + ")");
+            }
+
+            //.... Type registry: map the types of the snapshot to the types registered now
+            for (TypeDimension typeDimension : TypeDimension.values()) {
+                IType[] t = new IType[readVarInt()];
+                for (int ordinal = 0; ordinal < t.length; ordinal++) {
+                    String typeName = readString();
+                    String typeKind = readString();
+                    if (!configuration.supports(typeName, typeDimension)) {
+                        throw new IOException("Type " + typeName + " (" + typeDimension + ") of the snapshot is not registered");
+                    }
+                    t[ordinal] = configuration.get(typeName, typeDimension);
+                    if (!t[ordinal].getTypeKind().equals(TypeKind.valueOf(typeKind))) {
+                        throw new IOException("Type " + typeName + " (" + typeDimension + ") is registered with TypeKind "
+                                + t[ordinal].getTypeKind() + ", but the snapshot has " + typeKind);
+                    }
+                }
+                types.put(typeDimension, t);
+            }
+
+            //.... Employees
+            EmployeeData<Employee> employeeData = new EmployeeData<>();
+            int n = readVarInt();
+            if (readVarInt() != CapacityType.values().length || readVarInt() != EmployeeUrl.values().length) {
+                throw new IOException("The capacity or URL types of the snapshot do not match");
+            }
+            List<Employee> employees = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                Employee employee = readEmployee();
+                employees.add(employee);
+                employeeData.addEmployee(employee);
+            }
+
+            //.... Reporting lines
+            for (Employee employee : employees) {
+                int manager = readVarInt();
+                List<Employee> reports = new ArrayList<>();
+                for (int i = readVarInt(); i > 0; i--) {
+                    reports.add(employees.get(readVarInt()));
+                }
+                employee.restoreReportingLines(manager == 0 ? null : employees.get(manager - 1), reports);
+            }
+            int root = readVarInt();
+            if (root > 0) {
+                employeeData.setRootEmployee(employees.get(root - 1));
+            }
+
+            //.... Constraints
+            ConstraintHandler constraintHandler = new ConstraintHandler();
+            for (int i = readVarInt(); i > 0; i--) {
+                IType type1 = types.get(Two)[readVarInt()];
+                Comparable field1 = readValue();
+                IType type2 = types.get(Two)[readVarInt()];
+                constraintHandler.addConstraint(type1, field1, type2, readValue());
+            }
+            employeeData.setConstraintHandler(constraintHandler);
+
+            long checksum = crc.getValue();
+            if (data.readLong() != checksum) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+            return employeeData;
+        }
+
+        /**
+         * @return
+         * @throws IOException
+         */
+        private Employee readEmployee() throws IOException {
+            Employee employee = new Employee(readString());
+            employee.setRoot(data.readBoolean());
+            int nameType = readVarInt();
+            int sortNameType = readVarInt();
+            if (nameType > 0) {
+                employee.setNameType(types.get(One)[nameType - 1]);
+            }
+            if (sortNameType > 0) {
+                employee.setSortNameType(types.get(One)[sortNameType - 1]);
+            }
+            for (CapacityType capacityType : CapacityType.values()) {
+                employee.getCapacity().set(capacityType, data.readDouble());
+            }
+
+            //.... Values are stored as they are, without validation
+            for (int i = readVarInt(); i > 0; i--) {
+                IType type = types.get(One)[readVarInt()];
+                employee.setRaw(configuration.getOrdinal(type, One), readValue());
+            }
+            for (int i = readVarInt(); i > 0; i--) {
+                IType type = types.get(Two)[readVarInt()];
+                int ordinal = configuration.getOrdinal(type, Two);
+                for (int j = readVarInt(); j > 0; j--) {
+                    employee.setRaw(ordinal, readString(), readValue());
+                }
+            }
+            employee.finishRawUpdates();
+
+            for (EmployeeUrl employeeUrl : EmployeeUrl.values()) {
+                String address = readString();
+                employee.setUrl(employeeUrl, new UrlContent(address, readString()));
+            }
+            return employee;
+        }
+
+        /**
+         * @return
+         * @throws IOException
+         */
+        private Comparable readValue() throws IOException {
+            return ValueCodec.readValue(data, this::readString);
+        }
+
+        /**
+         * @return
+         * @throws IOException
+         */
+        private String readString() throws IOException {
+            int reference = readVarInt();
+            switch (reference) {
+                case STRING_NULL:
+                    return null;
+                case STRING_NEW:
+                    byte[] bytes = new byte[readVarInt()];
+                    data.readFully(bytes);
+                    String s = new String(bytes, StandardCharsets.UTF_8);
+                    strings.add(s);
+                    return s;
+                default:
+                    return strings.get(reference - STRING_OFFSET);
+            }
+        }
+
+        /**
+         * @return
+         * @throws IOException
+         */
+        private int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = data.readUnsignedByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed variable length int");
+        }
+    }
+
+}
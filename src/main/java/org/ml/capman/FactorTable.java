@@ -0,0 +1,179 @@
+package org.ml.capman;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.ml.capman.DataConfiguration.TypeDimension.Two;
+
+/**
+ * The percentage factors of all employees for one 2D type, i. e. the share of
+ * the capacity of an employee assigned to each field (see
+ * BaseCapacitySummary.computePercentage()). The fields are dictionary-encoded,
+ * and the entries of all employees are stored back to back in primitive
+ * arrays: the entries for the employee at position i in
+ * EmployeeData.getEmployees() are the ones from getStart(i) (inclusive) to
+ * getEnd(i) (exclusive), in the iteration order of Employee.getFields(type).
+ *
+ * This is a snapshot: changes to the employees after the table has been built
+ * are not reflected.
+ *
+ * @author mlaux
+ */
+public class FactorTable {
+
+    private final IType type;
+    private final List<String> dictionary = new ArrayList<>();
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final int[] offsets;
+    private final int[] fields;
+    private final double[] factors;
+
+    /**
+     * @param type
+     * @param employees
+     */
+    public FactorTable(IType type, List<? extends Employee> employees) {
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        if (employees == null) {
+            throw new NullPointerException("employees may not be null");
+        }
+        if (!type.getTypeDimension().equals(Two)) {
+            throw new IllegalArgumentException("Type " + type.getTypeName() + " needs to be of type dimension " + Two);
+        }
+        this.type = type;
+
+        offsets = new int[employees.size() + 1];
+        for (int i = 0; i < employees.size(); i++) {
+            offsets[i + 1] = offsets[i] + employees.get(i).getFields(type).size();
+        }
+        fields = new int[offsets[employees.size()]];
+        factors = new double[offsets[employees.size()]];
+
+        int entry = 0;
+        for (Employee employee : employees) {
+            Map<String, Comparable> values = employee.getFields(type);
+            int n = values.size();
+            for (String field : values.keySet()) {
+                Integer code = codes.get(field);
+                if (code == null) {
+                    code = dictionary.size();
+                    dictionary.add(field);
+                    codes.put(field, code);
+                }
+                fields[entry] = code;
+
+                //.... Same computation as in BaseCapacitySummary.getFactor()
+                switch (type.getTypeKind()) {
+                    case TypeDoublePercentage:
+                        factors[entry] = 0.01d * (Double) values.get(field);
+                        break;
+                    case TypeIntegerPercentage:
+                        factors[entry] = 0.01d * (Integer) values.get(field);
+                        break;
+                    default:
+                        factors[entry] = 1.0d / n;
+                }
+                entry++;
+            }
+        }
+    }
+
+    /**
+     * @return
+     */
+    public IType getType() {
+        return type;
+    }
+
+    /**
+     * @return The number of employees covered
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @return The distinct fields, in order of first appearance. The position
+     * of a field in this list is its code
+     */
+    public List<String> getDictionary() {
+        return Collections.unmodifiableList(dictionary);
+    }
+
+    /**
+     * @param field
+     * @return The code for the field or -1 if no employee has this field
+     */
+    public int getCode(String field) {
+        if (field == null) {
+            throw new NullPointerException("field may not be null");
+        }
+        Integer code = codes.get(field);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @param row
+     * @return The first entry for the employee at the given position
+     */
+    public int getStart(int row) {
+        return offsets[row];
+    }
+
+    /**
+     * @param row
+     * @return The first entry after the ones for the employee at the given
+     * position
+     */
+    public int getEnd(int row) {
+        return offsets[row + 1];
+    }
+
+    /**
+     * @param entry
+     * @return
+     */
+    public int getFieldCode(int entry) {
+        return fields[entry];
+    }
+
+    /**
+     * @param entry
+     * @return
+     */
+    public String getField(int entry) {
+        return dictionary.get(fields[entry]);
+    }
+
+    /**
+     * @param entry
+     * @return
+     */
+    public double getFactor(int entry) {
+        return factors[entry];
+    }
+
+    /**
+     * @param row
+     * @param field
+     * @return The entry for the given field of the employee at the given
+     * position or -1 if the employee does not have this field
+     */
+    public int find(int row, String field) {
+        int code = getCode(field);
+        if (code >= 0) {
+            for (int entry = offsets[row]; entry < offsets[row + 1]; entry++) {
+                if (fields[entry] == code) {
+                    return entry;
+                }
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,192 @@
+package org.ml.capman;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ml.capman.EmployeeCapacity.CapacityType;
+
+/**
+ * An interval index over the reporting hierarchy below a root employee. The
+ * employees are stored in depth-first (pre-)order, and each employee gets an
+ * entry position (its own position in that order) and an exit position (the
+ * first position after its organisation). The organisation of an employee is
+ * then exactly the contiguous range (entry, exit), so
+ *
+ * - membership in an organisation is an interval check in O(1)
+ * - the organisation itself is a sublist of the DFS order
+ * - capacity aggregates over an organisation are a difference of prefix sums
+ *
+ * This is a snapshot: changes to the hierarchy or the capacity after the index
+ * has been built are not reflected.
+ *
+ * @author mlaux
+ */
+public class HierarchyIndex {
+
+    private final List<Employee> order;
+    private final int[] exit;
+    private final Map<String, Integer> entryByID;
+    private final double[][] prefixSums = new double[CapacityType.values().length][];
+
+    /**
+     * @param rootEmployee
+     */
+    public HierarchyIndex(Employee rootEmployee) {
+        if (rootEmployee == null) {
+            throw new NullPointerException("rootEmployee may not be null");
+        }
+
+        //.... Iterative DFS to cope with deep trees; children are pushed in reverse to keep their natural (ID) order
+        List<Employee> employees = new ArrayList<>();
+        List<Integer> parents = new ArrayList<>();
+        Map<Employee, Boolean> visited = new IdentityHashMap<>();
+        Deque<Employee> stack = new ArrayDeque<>();
+        Deque<Integer> parentStack = new ArrayDeque<>();
+        stack.push(rootEmployee);
+        parentStack.push(-1);
+        while (!stack.isEmpty()) {
+            Employee employee = stack.pop();
+            int parent = parentStack.pop();
+            if (visited.put(employee, Boolean.TRUE) != null) {
+                throw new IllegalStateException("Employee " + employee.getID() + " is reachable twice in the reporting hierarchy below " + rootEmployee.getID() + " (reporting line: " + employee.getReportingHierarchy() + ")");
+            }
+            int position = employees.size();
+            employees.add(employee);
+            parents.add(parent);
+            List<Employee> children = new ArrayList<>(employee.getEmployees().values());
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+                parentStack.push(position);
+            }
+        }
+
+        int n = employees.size();
+        order = Collections.unmodifiableList(employees);
+
+        //.... Subtree sizes bottom-up: in pre-order every employee comes after its manager
+        int[] size = new int[n];
+        Arrays.fill(size, 1);
+        for (int p = n - 1; p > 0; p--) {
+            size[parents.get(p)] += size[p];
+        }
+        exit = new int[n];
+        entryByID = new HashMap<>(2 * n);
+        for (int p = 0; p < n; p++) {
+            exit[p] = p + size[p];
+            entryByID.put(employees.get(p).getID(), p);
+        }
+
+        //.... As for Employee.organisationFTE(), capacity values which have not been set do not contribute
+        for (CapacityType capacityType : CapacityType.values()) {
+            double[] prefix = new double[n + 1];
+            for (int p = 0; p < n; p++) {
+                double capacity = employees.get(p).getCapacity(capacityType);
+                prefix[p + 1] = capacity == EmployeeCapacity.NOT_SET ? prefix[p] : prefix[p] + capacity;
+            }
+            prefixSums[capacityType.ordinal()] = prefix;
+        }
+    }
+
+    /**
+     * @return The number of employees in the hierarchy
+     */
+    public int size() {
+        return order.size();
+    }
+
+    /**
+     * @return All employees in DFS order
+     */
+    public List<Employee> getEmployees() {
+        return order;
+    }
+
+    /**
+     * @param employee
+     * @return The DFS position of the employee or -1 if the employee is not
+     * part of the indexed hierarchy
+     */
+    public int getEntry(Employee employee) {
+        if (employee == null) {
+            throw new NullPointerException("employee may not be null");
+        }
+        Integer entry = entryByID.get(employee.getID());
+        return entry == null ? -1 : entry;
+    }
+
+    /**
+     * @param employee
+     * @return The first DFS position after the organisation of the employee or
+     * -1 if the employee is not part of the indexed hierarchy
+     */
+    public int getExit(Employee employee) {
+        int entry = getEntry(employee);
+        return entry < 0 ? -1 : exit[entry];
+    }
+
+    /**
+     * Check whether an employee is part of the organisation of a manager, i.
+     * e. a direct or indirect report. An employee is not part of its own
+     * organisation
+     *
+     * @param employee
+     * @param manager
+     * @return
+     */
+    public boolean isInOrganisation(Employee employee, Employee manager) {
+        if (employee == null) {
+            throw new NullPointerException("employee may not be null");
+        }
+        if (manager == null) {
+            throw new NullPointerException("manager may not be null");
+        }
+        int e = getEntry(employee);
+        int m = getEntry(manager);
+        return e >= 0 && m >= 0 && m < e && e < exit[m];
+    }
+
+    /**
+     * @param manager
+     * @return All direct and indirect reports of the manager, in DFS order
+     */
+    public List<Employee> getOrganisation(Employee manager) {
+        int m = getRequiredEntry(manager);
+        return order.subList(m + 1, exit[m]);
+    }
+
+    /**
+     * @param manager
+     * @param capacityType
+     * @return The capacity sum over all direct and indirect reports of the
+     * manager. Reports without a value for the capacity type
+     * (EmployeeCapacity.NOT_SET) do not contribute, so for FTE this is the
+     * same as Employee.organisationFTE()
+     */
+    public double getOrganisationCapacity(Employee manager, CapacityType capacityType) {
+        if (capacityType == null) {
+            throw new NullPointerException("capacityType may not be null");
+        }
+        int m = getRequiredEntry(manager);
+        double[] prefix = prefixSums[capacityType.ordinal()];
+        return prefix[exit[m]] - prefix[m + 1];
+    }
+
+    /**
+     * @param employee
+     * @return
+     */
+    private int getRequiredEntry(Employee employee) {
+        int entry = getEntry(employee);
+        if (entry < 0) {
+            throw new IllegalArgumentException("Employee " + employee.getID() + " is not part of the indexed hierarchy");
+        }
+        return entry;
+    }
+}
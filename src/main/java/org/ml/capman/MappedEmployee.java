@@ -0,0 +1,349 @@
+package org.ml.capman;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.ml.capman.EmployeeCapacity.CapacityType;
+import org.ml.table.content.UrlContent;
+
+/**
+ * A read-only view on one row of a MappedEmployeeData instance. All data is
+ * read from the mapped file when it is accessed; all methods that would
+ * change the employee throw an UnsupportedOperationException
+ *
+ * @author mlaux
+ */
+public class MappedEmployee extends Employee {
+
+    private final MappedEmployeeData data;
+    private final int row;
+    private Map<String, Employee> employees = null;
+
+    /**
+     * @param data
+     * @param row
+     */
+    MappedEmployee(MappedEmployeeData data, int row) {
+        super(data.getID(row), DataConfiguration.getInstance());
+        this.data = data;
+        this.row = row;
+    }
+
+    /**
+     * @return The row of this employee in the mapped data
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * @param type
+     * @return
+     */
+    @Override
+    public Comparable get(IType type) {
+        return data.get(row, type);
+    }
+
+    /**
+     * @param type
+     * @param field
+     * @return
+     */
+    @Override
+    public Comparable get(IType type, String field) {
+        return data.get(row, type, field);
+    }
+
+    /**
+     * @param type
+     * @return A new map for each call
+     */
+    @Override
+    public Map<String, Comparable> getFields(IType type) {
+        return data.getFields(row, type);
+    }
+
+    /**
+     * @param type
+     * @return
+     */
+    @Override
+    public String getMinField(IType type) {
+        Map.Entry<String, Comparable> entry = getExtremum(type, -1);
+        return entry == null ? null : entry.getKey();
+    }
+
+    /**
+     * @param type
+     * @return
+     */
+    @Override
+    public Comparable getMinValue(IType type) {
+        Map.Entry<String, Comparable> entry = getExtremum(type, -1);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * @param type
+     * @return
+     */
+    @Override
+    public String getMaxField(IType type) {
+        Map.Entry<String, Comparable> entry = getExtremum(type, 1);
+        return entry == null ? null : entry.getKey();
+    }
+
+    /**
+     * @param type
+     * @return
+     */
+    @Override
+    public Comparable getMaxValue(IType type) {
+        Map.Entry<String, Comparable> entry = getExtremum(type, 1);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * @param type
+     * @param sign -1 for the minimum, 1 for the maximum
+     * @return The first entry with the smallest or largest value, as for
+     * DataContainer, or null if there are no fields
+     */
+    private Map.Entry<String, Comparable> getExtremum(IType type, int sign) {
+        Map.Entry<String, Comparable> extremum = null;
+        for (Map.Entry<String, Comparable> entry : getFields(type).entrySet()) {
+            if (extremum == null || sign * entry.getValue().compareTo(extremum.getValue()) > 0) {
+                extremum = entry;
+            }
+        }
+        return extremum;
+    }
+
+    /**
+     * @return A new instance for each call; changes are not written back
+     */
+    @Override
+    public EmployeeCapacity getCapacity() {
+        EmployeeCapacity capacity = new EmployeeCapacity();
+        for (CapacityType capacityType : CapacityType.values()) {
+            capacity.set(capacityType, data.getCapacity(row, capacityType));
+        }
+        return capacity;
+    }
+
+    /**
+     * @param capacityType
+     * @return
+     */
+    @Override
+    public double getCapacity(CapacityType capacityType) {
+        return data.getCapacity(row, capacityType);
+    }
+
+    /**
+     * @param employeeUrl
+     * @return
+     */
+    @Override
+    public UrlContent getUrl(EmployeeUrl employeeUrl) {
+        return data.getUrl(row, employeeUrl);
+    }
+
+    /**
+     * @return
+     */
+    @Override
+    public Comparable getName() {
+        if (getNameType() == null) {
+            throw new UnsupportedOperationException("NameType has not been set");
+        }
+        return get(getNameType());
+    }
+
+    /**
+     * @return
+     */
+    @Override
+    public Comparable getSortName() {
+        if (getSortNameType() == null) {
+            throw new UnsupportedOperationException("SortNameType has not been set");
+        }
+        return get(getSortNameType());
+    }
+
+    /**
+     * @return
+     */
+    @Override
+    IType getNameType() {
+        return data.getNameType(row);
+    }
+
+    /**
+     * @return
+     */
+    @Override
+    IType getSortNameType() {
+        return data.getSortNameType(row);
+    }
+
+    /**
+     * @return
+     */
+    @Override
+    public boolean isRoot() {
+        return data.isRoot(row);
+    }
+
+    /**
+     * @return
+     */
+    @Override
+    public Employee getManager() {
+        int managerRow = data.getManagerRow(row);
+        return managerRow < 0 ? null : data.getEmployee(managerRow);
+    }
+
+    /**
+     * @return
+     */
+    @Override
+    public boolean hasManager() {
+        return data.getManagerRow(row) >= 0;
+    }
+
+    /**
+     * @return An unmodifiable map of the views for the direct reports
+     */
+    @Override
+    public synchronized Map<String, Employee> getEmployees() {
+        if (employees == null) {
+            Map<String, Employee> e = new TreeMap<>();
+            for (int reportRow : data.getReportRows(row)) {
+                MappedEmployee employee = data.getEmployee(reportRow);
+                e.put(employee.getID(), employee);
+            }
+            employees = Collections.unmodifiableMap(e);
+        }
+        return employees;
+    }
+
+    /**
+     * @return
+     */
+    @Override
+    public int organisationSize() {
+        return data.getOrganisationSize(row);
+    }
+
+    /**
+     * @return
+     */
+    @Override
+    public int organisationSizeByHC() {
+        return data.getOrganisationSizeByHC(row);
+    }
+
+    /**
+     * @return
+     */
+    @Override
+    public double organisationFTE() {
+        return data.getOrganisationFTE(row);
+    }
+
+    /**
+     * The aggregates are part of the mapped data, there is nothing to compute
+     */
+    @Override
+    public void updateOrganisationAggregates() {
+    }
+
+    /**
+     *
+     */
+    @Override
+    void invalidateOrganisationAggregates() {
+    }
+
+    //.... The data can not be changed
+
+    @Override
+    public void set(IType type, Comparable value) {
+        throw new UnsupportedOperationException("Mapped employee data is read-only");
+    }
+
+    @Override
+    public void set(IType type, String field, Comparable value) {
+        throw new UnsupportedOperationException("Mapped employee data is read-only");
+    }
+
+    @Override
+    void setRaw(int ordinal, Comparable value) {
+        throw new UnsupportedOperationException("Mapped employee data is read-only");
+    }
+
+    @Override
+    void setRaw(int ordinal, String field, Comparable value) {
+        throw new UnsupportedOperationException("Mapped employee data is read-only");
+    }
+
+    @Override
+    public void setUrl(EmployeeUrl employeeUrl, UrlContent urlContent) {
+        throw new UnsupportedOperationException("Mapped employee data is read-only");
+    }
+
+    @Override
+    public void setNameType(IType nameType) {
+        throw new UnsupportedOperationException("Mapped employee data is read-only");
+    }
+
+    @Override
+    public void setSortNameType(IType sortNameType) {
+        throw new UnsupportedOperationException("Mapped employee data is read-only");
+    }
+
+    @Override
+    public void setCapacity(CapacityType capacityType, double value) {
+        throw new UnsupportedOperationException("Mapped employee data is read-only");
+    }
+
+    @Override
+    public synchronized void addChangeListener(EmployeeChangeListener listener) {
+        throw new UnsupportedOperationException("Mapped employee data is read-only");
+    }
+
+    @Override
+    public void setManager(Employee manager) {
+        throw new UnsupportedOperationException("Mapped employee data is read-only");
+    }
+
+    @Override
+    public void clearManager() {
+        throw new UnsupportedOperationException("Mapped employee data is read-only");
+    }
+
+    @Override
+    void restoreReportingLines(Employee manager, List<Employee> reports) {
+        throw new UnsupportedOperationException("Mapped employee data is read-only");
+    }
+
+    @Override
+    public void addEmployee(Employee employee) {
+        throw new UnsupportedOperationException("Mapped employee data is read-only");
+    }
+
+    @Override
+    public void removeEmployee(Employee employee) {
+        throw new UnsupportedOperationException("Mapped employee data is read-only");
+    }
+
+    @Override
+    public void setRoot(boolean root) {
+        throw new UnsupportedOperationException("Mapped employee data is read-only");
+    }
+
+}
@@ -0,0 +1,935 @@
+package org.ml.capman;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.ml.capman.DataConfiguration.TypeDimension;
+import org.ml.capman.DataConfiguration.TypeKind;
+import org.ml.capman.Employee.EmployeeUrl;
+import org.ml.capman.EmployeeCapacity.CapacityType;
+import org.ml.table.content.UrlContent;
+
+import static org.ml.capman.DataConfiguration.TypeDimension.One;
+import static org.ml.capman.DataConfiguration.TypeDimension.Two;
+import static org.ml.capman.ValueCodec.TAG_BOOLEAN;
+import static org.ml.capman.ValueCodec.TAG_DOUBLE;
+import static org.ml.capman.ValueCodec.TAG_INTEGER;
+import static org.ml.capman.ValueCodec.TAG_LONG;
+import static org.ml.capman.ValueCodec.TAG_STRING;
+
+/**
+ * A read-only employee data set backed by a memory-mapped columnar file. The
+ * file holds a string and a value dictionary, one column of value codes per
+ * 1D type, the 2D values and the reporting lines in compressed row form, and
+ * columns for capacity, URLs and the organisation aggregates. Opening a file
+ * only maps it and resolves the types; values are decoded when they are
+ * accessed, and several processes mapping the same file share the page cache.
+ *
+ * The data is accessed by row (the position of the employee in the employee
+ * data the file was written from) or through MappedEmployee views, which are
+ * created on first access and kept, so there is one view per row. For the
+ * reporting steps, toEmployeeData() wraps the views in an EmployeeData
+ * instance.
+ *
+ * As for snapshots (see EmployeeDataSnapshot), the types are recorded by name
+ * and kind and have to be registered with DataConfiguration when the file is
+ * opened. Unlike snapshots, the file has no checksum, as checking it would
+ * mean reading the complete file up front. Files are limited to 2 GB.
+ *
+ * @author mlaux
+ */
+public class MappedEmployeeData {
+
+    private final static int MAGIC = 0x434d4346;   // "CMCF"
+    public final static int FORMAT_VERSION = 1;
+
+    //.... Sections of the file, the positions of which are stored in the header
+    private final static int STRINGS = 0;
+    private final static int VALUES = 1;
+    private final static int TYPES = 2;
+    private final static int EMPLOYEES = 3;
+    private final static int VALUES_1D = 4;
+    private final static int VALUES_2D = 5;
+    private final static int REPORTS = 6;
+    private final static int ID_INDEX = 7;
+    private final static int CONSTRAINTS = 8;
+    private final static int SECTIONS = 9;
+    private final static int HEADER_SIZE = 4 * (4 + SECTIONS);
+
+    //.... Value dictionary entries: a tag byte (see ValueCodec) followed by 8 bytes of data
+    private final static int VALUE_SIZE = 9;
+
+    private final static int FLAG_ROOT = 1;
+    private final static int NONE = -1;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int rootRow;
+    private final DataConfiguration configuration = DataConfiguration.getInstance();
+
+    //.... Types by file ordinal, and file ordinals by DataConfiguration ordinal
+    private final IType[] types1D;
+    private final IType[] types2D;
+    private final int[] fileOrdinals1D;
+    private final int[] fileOrdinals2D;
+
+    //.... Positions of the dictionaries and columns
+    private final int stringOffsets;
+    private final int stringBytes;
+    private final int values;
+    private final int ids;
+    private final int flags;
+    private final int nameTypes;
+    private final int sortNameTypes;
+    private final int managers;
+    private final int capacity;
+    private final int organisationSizes;
+    private final int organisationSizesByHC;
+    private final int organisationFTEs;
+    private final int urls;
+    private final int values1D;
+    private final int[] values2D;
+    private final int reports;
+    private final int idIndex;
+    private final int constraints;
+
+    private final AtomicReferenceArray<MappedEmployee> views;
+    private ConstraintHandler constraintHandler = null;
+
+    /**
+     * @param buffer
+     * @throws IOException
+     */
+    private MappedEmployeeData(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a mapped employee data file");
+        }
+        int version = buffer.getInt(4);
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported mapped employee data format version " + version + " (supported: " + FORMAT_VERSION + ")");
+        }
+        size = buffer.getInt(8);
+        rootRow = buffer.getInt(12);
+        int[] sections = new int[SECTIONS];
+        for (int i = 0; i < SECTIONS; i++) {
+            sections[i] = buffer.getInt(16 + 4 * i);
+        }
+
+        int stringCount = buffer.getInt(sections[STRINGS]);
+        stringOffsets = sections[STRINGS] + 4;
+        stringBytes = stringOffsets + 4 * (stringCount + 1);
+        values = sections[VALUES] + 4;
+
+        //.... Types: map the types of the file to the types registered now
+        int t = sections[TYPES];
+        types1D = new IType[buffer.getInt(t)];
+        types2D = new IType[buffer.getInt(t + 4)];
+        t += 8;
+        for (IType[] types : new IType[][]{types1D, types2D}) {
+            TypeDimension typeDimension = types == types1D ? One : Two;
+            for (int ordinal = 0; ordinal < types.length; ordinal++) {
+                String typeName = getString(buffer.getInt(t));
+                String typeKind = getString(buffer.getInt(t + 4));
+                t += 8;
+                if (!configuration.supports(typeName, typeDimension)) {
+                    throw new IOException("Type " + typeName + " (" + typeDimension + ") of the file is not registered");
+                }
+                types[ordinal] = configuration.get(typeName, typeDimension);
+                if (!types[ordinal].getTypeKind().equals(TypeKind.valueOf(typeKind))) {
+                    throw new IOException("Type " + typeName + " (" + typeDimension + ") is registered with TypeKind "
+                            + types[ordinal].getTypeKind() + ", but the file has " + typeKind);
+                }
+            }
+        }
+        fileOrdinals1D = getFileOrdinals(types1D, One);
+        fileOrdinals2D = getFileOrdinals(types2D, Two);
+
+        //.... Employee columns
+        ids = sections[EMPLOYEES];
+        flags = ids + 4 * size;
+        nameTypes = flags + 4 * size;
+        sortNameTypes = nameTypes + 4 * size;
+        managers = sortNameTypes + 4 * size;
+        capacity = managers + 4 * size;
+        organisationSizes = capacity + 8 * size * CapacityType.values().length;
+        organisationSizesByHC = organisationSizes + 4 * size;
+        organisationFTEs = organisationSizesByHC + 4 * size;
+        urls = organisationFTEs + 8 * size;
+
+        values1D = sections[VALUES_1D];
+        values2D = new int[types2D.length];
+        for (int ordinal = 0; ordinal < types2D.length; ordinal++) {
+            values2D[ordinal] = buffer.getInt(sections[VALUES_2D] + 4 * ordinal);
+        }
+        reports = sections[REPORTS];
+        idIndex = sections[ID_INDEX];
+        constraints = sections[CONSTRAINTS];
+
+        views = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Map a file written by write()
+     *
+     * @param path
+     * @return
+     * @throws IOException If the file is not in a supported format version,
+     * or a type of the file is not registered with DataConfiguration
+     */
+    public static MappedEmployeeData open(Path path) throws IOException {
+        if (path == null) {
+            throw new NullPointerException("path may not be null");
+        }
+
+        //.... The mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedEmployeeData(buffer);
+        }
+    }
+
+    /**
+     * Write the employee data to a file which can then be opened with open()
+     *
+     * @param employeeData
+     * @param path
+     * @throws IOException
+     */
+    public static void write(EmployeeData<? extends Employee> employeeData, Path path) throws IOException {
+        if (employeeData == null) {
+            throw new NullPointerException("employeeData may not be null");
+        }
+        if (path == null) {
+            throw new NullPointerException("path may not be null");
+        }
+        new Writer(employeeData).write(path);
+    }
+
+    /**
+     * @param types The types by file ordinal
+     * @param typeDimension
+     * @return The file ordinals by DataConfiguration ordinal, NONE for types
+     * not contained in the file
+     */
+    private int[] getFileOrdinals(IType[] types, TypeDimension typeDimension) {
+        int[] fileOrdinals = new int[configuration.getTypeCount(typeDimension)];
+        Arrays.fill(fileOrdinals, NONE);
+        for (int ordinal = 0; ordinal < types.length; ordinal++) {
+            fileOrdinals[configuration.getOrdinal(types[ordinal], typeDimension)] = ordinal;
+        }
+        return fileOrdinals;
+    }
+
+    /**
+     * @param type
+     * @param typeDimension
+     * @return The file ordinal of the type or NONE if the type is not contained
+     * in the file
+     */
+    private int getFileOrdinal(IType type, TypeDimension typeDimension) {
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        int ordinal = configuration.getOrdinal(type, typeDimension);
+        if (ordinal < 0) {
+            throw new IllegalArgumentException("type name '" + type.getTypeName() + "' not supported with type dimension " + typeDimension);
+        }
+        int[] fileOrdinals = typeDimension.equals(One) ? fileOrdinals1D : fileOrdinals2D;
+        return ordinal < fileOrdinals.length ? fileOrdinals[ordinal] : NONE;
+    }
+
+    /**
+     * @param row
+     */
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("No employee at row " + row + " (size: " + size + ")");
+        }
+    }
+
+    /**
+     * @param code
+     * @return
+     */
+    String getString(int code) {
+        if (code == NONE) {
+            return null;
+        }
+        int start = buffer.getInt(stringOffsets + 4 * code);
+        byte[] bytes = new byte[buffer.getInt(stringOffsets + 4 * code + 4) - start];
+        ByteBuffer b = buffer.duplicate();
+        b.position(stringBytes + start);
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param code
+     * @return
+     */
+    Comparable getValue(int code) {
+        if (code == NONE) {
+            return null;
+        }
+        int position = values + VALUE_SIZE * code;
+        switch (buffer.get(position)) {
+            case TAG_STRING:
+                return getString((int) buffer.getLong(position + 1));
+            case TAG_INTEGER:
+                return (int) buffer.getLong(position + 1);
+            case TAG_DOUBLE:
+                return buffer.getDouble(position + 1);
+            case TAG_BOOLEAN:
+                return buffer.getLong(position + 1) != 0L;
+            case TAG_LONG:
+                return buffer.getLong(position + 1);
+            default:
+                throw new IllegalStateException("Unknown value tag " + buffer.get(position));
+        }
+    }
+
+    /**
+     * @return The number of employees
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param ID
+     * @return The row of the employee with the given ID or -1 if there is no
+     * such employee
+     */
+    public int getRow(String ID) {
+        if (ID == null) {
+            throw new IllegalArgumentException("ID may not be null");
+        }
+
+        //.... Binary search on the rows sorted by ID
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int row = buffer.getInt(idIndex + 4 * middle);
+            int c = getID(row).compareTo(ID);
+            if (c < 0) {
+                low = middle + 1;
+            } else if (c > 0) {
+                high = middle - 1;
+            } else {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The row of the root employee or -1 if there is none
+     */
+    public int getRootRow() {
+        return rootRow;
+    }
+
+    /**
+     * @param row
+     * @return
+     */
+    public String getID(int row) {
+        checkRow(row);
+        return getString(buffer.getInt(ids + 4 * row));
+    }
+
+    /**
+     * @param row
+     * @return
+     */
+    public boolean isRoot(int row) {
+        checkRow(row);
+        return (buffer.getInt(flags + 4 * row) & FLAG_ROOT) != 0;
+    }
+
+    /**
+     * @param row
+     * @return
+     */
+    IType getNameType(int row) {
+        checkRow(row);
+        int ordinal = buffer.getInt(nameTypes + 4 * row);
+        return ordinal == NONE ? null : types1D[ordinal];
+    }
+
+    /**
+     * @param row
+     * @return
+     */
+    IType getSortNameType(int row) {
+        checkRow(row);
+        int ordinal = buffer.getInt(sortNameTypes + 4 * row);
+        return ordinal == NONE ? null : types1D[ordinal];
+    }
+
+    /**
+     * @param row
+     * @return The row of the manager or -1 if there is none
+     */
+    public int getManagerRow(int row) {
+        checkRow(row);
+        return buffer.getInt(managers + 4 * row);
+    }
+
+    /**
+     * @param row
+     * @return The rows of the direct reports, in the order of their IDs
+     */
+    public int[] getReportRows(int row) {
+        checkRow(row);
+        int start = buffer.getInt(reports + 4 * row);
+        int[] rows = new int[buffer.getInt(reports + 4 * row + 4) - start];
+        int position = reports + 4 * (size + 1) + 4 * start;
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = buffer.getInt(position + 4 * i);
+        }
+        return rows;
+    }
+
+    /**
+     * @param row
+     * @param type A 1D type
+     * @return
+     */
+    public Comparable get(int row, IType type) {
+        checkRow(row);
+        int ordinal = getFileOrdinal(type, One);
+        if (ordinal == NONE) {
+            return null;
+        }
+        return getValue(buffer.getInt(values1D + 4 * (ordinal * size + row)));
+    }
+
+    /**
+     * @param row
+     * @param type A 2D type
+     * @return A new map with the fields and values of the employee
+     */
+    public Map<String, Comparable> getFields(int row, IType type) {
+        checkRow(row);
+        Map<String, Comparable> fields = new HashMap<>();
+        int ordinal = getFileOrdinal(type, Two);
+        if (ordinal == NONE) {
+            return fields;
+        }
+        int base = values2D[ordinal];
+        int entries = buffer.getInt(base + 4 * size);
+        int start = buffer.getInt(base + 4 * row);
+        int end = buffer.getInt(base + 4 * row + 4);
+        for (int entry = start; entry < end; entry++) {
+            fields.put(getString(buffer.getInt(base + 4 * (size + 1 + entry))),
+                    getValue(buffer.getInt(base + 4 * (size + 1 + entries + entry))));
+        }
+        return fields;
+    }
+
+    /**
+     * @param row
+     * @param type A 2D type
+     * @param field
+     * @return
+     */
+    public Comparable get(int row, IType type, String field) {
+        if (field == null) {
+            throw new NullPointerException("field may not be null");
+        }
+        checkRow(row);
+        int ordinal = getFileOrdinal(type, Two);
+        if (ordinal == NONE) {
+            return null;
+        }
+        int base = values2D[ordinal];
+        int entries = buffer.getInt(base + 4 * size);
+        int start = buffer.getInt(base + 4 * row);
+        int end = buffer.getInt(base + 4 * row + 4);
+        for (int entry = start; entry < end; entry++) {
+            if (field.equals(getString(buffer.getInt(base + 4 * (size + 1 + entry))))) {
+                return getValue(buffer.getInt(base + 4 * (size + 1 + entries + entry)));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param row
+     * @param capacityType
+     * @return
+     */
+    public double getCapacity(int row, CapacityType capacityType) {
+        if (capacityType == null) {
+            throw new NullPointerException("capacityType may not be null");
+        }
+        checkRow(row);
+        return buffer.getDouble(capacity + 8 * (capacityType.ordinal() * size + row));
+    }
+
+    /**
+     * @param row
+     * @return See Employee.organisationSize()
+     */
+    public int getOrganisationSize(int row) {
+        checkRow(row);
+        return buffer.getInt(organisationSizes + 4 * row);
+    }
+
+    /**
+     * @param row
+     * @return See Employee.organisationSizeByHC()
+     */
+    public int getOrganisationSizeByHC(int row) {
+        checkRow(row);
+        return buffer.getInt(organisationSizesByHC + 4 * row);
+    }
+
+    /**
+     * @param row
+     * @return See Employee.organisationFTE()
+     */
+    public double getOrganisationFTE(int row) {
+        checkRow(row);
+        return buffer.getDouble(organisationFTEs + 8 * row);
+    }
+
+    /**
+     * @param row
+     * @param employeeUrl
+     * @return
+     */
+    public UrlContent getUrl(int row, EmployeeUrl employeeUrl) {
+        if (employeeUrl == null) {
+            throw new NullPointerException("employeeUrl may not be null");
+        }
+        checkRow(row);
+        int position = urls + 4 * (2 * employeeUrl.ordinal() * size + row);
+        return new UrlContent(getString(buffer.getInt(position)), getString(buffer.getInt(position + 4 * size)));
+    }
+
+    /**
+     * @param row
+     * @return The view for the employee at the given row
+     */
+    public MappedEmployee getEmployee(int row) {
+        checkRow(row);
+        MappedEmployee employee = views.get(row);
+        if (employee == null) {
+            views.compareAndSet(row, null, new MappedEmployee(this, row));
+            employee = views.get(row);
+        }
+        return employee;
+    }
+
+    /**
+     * @param ID
+     * @return The view for the employee with the given ID or null if there is
+     * no such employee
+     */
+    public MappedEmployee getEmployee(String ID) {
+        int row = getRow(ID);
+        return row < 0 ? null : getEmployee(row);
+    }
+
+    /**
+     * @return The views for all employees, by row. Views are created as the
+     * list is accessed
+     */
+    public List<MappedEmployee> getEmployees() {
+        return new AbstractList<MappedEmployee>() {
+            @Override
+            public MappedEmployee get(int row) {
+                return getEmployee(row);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * @return The view for the root employee or null if there is none
+     */
+    public MappedEmployee getRootEmployee() {
+        return rootRow == NONE ? null : getEmployee(rootRow);
+    }
+
+    /**
+     * @return
+     */
+    public synchronized ConstraintHandler getConstraintHandler() {
+        if (constraintHandler == null) {
+            constraintHandler = new ConstraintHandler();
+            int n = buffer.getInt(constraints);
+            for (int i = 0; i < n; i++) {
+                int position = constraints + 4 + 16 * i;
+                constraintHandler.addConstraint(types2D[buffer.getInt(position)], getValue(buffer.getInt(position + 4)),
+                        types2D[buffer.getInt(position + 8)], getValue(buffer.getInt(position + 12)));
+            }
+        }
+        return constraintHandler;
+    }
+
+    /**
+     * An EmployeeData instance with the views for all employees, for the
+     * reporting steps. The views are read-only, so neither the employees nor
+     * their reporting lines can be changed through it
+     *
+     * @return
+     */
+    public EmployeeData<Employee> toEmployeeData() {
+        EmployeeData<Employee> employeeData = new EmployeeData<>();
+        for (int row = 0; row < size; row++) {
+            employeeData.addEmployee(getEmployee(row));
+        }
+        if (rootRow != NONE) {
+            employeeData.setRootEmployee(getEmployee(rootRow));
+        }
+        employeeData.setConstraintHandler(new ConstraintHandler(getConstraintHandler()));
+        return employeeData;
+    }
+
+    /**
+     * Collects the dictionaries and columns for an EmployeeData instance and
+     * writes them to a file
+     */
+    private static class Writer {
+
+        private final EmployeeData<? extends Employee> employeeData;
+        private final DataConfiguration configuration = DataConfiguration.getInstance();
+        private final Map<String, Integer> stringCodes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final Map<Comparable, Integer> valueCodes = new HashMap<>();
+        private final List<Comparable> values = new ArrayList<>();
+
+        /**
+         * @param employeeData
+         */
+        private Writer(EmployeeData<? extends Employee> employeeData) {
+            this.employeeData = employeeData;
+        }
+
+        /**
+         * @param path
+         * @throws IOException
+         */
+        private void write(Path path) throws IOException {
+            List<? extends Employee> employees = employeeData.getEmployees();
+            int n = employees.size();
+            int n1 = configuration.getTypeCount(One);
+            int n2 = configuration.getTypeCount(Two);
+            CapacityType[] capacityTypes = CapacityType.values();
+            EmployeeUrl[] employeeUrls = EmployeeUrl.values();
+            employeeData.updateOrganisationAggregates();
+
+            //.... Collect all columns first, so the dictionaries are complete before anything is written
+            int[] typeNames = new int[n1 + n2];
+            int[] typeKinds = new int[n1 + n2];
+            for (int ordinal = 0; ordinal < n1 + n2; ordinal++) {
+                IType type = ordinal < n1 ? configuration.get(One, ordinal) : configuration.get(Two, ordinal - n1);
+                typeNames[ordinal] = getStringCode(type.getTypeName());
+                typeKinds[ordinal] = getStringCode(type.getTypeKind().name());
+            }
+
+            int[] ids = new int[n];
+            int[] flags = new int[n];
+            int[] nameTypes = new int[n];
+            int[] sortNameTypes = new int[n];
+            int[] managers = new int[n];
+            double[][] capacity = new double[capacityTypes.length][n];
+            int[] organisationSizes = new int[n];
+            int[] organisationSizesByHC = new int[n];
+            double[] organisationFTEs = new double[n];
+            int[][] urls = new int[2 * employeeUrls.length][n];
+            int[][] values1D = new int[n1][n];
+            int[] reportStarts = new int[n + 1];
+            for (int row = 0; row < n; row++) {
+                Employee employee = employees.get(row);
+                ids[row] = getStringCode(employee.getID());
+                flags[row] = employee.isRoot() ? FLAG_ROOT : 0;
+                nameTypes[row] = employee.getNameType() == null ? NONE : configuration.getOrdinal(employee.getNameType(), One);
+                sortNameTypes[row] = employee.getSortNameType() == null ? NONE : configuration.getOrdinal(employee.getSortNameType(), One);
+                managers[row] = employee.hasManager() ? getRow(employee.getManager()) : NONE;
+                for (CapacityType capacityType : capacityTypes) {
+                    capacity[capacityType.ordinal()][row] = employee.getCapacity(capacityType);
+                }
+                organisationSizes[row] = employee.organisationSize();
+                organisationSizesByHC[row] = employee.organisationSizeByHC();
+                organisationFTEs[row] = employee.organisationFTE();
+                for (EmployeeUrl employeeUrl : employeeUrls) {
+                    UrlContent urlContent = employee.getUrl(employeeUrl);
+                    urls[2 * employeeUrl.ordinal()][row] = getStringCode(urlContent.getAddress());
+                    urls[2 * employeeUrl.ordinal() + 1][row] = getStringCode(urlContent.getText());
+                }
+                for (int ordinal = 0; ordinal < n1; ordinal++) {
+                    values1D[ordinal][row] = getValueCode(employee.get(configuration.get(One, ordinal)));
+                }
+                reportStarts[row + 1] = reportStarts[row] + employee.getEmployees().size();
+            }
+
+            int[] reportRows = new int[reportStarts[n]];
+            for (int row = 0; row < n; row++) {
+                int i = reportStarts[row];
+                for (Employee report : employees.get(row).getEmployees().values()) {
+                    reportRows[i++] = getRow(report);
+                }
+            }
+
+            //.... 2D values per type: the start of each row, then the field codes and the value codes
+            int[][] starts2D = new int[n2][n + 1];
+            int[][] fields2D = new int[n2][];
+            int[][] values2D = new int[n2][];
+            for (int ordinal = 0; ordinal < n2; ordinal++) {
+                IType type = configuration.get(Two, ordinal);
+                for (int row = 0; row < n; row++) {
+                    starts2D[ordinal][row + 1] = starts2D[ordinal][row] + employees.get(row).getFields(type).size();
+                }
+                fields2D[ordinal] = new int[starts2D[ordinal][n]];
+                values2D[ordinal] = new int[starts2D[ordinal][n]];
+                for (int row = 0; row < n; row++) {
+                    int entry = starts2D[ordinal][row];
+                    for (Map.Entry<String, Comparable> field : employees.get(row).getFields(type).entrySet()) {
+                        fields2D[ordinal][entry] = getStringCode(field.getKey());
+                        values2D[ordinal][entry++] = getValueCode(field.getValue());
+                    }
+                }
+            }
+
+            Integer[] byID = new Integer[n];
+            for (int row = 0; row < n; row++) {
+                byID[row] = row;
+            }
+            Arrays.sort(byID, (row1, row2) -> employees.get(row1).getID().compareTo(employees.get(row2).getID()));
+
+            List<int[]> constraintCodes = new ArrayList<>();
+            for (Constraint constraint : employeeData.getConstraintHandler().getConstraints()) {
+                constraintCodes.add(new int[]{configuration.getOrdinal(constraint.getType1(), Two), getValueCode(constraint.getField1()),
+                    configuration.getOrdinal(constraint.getType2(), Two), getValueCode(constraint.getField2())});
+            }
+
+            //.... Write the sections, then the header with the section positions
+            int[] sections = new int[SECTIONS];
+            try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+                data.write(new byte[HEADER_SIZE]);
+
+                sections[STRINGS] = data.size();
+                List<byte[]> bytes = new ArrayList<>(strings.size());
+                for (String s : strings) {
+                    bytes.add(s.getBytes(StandardCharsets.UTF_8));
+                }
+                data.writeInt(strings.size());
+                int offset = 0;
+                data.writeInt(offset);
+                for (byte[] b : bytes) {
+                    offset += b.length;
+                    data.writeInt(offset);
+                }
+                for (byte[] b : bytes) {
+                    data.write(b);
+                }
+
+                sections[VALUES] = data.size();
+                data.writeInt(values.size());
+                for (Comparable value : values) {
+                    writeValue(data, value);
+                }
+
+                sections[TYPES] = data.size();
+                data.writeInt(n1);
+                data.writeInt(n2);
+                for (int ordinal = 0; ordinal < n1 + n2; ordinal++) {
+                    data.writeInt(typeNames[ordinal]);
+                    data.writeInt(typeKinds[ordinal]);
+                }
+
+                sections[EMPLOYEES] = data.size();
+                writeInts(data, ids);
+                writeInts(data, flags);
+                writeInts(data, nameTypes);
+                writeInts(data, sortNameTypes);
+                writeInts(data, managers);
+                for (double[] c : capacity) {
+                    writeDoubles(data, c);
+                }
+                writeInts(data, organisationSizes);
+                writeInts(data, organisationSizesByHC);
+                writeDoubles(data, organisationFTEs);
+                for (EmployeeUrl employeeUrl : employeeUrls) {
+                    writeInts(data, urls[2 * employeeUrl.ordinal()]);
+                    writeInts(data, urls[2 * employeeUrl.ordinal() + 1]);
+                }
+
+                sections[VALUES_1D] = data.size();
+                for (int[] column : values1D) {
+                    writeInts(data, column);
+                }
+
+                sections[VALUES_2D] = data.size();
+                int position = data.size() + 4 * n2;
+                for (int ordinal = 0; ordinal < n2; ordinal++) {
+                    data.writeInt(position);
+                    position += 4 * (n + 1 + 2 * fields2D[ordinal].length);
+                }
+                for (int ordinal = 0; ordinal < n2; ordinal++) {
+                    writeInts(data, starts2D[ordinal]);
+                    writeInts(data, fields2D[ordinal]);
+                    writeInts(data, values2D[ordinal]);
+                }
+
+                sections[REPORTS] = data.size();
+                writeInts(data, reportStarts);
+                writeInts(data, reportRows);
+
+                sections[ID_INDEX] = data.size();
+                for (Integer row : byID) {
+                    data.writeInt(row);
+                }
+
+                sections[CONSTRAINTS] = data.size();
+                data.writeInt(constraintCodes.size());
+                for (int[] codes : constraintCodes) {
+                    writeInts(data, codes);
+                }
+
+                if (data.size() < 0) {
+                    throw new IOException("The employee data is too large for a mapped file");
+                }
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(n);
+            header.putInt(employeeData.getRootEmployee() == null ? NONE : getRow(employeeData.getRootEmployee()));
+            for (int section : sections) {
+                header.putInt(section);
+            }
+            header.flip();
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+            }
+        }
+
+        /**
+         * @param employee
+         * @return
+         */
+        private int getRow(Employee employee) {
+            int row = employeeData.getIndex(employee.getID());
+            if (row < 0) {
+                throw new IllegalArgumentException("Employee " + employee.getID() + " is referenced in the hierarchy, but not part of the employee data");
+            }
+            return row;
+        }
+
+        /**
+         * @param s
+         * @return
+         */
+        private int getStringCode(String s) {
+            if (s == null) {
+                return NONE;
+            }
+            Integer code = stringCodes.get(s);
+            if (code == null) {
+                code = strings.size();
+                stringCodes.put(s, code);
+                strings.add(s);
+            }
+            return code;
+        }
+
+        /**
+         * @param value
+         * @return
+         */
+        private int getValueCode(Comparable value) {
+            if (value == null) {
+                return NONE;
+            }
+            Integer code = valueCodes.get(value);
+            if (code == null) {
+
+                //.... Fails for values which are not supported
+                ValueCodec.getTag(value);
+                code = values.size();
+                valueCodes.put(value, code);
+                values.add(value);
+                if (value instanceof String) {
+                    getStringCode((String) value);
+                }
+            }
+            return code;
+        }
+
+        /**
+         * @param data
+         * @param value
+         * @throws IOException
+         */
+        private void writeValue(DataOutputStream data, Comparable value) throws IOException {
+            int tag = ValueCodec.getTag(value);
+            data.writeByte(tag);
+            switch (tag) {
+                case TAG_STRING:
+                    data.writeLong(stringCodes.get((String) value));
+                    break;
+                case TAG_INTEGER:
+                    data.writeLong((Integer) value);
+                    break;
+                case TAG_DOUBLE:
+                    data.writeDouble((Double) value);
+                    break;
+                case TAG_BOOLEAN:
+                    data.writeLong((Boolean) value ? 1L : 0L);
+                    break;
+                default:
+                    data.writeLong((Long) value);
+            }
+        }
+
+        /**
+         * @param data
+         * @param values
+         * @throws IOException
+         */
+        private static void writeInts(DataOutputStream data, int[] values) throws IOException {
+            for (int value : values) {
+                data.writeInt(value);
+            }
+        }
+
+        /**
+         * @param data
+         * @param values
+         * @throws IOException
+         */
+        private static void writeDoubles(DataOutputStream data, double[] values) throws IOException {
+            for (double value : values) {
+                data.writeDouble(value);
+            }
+        }
+    }
+
+}
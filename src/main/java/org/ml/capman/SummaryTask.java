@@ -0,0 +1,53 @@
+package org.ml.capman;
+
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * Fork/join task building a capacity summary over a range of employees: the
+ * range is split until it is small enough, the parts are summarised
+ * sequentially and the partial summaries are merged again in employee order
+ *
+ * @param <S>
+ * @author mlaux
+ */
+class SummaryTask<S extends BaseCapacitySummary> extends RecursiveTask<S> {
+
+    private static final long serialVersionUID = 1L;
+    private final int from;
+    private final int to;
+    private final BiFunction<Integer, Integer, S> leaf;
+    private final BiConsumer<S, S> merger;
+
+    /**
+     * @param from The first employee index (inclusive)
+     * @param to The last employee index (exclusive)
+     * @param leaf Creates the summary for an employee index range
+     * @param merger Merges the second summary into the first one
+     */
+    SummaryTask(int from, int to, BiFunction<Integer, Integer, S> leaf, BiConsumer<S, S> merger) {
+        this.from = from;
+        this.to = to;
+        this.leaf = leaf;
+        this.merger = merger;
+    }
+
+    /**
+     * @return
+     */
+    @Override
+    protected S compute() {
+        if (to - from <= BaseCapacitySummary.PARALLEL_THRESHOLD) {
+            return leaf.apply(from, to);
+        }
+        int middle = (from + to) >>> 1;
+        SummaryTask<S> left = new SummaryTask<>(from, middle, leaf, merger);
+        SummaryTask<S> right = new SummaryTask<>(middle, to, leaf, merger);
+        right.fork();
+        S result = left.compute();
+        merger.accept(result, right.join());
+        return result;
+    }
+
+}
@@ -3,23 +3,43 @@
  */
 package org.ml.capman;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 
 /**
+ * The links between the nodes providing employee data which make up the tree
+ * below a given root node. The links are indexed by parent node, so the
+ * subtree is extracted in a single pass over all links. Within the subtree,
+ * each node may be attached only once and there may be no cycles; violations
+ * are reported when the instance is created.
+ *
  * @author Dr. Matthias Laux
  */
 public class TreeLinkData {
 
-    private final Map<String, TreeLink> treeLinks = new TreeMap<>();
+    private final Map<String, TreeLink> treeLinks = new LinkedHashMap<>();
     private String rootNodeID;
     private final Set<String> childNodeIDs = new HashSet<>();
+    private final Map<String, List<TreeLink>> childLinks = new HashMap<>();
 
     /**
      * @param rootNodeID
-     * @param linkData
+     * @param linkData The links, keyed by "id:childNodeID" with values
+     * "parentNodeID|parentEmployeeID". This may contain links which are not
+     * part of the tree below the root node
+     * @throws IllegalArgumentException If an entry of the link data is
+     * malformed, or if a node is attached more than once or there is a cycle
+     * in the tree below the root node
      */
     public TreeLinkData(String rootNodeID, Map<String, String> linkData) {
         if (rootNodeID == null) {
@@ -30,52 +50,93 @@ public class TreeLinkData {
         }
         this.rootNodeID = rootNodeID;
 
-        //.... First parse the complete data (which may contain more tree link data than we actually wanto to consu8me here for this rootImporterID)
-        Map<String, TreeLink> allTreeLinks = new TreeMap<>();
-        for (String complexId : linkData.keySet()) {
-
-            //.... This is a hack: the complexId string ensures that the order of the includes makes sure trees lower in the hierarchy are included FIRST ... this should really be done via recursion
-            String[] t = complexId.split(":");
+        //.... First parse the complete data (which may contain more tree link data than we actually want to consume here for this rootNodeID)
+        //     and index it by parent node. The links of a parent are kept in the order of their IDs
+        Map<String, Map<String, TreeLink>> allChildLinks = new HashMap<>();
+        for (Map.Entry<String, String> entry : linkData.entrySet()) {
+            String[] t = entry.getKey().split(":", 2);
+            if (t.length != 2) {
+                throw new IllegalArgumentException("Malformed tree link key '" + entry.getKey() + "' (expected 'id:childNodeID')");
+            }
             String id = t[0];
             String childNodeID = t[1];
 
-            //.... Parse the link information            
-            String[] d = linkData.get(complexId).split("\\|");
+            //.... Parse the link information
+            String[] d = entry.getValue() == null ? new String[0] : entry.getValue().split("\\|");
+            if (d.length < 2) {
+                throw new IllegalArgumentException("Malformed tree link data '" + entry.getValue() + "' for key '" + entry.getKey() + "' (expected 'parentNodeID|parentEmployeeID')");
+            }
             String parentNodeID = d[0];
             String parentEmployeeId = d[1];
 
-            allTreeLinks.put(id, new TreeLink(childNodeID, parentNodeID, parentEmployeeId));
-
+            allChildLinks.computeIfAbsent(parentNodeID, k -> new TreeMap<>()).put(id, new TreeLink(childNodeID, parentNodeID, parentEmployeeId));
         }
 
-        //.... Now strip down the list to the subtree starting with the rootNodeID
-        Set<String> retainIDs = new HashSet<>();
-        recurse(allTreeLinks, retainIDs, rootNodeID);
-        for (String id : retainIDs) {
-            childNodeIDs.add(allTreeLinks.get(id).getChildNodeID());
-            treeLinks.put(id, allTreeLinks.get(id));
-        }
+        //.... Now strip down the links to the subtree starting with the rootNodeID
+        extract(allChildLinks);
 
     }
 
     /**
-     * Recursive analysis to find the subtree information in a grander set - if
-     * such a set has been supplied
+     * Depth-first traversal of the subtree below the root node. Each link is
+     * visited once; the links are recorded when their child node has been
+     * completed, so the links of a node come before the link attaching the
+     * node to its parent (bottom-up order)
      *
-     * @param links
-     * @param retainIDs
-     * @param parentNodeID
+     * @param allChildLinks The links by parent node and ID
      */
-    private void recurse(Map<String, TreeLink> links, Set<String> retainIDs, String parentNodeID) {
-        for (String id : links.keySet()) {
-            TreeLink link = links.get(id);
-            if (link.getParentNodeID().equals(parentNodeID)) {
-                retainIDs.add(id);
-                recurse(links, retainIDs, link.getChildNodeID());
+    private void extract(Map<String, Map<String, TreeLink>> allChildLinks) {
+        Map<String, String> attachedBy = new HashMap<>();
+        List<String> path = new ArrayList<>();
+        Set<String> onPath = new HashSet<>();
+        Deque<Iterator<Map.Entry<String, TreeLink>>> stack = new ArrayDeque<>();
+        Deque<Map.Entry<String, TreeLink>> entries = new ArrayDeque<>();
+
+        path.add(rootNodeID);
+        onPath.add(rootNodeID);
+        stack.push(getChildLinks(allChildLinks, rootNodeID));
+        while (!stack.isEmpty()) {
+            if (stack.peek().hasNext()) {
+                Map.Entry<String, TreeLink> entry = stack.peek().next();
+                TreeLink link = entry.getValue();
+                String childNodeID = link.getChildNodeID();
+                if (onPath.contains(childNodeID)) {
+                    List<String> cycle = new ArrayList<>(path.subList(path.indexOf(childNodeID), path.size()));
+                    cycle.add(childNodeID);
+                    throw new IllegalArgumentException("Cycle in tree link data (link '" + entry.getKey() + "'): " + String.join(" -> ", cycle));
+                }
+                if (attachedBy.containsKey(childNodeID)) {
+                    throw new IllegalArgumentException("Node '" + childNodeID + "' is attached more than once: by link '" + attachedBy.get(childNodeID)
+                            + "' and by link '" + entry.getKey() + "' (" + link.getSummary() + ")");
+                }
+                attachedBy.put(childNodeID, entry.getKey());
+                childLinks.computeIfAbsent(link.getParentNodeID(), k -> new ArrayList<>()).add(link);
+                path.add(childNodeID);
+                onPath.add(childNodeID);
+                entries.push(entry);
+                stack.push(getChildLinks(allChildLinks, childNodeID));
+            } else {
+                stack.pop();
+                onPath.remove(path.remove(path.size() - 1));
+                if (!entries.isEmpty() && stack.size() == entries.size()) {
+                    Map.Entry<String, TreeLink> entry = entries.pop();
+                    childNodeIDs.add(entry.getValue().getChildNodeID());
+                    treeLinks.put(entry.getKey(), entry.getValue());
+                }
             }
         }
     }
 
+    /**
+     * @param allChildLinks
+     * @param parentNodeID
+     * @return
+     */
+    private static Iterator<Map.Entry<String, TreeLink>> getChildLinks(Map<String, Map<String, TreeLink>> allChildLinks, String parentNodeID) {
+        Map<String, TreeLink> links = allChildLinks.get(parentNodeID);
+        return links == null ? Collections.<String, TreeLink>emptyMap().entrySet().iterator() : links.entrySet().iterator();
+    }
+
     /**
      * @return
      */
@@ -91,9 +152,24 @@ public class TreeLinkData {
     }
 
     /**
-     * @return
+     * @return The links of the tree below the root node in bottom-up order:
+     * all links into a node come before the link attaching that node to its
+     * parent
      */
     public Map<String, TreeLink> getLinkData() {
         return treeLinks;
     }
+
+    /**
+     * @param parentNodeID
+     * @return The links attaching nodes to the given node, in the order of
+     * their IDs
+     */
+    public List<TreeLink> getChildLinks(String parentNodeID) {
+        if (parentNodeID == null) {
+            throw new IllegalArgumentException("parentNodeID may not be null");
+        }
+        List<TreeLink> links = childLinks.get(parentNodeID);
+        return links == null ? Collections.emptyList() : Collections.unmodifiableList(links);
+    }
 }
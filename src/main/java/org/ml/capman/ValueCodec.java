@@ -0,0 +1,130 @@
+package org.ml.capman;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The binary encoding of 1D and 2D values shared by snapshots, journals and
+ * mapped employee data: a tag byte for the class of the value, followed by
+ * the value itself. Supported values are String, Integer, Double, Boolean and
+ * Long. How strings are written is up to the format, so they are passed on to
+ * a StringWriter or StringReader
+ *
+ * @author mlaux
+ */
+final class ValueCodec {
+
+    //.... Value tags
+    final static int TAG_STRING = 0;
+    final static int TAG_INTEGER = 1;
+    final static int TAG_DOUBLE = 2;
+    final static int TAG_BOOLEAN = 3;
+    final static int TAG_LONG = 4;
+
+    /**
+     * Writes a string in the way of the format
+     */
+    interface StringWriter {
+
+        /**
+         * @param s
+         * @throws IOException
+         */
+        void writeString(String s) throws IOException;
+    }
+
+    /**
+     * Reads a string in the way of the format
+     */
+    interface StringReader {
+
+        /**
+         * @return
+         * @throws IOException
+         */
+        String readString() throws IOException;
+    }
+
+    /**
+     *
+     */
+    private ValueCodec() {
+    }
+
+    /**
+     * @param value
+     * @return The tag for the class of the value
+     * @throws IllegalArgumentException If values of this class are not
+     * supported
+     */
+    static int getTag(Comparable value) {
+        if (value instanceof String) {
+            return TAG_STRING;
+        } else if (value instanceof Integer) {
+            return TAG_INTEGER;
+        } else if (value instanceof Double) {
+            return TAG_DOUBLE;
+        } else if (value instanceof Boolean) {
+            return TAG_BOOLEAN;
+        } else if (value instanceof Long) {
+            return TAG_LONG;
+        }
+        throw new IllegalArgumentException("Values of " + value.getClass() + " are not supported");
+    }
+
+    /**
+     * Write the tag and the value. Nothing is written if values of this class
+     * are not supported
+     *
+     * @param out
+     * @param value
+     * @param stringWriter
+     * @throws IOException
+     */
+    static void writeValue(DataOutput out, Comparable value, StringWriter stringWriter) throws IOException {
+        int tag = getTag(value);
+        out.writeByte(tag);
+        switch (tag) {
+            case TAG_STRING:
+                stringWriter.writeString((String) value);
+                break;
+            case TAG_INTEGER:
+                out.writeInt((Integer) value);
+                break;
+            case TAG_DOUBLE:
+                out.writeDouble((Double) value);
+                break;
+            case TAG_BOOLEAN:
+                out.writeBoolean((Boolean) value);
+                break;
+            default:
+                out.writeLong((Long) value);
+        }
+    }
+
+    /**
+     * @param in
+     * @param stringReader
+     * @return
+     * @throws IOException If the tag is unknown
+     */
+    static Comparable readValue(DataInput in, StringReader stringReader) throws IOException {
+        int tag = in.readByte();
+        switch (tag) {
+            case TAG_STRING:
+                return stringReader.readString();
+            case TAG_INTEGER:
+                return in.readInt();
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_BOOLEAN:
+                return in.readBoolean();
+            case TAG_LONG:
+                return in.readLong();
+            default:
+                throw new IOException("Unknown value tag " + tag);
+        }
+    }
+
+}
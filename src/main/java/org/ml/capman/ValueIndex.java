@@ -0,0 +1,181 @@
+package org.ml.capman;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An inverted index for one type: for a 1D type each value maps to the
+ * employees having that value, for a 2D type each field maps to the employees
+ * having that field. Employees are given by their position in
+ * EmployeeData.getEmployees() and the positions for each value are in
+ * ascending order, so equality filters and group-bys on a type become lookups,
+ * and filters on several types can be combined with intersect().
+ *
+ * This is a snapshot: changes to the employees after the index has been built
+ * are not reflected.
+ *
+ * @author mlaux
+ */
+public class ValueIndex {
+
+    private final static int[] EMPTY = new int[0];
+
+    private final IType type;
+    private final Map<Comparable, int[]> rows = new TreeMap<>();
+
+    /**
+     * The index for a 1D type, built from the dictionary codes of the column
+     * for the type. Employees without a value for the type are not indexed
+     *
+     * @param type
+     * @param columns
+     */
+    public ValueIndex(IType type, EmployeeColumns columns) {
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        if (columns == null) {
+            throw new NullPointerException("columns may not be null");
+        }
+        this.type = type;
+
+        EmployeeColumns.Column column = columns.getColumn(type);
+        int[] codes = column.getCodes();
+        int[] counts = new int[column.getDictionary().size()];
+        for (int code : codes) {
+            if (code != EmployeeColumns.NO_VALUE) {
+                counts[code]++;
+            }
+        }
+        int[][] r = new int[counts.length][];
+        for (int code = 0; code < counts.length; code++) {
+            r[code] = new int[counts[code]];
+            counts[code] = 0;
+        }
+        for (int i = 0; i < codes.length; i++) {
+            if (codes[i] != EmployeeColumns.NO_VALUE) {
+                r[codes[i]][counts[codes[i]]++] = i;
+            }
+        }
+        for (int code = 0; code < r.length; code++) {
+            rows.put(column.getDictionary().get(code), r[code]);
+        }
+    }
+
+    /**
+     * The index for a 2D type, built from the fields in the factor table for
+     * the type
+     *
+     * @param factorTable
+     */
+    public ValueIndex(FactorTable factorTable) {
+        if (factorTable == null) {
+            throw new NullPointerException("factorTable may not be null");
+        }
+        this.type = factorTable.getType();
+
+        int[] counts = new int[factorTable.getDictionary().size()];
+        for (int row = 0; row < factorTable.size(); row++) {
+            for (int entry = factorTable.getStart(row); entry < factorTable.getEnd(row); entry++) {
+                counts[factorTable.getFieldCode(entry)]++;
+            }
+        }
+        int[][] r = new int[counts.length][];
+        for (int code = 0; code < counts.length; code++) {
+            r[code] = new int[counts[code]];
+            counts[code] = 0;
+        }
+        for (int row = 0; row < factorTable.size(); row++) {
+            for (int entry = factorTable.getStart(row); entry < factorTable.getEnd(row); entry++) {
+                int code = factorTable.getFieldCode(entry);
+                r[code][counts[code]++] = row;
+            }
+        }
+        for (int code = 0; code < r.length; code++) {
+            rows.put(factorTable.getDictionary().get(code), r[code]);
+        }
+    }
+
+    /**
+     * @return
+     */
+    public IType getType() {
+        return type;
+    }
+
+    /**
+     * @return The distinct values (for 2D types: fields) in their natural
+     * order
+     */
+    public Set<Comparable> getValues() {
+        return Collections.unmodifiableSet(rows.keySet());
+    }
+
+    /**
+     * @param value
+     * @return
+     */
+    public boolean contains(Comparable value) {
+        if (value == null) {
+            throw new NullPointerException("value may not be null");
+        }
+        return rows.containsKey(value);
+    }
+
+    /**
+     * @param value
+     * @return The positions of the employees with the given value (for 2D
+     * types: field) in ascending order, or an empty array if there are none.
+     * The array is returned as is and must not be modified
+     */
+    public int[] getRows(Comparable value) {
+        if (value == null) {
+            throw new NullPointerException("value may not be null");
+        }
+        int[] r = rows.get(value);
+        return r == null ? EMPTY : r;
+    }
+
+    /**
+     * @param value
+     * @return The number of employees with the given value
+     */
+    public int getCount(Comparable value) {
+        return getRows(value).length;
+    }
+
+    /**
+     * @param rows1
+     * @param rows2
+     * @return The positions contained in both of the given arrays, both in
+     * ascending order
+     */
+    public static int[] intersect(int[] rows1, int[] rows2) {
+        if (rows1 == null) {
+            throw new NullPointerException("rows1 may not be null");
+        }
+        if (rows2 == null) {
+            throw new NullPointerException("rows2 may not be null");
+        }
+        int[] result = new int[Math.min(rows1.length, rows2.length)];
+        int n = 0;
+        int i1 = 0;
+        int i2 = 0;
+        while (i1 < rows1.length && i2 < rows2.length) {
+            if (rows1[i1] < rows2[i2]) {
+                i1++;
+            } else if (rows1[i1] > rows2[i2]) {
+                i2++;
+            } else {
+                result[n++] = rows1[i1];
+                i1++;
+                i2++;
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+}
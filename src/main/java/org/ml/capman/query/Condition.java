@@ -0,0 +1,367 @@
+package org.ml.capman.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.ml.capman.Employee;
+import org.ml.capman.EmployeeBitmap;
+import org.ml.capman.EmployeeData;
+import org.ml.capman.IType;
+import org.ml.capman.ValueIndex;
+
+/**
+ * A filter condition on employees for a Query. Conditions on type values are
+ * evaluated on the value indexes and bitmaps of the EmployeeData instance
+ * (see EmployeeData.getValueIndex() and EmployeeData.getBitmap()), value
+ * predicates are evaluated once per distinct value rather than once per
+ * employee. Only conditions on the Employee objects themselves (see
+ * employee()) need to look at each candidate employee; within and() these are
+ * evaluated last, on the employees left over by the indexed conditions.
+ *
+ * @author mlaux
+ */
+public abstract class Condition {
+
+    /**
+     * @return true if the condition can be evaluated without looking at the
+     * individual employees
+     */
+    public abstract boolean isIndexed();
+
+    /**
+     * @param employeeData
+     * @param candidates The employees to check
+     * @return The employees from the candidates for which the condition holds
+     */
+    abstract EmployeeBitmap evaluate(EmployeeData<Employee> employeeData, EmployeeBitmap candidates);
+
+    /**
+     * @return A condition true for all employees
+     */
+    public static Condition all() {
+        return new Condition() {
+            @Override
+            public boolean isIndexed() {
+                return true;
+            }
+
+            @Override
+            EmployeeBitmap evaluate(EmployeeData<Employee> employeeData, EmployeeBitmap candidates) {
+                return candidates;
+            }
+
+            @Override
+            public String toString() {
+                return "all";
+            }
+        };
+    }
+
+    /**
+     * @param type
+     * @param value The value (for 2D types: the field) to select
+     * @return A condition true for employees with the given value (for 2D
+     * types: with the given field)
+     */
+    public static Condition equal(IType type, Comparable value) {
+        if (value == null) {
+            throw new NullPointerException("value may not be null");
+        }
+        return in(type, value);
+    }
+
+    /**
+     * @param type
+     * @param values
+     * @return A condition true for employees with one of the given values (for
+     * 2D types: with at least one of the given fields)
+     */
+    public static Condition in(IType type, Comparable... values) {
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        if (values == null) {
+            throw new NullPointerException("values may not be null");
+        }
+        List<Comparable> v = new ArrayList<>(Arrays.asList(values));
+        if (v.contains(null)) {
+            throw new NullPointerException("value may not be null");
+        }
+        return new ValueCondition(type, Collections.unmodifiableList(v), null);
+    }
+
+    /**
+     * @param type
+     * @param predicate
+     * @return A condition true for employees whose value matches the
+     * predicate (for 2D types: with at least one matching field). The
+     * predicate is called once per distinct value
+     */
+    public static Condition matches(IType type, Predicate<Comparable> predicate) {
+        if (type == null) {
+            throw new NullPointerException("type may not be null");
+        }
+        if (predicate == null) {
+            throw new NullPointerException("predicate may not be null");
+        }
+        return new ValueCondition(type, null, predicate);
+    }
+
+    /**
+     * @param manager
+     * @return A condition true for all direct and indirect reports of the
+     * manager, see EmployeeData.getOrganisationBitmap()
+     */
+    public static Condition inOrganisation(Employee manager) {
+        if (manager == null) {
+            throw new NullPointerException("manager may not be null");
+        }
+        return new Condition() {
+            @Override
+            public boolean isIndexed() {
+                return true;
+            }
+
+            @Override
+            EmployeeBitmap evaluate(EmployeeData<Employee> employeeData, EmployeeBitmap candidates) {
+                return candidates.and(employeeData.getOrganisationBitmap(manager));
+            }
+
+            @Override
+            public String toString() {
+                return "organisation of " + manager.getID();
+            }
+        };
+    }
+
+    /**
+     * @param predicate
+     * @return A condition evaluated on each candidate employee
+     */
+    public static Condition employee(Predicate<? super Employee> predicate) {
+        if (predicate == null) {
+            throw new NullPointerException("predicate may not be null");
+        }
+        return new Condition() {
+            @Override
+            public boolean isIndexed() {
+                return false;
+            }
+
+            @Override
+            EmployeeBitmap evaluate(EmployeeData<Employee> employeeData, EmployeeBitmap candidates) {
+                List<? extends Employee> employees = employeeData.getEmployees();
+                int[] rows = candidates.toArray();
+                int n = 0;
+                for (int row : rows) {
+                    if (predicate.test(employees.get(row))) {
+                        rows[n++] = row;
+                    }
+                }
+                return EmployeeBitmap.of(Arrays.copyOf(rows, n));
+            }
+
+            @Override
+            public String toString() {
+                return "employee predicate";
+            }
+        };
+    }
+
+    /**
+     * @param conditions
+     * @return A condition true if all given conditions are
+     */
+    public static Condition and(Condition... conditions) {
+        List<Condition> c = check(conditions);
+
+        //.... Indexed conditions first, so the others only see what is left
+        List<Condition> ordered = new ArrayList<>();
+        for (Condition condition : c) {
+            if (condition.isIndexed()) {
+                ordered.add(condition);
+            }
+        }
+        for (Condition condition : c) {
+            if (!condition.isIndexed()) {
+                ordered.add(condition);
+            }
+        }
+        return new Condition() {
+            @Override
+            public boolean isIndexed() {
+                return ordered.isEmpty() || ordered.get(ordered.size() - 1).isIndexed();
+            }
+
+            @Override
+            EmployeeBitmap evaluate(EmployeeData<Employee> employeeData, EmployeeBitmap candidates) {
+                for (Condition condition : ordered) {
+                    if (candidates.isEmpty()) {
+                        break;
+                    }
+                    candidates = condition.evaluate(employeeData, candidates);
+                }
+                return candidates;
+            }
+
+            @Override
+            public String toString() {
+                return join(ordered, " and ");
+            }
+        };
+    }
+
+    /**
+     * @param conditions
+     * @return A condition true if at least one of the given conditions is
+     */
+    public static Condition or(Condition... conditions) {
+        List<Condition> c = check(conditions);
+        return new Condition() {
+            @Override
+            public boolean isIndexed() {
+                for (Condition condition : c) {
+                    if (!condition.isIndexed()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            EmployeeBitmap evaluate(EmployeeData<Employee> employeeData, EmployeeBitmap candidates) {
+                EmployeeBitmap result = EmployeeBitmap.EMPTY;
+                for (Condition condition : c) {
+
+                    //.... Employees already selected need not be checked again
+                    result = result.or(condition.evaluate(employeeData, candidates.andNot(result)));
+                }
+                return result;
+            }
+
+            @Override
+            public String toString() {
+                return join(c, " or ");
+            }
+        };
+    }
+
+    /**
+     * @param condition
+     * @return A condition true if the given condition is not
+     */
+    public static Condition not(Condition condition) {
+        if (condition == null) {
+            throw new NullPointerException("condition may not be null");
+        }
+        return new Condition() {
+            @Override
+            public boolean isIndexed() {
+                return condition.isIndexed();
+            }
+
+            @Override
+            EmployeeBitmap evaluate(EmployeeData<Employee> employeeData, EmployeeBitmap candidates) {
+                return candidates.andNot(condition.evaluate(employeeData, candidates));
+            }
+
+            @Override
+            public String toString() {
+                return "not (" + condition + ")";
+            }
+        };
+    }
+
+    /**
+     * @param conditions
+     * @return
+     */
+    private static List<Condition> check(Condition... conditions) {
+        if (conditions == null) {
+            throw new NullPointerException("conditions may not be null");
+        }
+        List<Condition> c = new ArrayList<>();
+        for (Condition condition : conditions) {
+            if (condition == null) {
+                throw new NullPointerException("condition may not be null");
+            }
+            c.add(condition);
+        }
+        return c;
+    }
+
+    /**
+     * @param conditions
+     * @param separator
+     * @return
+     */
+    private static String join(List<Condition> conditions, String separator) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < conditions.size(); i++) {
+            if (i > 0) {
+                sb.append(separator);
+            }
+            sb.append(conditions.get(i));
+        }
+        return sb.append(")").toString();
+    }
+
+    /**
+     * Equality or a value predicate on one type, evaluated on the value index
+     * for the type
+     */
+    private static class ValueCondition extends Condition {
+
+        private final IType type;
+        private final List<Comparable> values;
+        private final Predicate<Comparable> predicate;
+
+        /**
+         * @param type
+         * @param values The values to select, or null if the predicate is used
+         * @param predicate
+         */
+        private ValueCondition(IType type, List<Comparable> values, Predicate<Comparable> predicate) {
+            this.type = type;
+            this.values = values;
+            this.predicate = predicate;
+        }
+
+        @Override
+        public boolean isIndexed() {
+            return true;
+        }
+
+        @Override
+        EmployeeBitmap evaluate(EmployeeData<Employee> employeeData, EmployeeBitmap candidates) {
+            List<Comparable> selected = values;
+            if (selected == null) {
+                ValueIndex valueIndex = employeeData.getValueIndex(type);
+                selected = new ArrayList<>();
+                for (Comparable value : valueIndex.getValues()) {
+                    if (predicate.test(value)) {
+                        selected.add(value);
+                    }
+                }
+            }
+            EmployeeBitmap result = EmployeeBitmap.EMPTY;
+            for (Comparable value : selected) {
+                result = result.or(employeeData.getBitmap(type, value));
+            }
+            return candidates.and(result);
+        }
+
+        @Override
+        public String toString() {
+            String s = type.getTypeName() + " (" + type.getTypeDimension() + ")";
+            if (values == null) {
+                return s + " matches predicate";
+            }
+            return values.size() == 1 ? s + " = " + values.get(0) : s + " in " + values;
+        }
+    }
+
+}
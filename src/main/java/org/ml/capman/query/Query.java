@@ -0,0 +1,377 @@
+package org.ml.capman.query;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.ml.capman.CapacityMatrix;
+import org.ml.capman.CapacitySummaryData;
+import org.ml.capman.Employee;
+import org.ml.capman.EmployeeBitmap;
+import org.ml.capman.EmployeeCapacity.CapacityType;
+import org.ml.capman.EmployeeColumns;
+import org.ml.capman.EmployeeData;
+import org.ml.capman.FactorTable;
+import org.ml.capman.IType;
+
+/**
+ * A filter / group-by query on an EmployeeData instance, summing up the
+ * capacity per group. Queries are executed in two phases:
+ *
+ * - the condition is evaluated to a bitmap of the selected employees, using
+ * the value indexes and bitmaps of the employee data (see Condition)
+ * - the selected employees are grouped on the dictionary-encoded columns (1D
+ * types) and factor tables (2D types) of the employee data and summed up on
+ * the capacity matrix, so the Employee objects are not touched. With a pool
+ * and enough selected employees this runs in parallel
+ *
+ * Example: the capacity by country for all vacancies in an organisation
+ *
+ * new Query().where(Condition.equal(vacancy, true),
+ * Condition.inOrganisation(manager)).groupBy(country).execute(employeeData)
+ *
+ * @author mlaux
+ */
+public class Query {
+
+    private final static int PARALLEL_THRESHOLD = 1024;
+
+    private final List<Condition> conditions = new ArrayList<>();
+    private final List<IType> groupBy = new ArrayList<>();
+
+    /**
+     * Restrict the query to employees for which all given conditions hold
+     *
+     * @param conditions
+     * @return
+     */
+    public Query where(Condition... conditions) {
+        for (Condition condition : conditions) {
+            if (condition == null) {
+                throw new NullPointerException("condition may not be null");
+            }
+            this.conditions.add(condition);
+        }
+        return this;
+    }
+
+    /**
+     * @return The combined condition of this query
+     */
+    public Condition getCondition() {
+        if (conditions.isEmpty()) {
+            return Condition.all();
+        }
+        return conditions.size() == 1 ? conditions.get(0) : Condition.and(conditions.toArray(new Condition[conditions.size()]));
+    }
+
+    /**
+     * Group the results by the given types, in addition to the ones already
+     * set
+     *
+     * @param types
+     * @return
+     */
+    public Query groupBy(IType... types) {
+        for (IType type : types) {
+            if (type == null) {
+                throw new NullPointerException("type may not be null");
+            }
+            groupBy.add(type);
+        }
+        return this;
+    }
+
+    /**
+     * @param employeeData
+     * @return The employees selected by the condition of this query
+     */
+    public EmployeeBitmap select(EmployeeData<Employee> employeeData) {
+        if (employeeData == null) {
+            throw new NullPointerException("employeeData may not be null");
+        }
+        return getCondition().evaluate(employeeData, EmployeeBitmap.range(0, employeeData.getEmployees().size()));
+    }
+
+    /**
+     * @param employeeData
+     * @return
+     */
+    public QueryResult execute(EmployeeData<Employee> employeeData) {
+        return execute(employeeData, null);
+    }
+
+    /**
+     * @param employeeData
+     * @param pool The pool for the grouping phase or null to run it
+     * sequentially. Apart from the summation order of the capacity values the
+     * result is the same
+     * @return
+     */
+    public QueryResult execute(EmployeeData<Employee> employeeData, ForkJoinPool pool) {
+        EmployeeBitmap employees = select(employeeData);
+        Grouping grouping = new Grouping(employeeData, groupBy);
+        int[] rows = employees.toArray();
+
+        Partial partial;
+        if (pool != null && rows.length > PARALLEL_THRESHOLD) {
+            partial = pool.invoke(new GroupingTask(grouping, rows, 0, rows.length));
+        } else {
+            partial = grouping.apply(rows, 0, rows.length);
+        }
+
+        QueryResult result = new QueryResult(new ArrayList<>(groupBy), employees);
+        for (Long key : partial.groups.keySet()) {
+            result.put(grouping.decode(key), partial.groups.get(key));
+        }
+        result.setTotal(partial.total);
+        return result;
+    }
+
+    /**
+     * Summarise the selected employees for one type, for the consumers of
+     * CapacitySummaryData like the reporting steps
+     *
+     * @param type
+     * @param employeeData
+     * @return
+     */
+    public CapacitySummaryData summarise(IType type, EmployeeData<Employee> employeeData) {
+        return new CapacitySummaryData(type, employeeData, select(employeeData));
+    }
+
+    /**
+     * @param employeeData
+     * @return A description of how this query is executed on the given
+     * employee data
+     */
+    public String explain(EmployeeData<Employee> employeeData) {
+        Condition condition = getCondition();
+        EmployeeBitmap employees = select(employeeData);
+        StringBuilder sb = new StringBuilder();
+        sb.append("Filter: ").append(condition).append(condition.isIndexed() ? " [indexes only]" : " [indexes, then scan of remaining candidates]").append("\n");
+        sb.append("Selected: ").append(employees.cardinality()).append(" of ").append(employeeData.getEmployees().size()).append(" employees\n");
+        sb.append("Group by:");
+        if (groupBy.isEmpty()) {
+            sb.append(" -");
+        }
+        for (IType type : groupBy) {
+            switch (type.getTypeDimension()) {
+                case One:
+                    sb.append(" ").append(type.getTypeName()).append(" [column]");
+                    break;
+                case Two:
+                    sb.append(" ").append(type.getTypeName()).append(" [factor table]");
+            }
+        }
+        sb.append("\nAggregation: capacity matrix, ").append(employees.cardinality() > PARALLEL_THRESHOLD ? "parallel if a pool is given" : "sequential");
+        return sb.toString();
+    }
+
+    /**
+     * @return
+     */
+    @Override
+    public String toString() {
+        return "Query{where " + getCondition() + ", group by " + groupBy + "}";
+    }
+
+    /**
+     * The sums and counts per group for a range of employees, the group keys
+     * encoded as in Grouping
+     */
+    private static class Partial {
+
+        private final Map<Long, double[]> groups = new HashMap<>();
+        private final double[] total = new double[CapacityType.values().length + 1];
+
+        /**
+         * Add the sums of another partial result to this one
+         *
+         * @param other
+         */
+        private void merge(Partial other) {
+            for (Long key : other.groups.keySet()) {
+                double[] sums = groups.get(key);
+                if (sums == null) {
+                    groups.put(key, other.groups.get(key));
+                } else {
+                    double[] otherSums = other.groups.get(key);
+                    for (int c = 0; c < sums.length; c++) {
+                        sums[c] += otherSums[c];
+                    }
+                }
+            }
+            for (int c = 0; c < total.length; c++) {
+                total[c] += other.total[c];
+            }
+        }
+    }
+
+    /**
+     * The group-by types as dictionary codes. A group key is encoded in a
+     * single long, with the code for each type as one digit in a mixed radix
+     * system based on the dictionary sizes
+     */
+    private static class Grouping {
+
+        private final int[][] codes;
+        private final FactorTable[] factorTables;
+        private final List<? extends Comparable>[] dictionaries;
+        private final long[] radix;
+        private final double[][] capacity;
+
+        /**
+         * @param employeeData
+         * @param groupBy
+         */
+        @SuppressWarnings("unchecked")
+        private Grouping(EmployeeData<Employee> employeeData, List<IType> groupBy) {
+            int n = groupBy.size();
+            codes = new int[n][];
+            factorTables = new FactorTable[n];
+            dictionaries = new List[n];
+            radix = new long[n];
+
+            EmployeeColumns columns = employeeData.getColumns();
+            long r = 1L;
+            for (int i = 0; i < n; i++) {
+                IType type = groupBy.get(i);
+                switch (type.getTypeDimension()) {
+                    case One:
+                        EmployeeColumns.Column column = columns.getColumn(type);
+                        codes[i] = column.getCodes();
+                        dictionaries[i] = column.getDictionary();
+                        break;
+                    case Two:
+                        factorTables[i] = employeeData.getFactorTable(type);
+                        dictionaries[i] = factorTables[i].getDictionary();
+                }
+                radix[i] = r;
+                try {
+                    r = Math.multiplyExact(r, Math.max(1, dictionaries[i].size()));
+                } catch (ArithmeticException ex) {
+                    throw new IllegalArgumentException("Too many value combinations for the group-by types " + groupBy);
+                }
+            }
+
+            CapacityMatrix capacityMatrix = employeeData.getCapacityMatrix();
+            capacity = new double[CapacityType.values().length][];
+            for (CapacityType capacityType : CapacityType.values()) {
+                capacity[capacityType.ordinal()] = capacityMatrix.get(capacityType);
+            }
+        }
+
+        /**
+         * @param rows
+         * @param from
+         * @param to
+         * @return The sums for the employees at rows[from] ... rows[to - 1]
+         */
+        private Partial apply(int[] rows, int from, int to) {
+            Partial partial = new Partial();
+            for (int i = from; i < to; i++) {
+                add(partial, rows[i], 0, 0L, 1.0d);
+            }
+            return partial;
+        }
+
+        /**
+         * Add the contribution of one employee, one group-by type after the
+         * other; 2D types branch out into one group per field
+         *
+         * @param partial
+         * @param row
+         * @param i The group-by type to handle
+         * @param key The key so far
+         * @param factor The product of the percentage factors so far
+         */
+        private void add(Partial partial, int row, int i, long key, double factor) {
+            if (i == codes.length) {
+                double[] sums = partial.groups.get(key);
+                if (sums == null) {
+                    sums = new double[capacity.length + 1];
+                    partial.groups.put(key, sums);
+                }
+                for (int c = 0; c < capacity.length; c++) {
+                    double value = factor * capacity[c][row];
+                    sums[c] += value;
+                    partial.total[c] += value;
+                }
+                sums[capacity.length]++;
+                partial.total[capacity.length]++;
+                return;
+            }
+            if (codes[i] != null) {
+
+                //.... Employees without a value for a 1D group-by type are left out
+                int code = codes[i][row];
+                if (code != EmployeeColumns.NO_VALUE) {
+                    add(partial, row, i + 1, key + code * radix[i], factor);
+                }
+            } else {
+                FactorTable factorTable = factorTables[i];
+                for (int entry = factorTable.getStart(row); entry < factorTable.getEnd(row); entry++) {
+                    add(partial, row, i + 1, key + factorTable.getFieldCode(entry) * radix[i], factor * factorTable.getFactor(entry));
+                }
+            }
+        }
+
+        /**
+         * @param key
+         * @return The values for the group-by types
+         */
+        private List<Comparable> decode(long key) {
+            List<Comparable> values = new ArrayList<>(radix.length);
+            for (int i = 0; i < radix.length; i++) {
+                int size = Math.max(1, dictionaries[i].size());
+                values.add(dictionaries[i].get((int) ((key / radix[i]) % size)));
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Fork/join task for the grouping phase, merging the partial results in
+     * employee order
+     */
+    private static class GroupingTask extends RecursiveTask<Partial> {
+
+        private static final long serialVersionUID = 1L;
+        private final Grouping grouping;
+        private final int[] rows;
+        private final int from;
+        private final int to;
+
+        /**
+         * @param grouping
+         * @param rows
+         * @param from
+         * @param to
+         */
+        private GroupingTask(Grouping grouping, int[] rows, int from, int to) {
+            this.grouping = grouping;
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Partial compute() {
+            if (to - from <= PARALLEL_THRESHOLD) {
+                return grouping.apply(rows, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            GroupingTask left = new GroupingTask(grouping, rows, from, middle);
+            GroupingTask right = new GroupingTask(grouping, rows, middle, to);
+            right.fork();
+            Partial result = left.compute();
+            result.merge(right.join());
+            return result;
+        }
+    }
+
+}
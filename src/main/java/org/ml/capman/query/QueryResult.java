@@ -0,0 +1,160 @@
+package org.ml.capman.query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.ml.capman.EmployeeBitmap;
+import org.ml.capman.EmployeeCapacity.CapacityType;
+import org.ml.capman.IType;
+
+/**
+ * The result of a Query: the capacity sums and counts per group, in the same
+ * form as in CapacitySummaryData. A group is given by its key, the list of the
+ * values for the group-by types in the order of the types. Without group-by
+ * types there is one group with the empty list as key.
+ *
+ * As for CapacitySummaryData, the capacity of an employee is split across the
+ * fields of a 2D group-by type by the percentage factors, and each field
+ * counts once in the counts.
+ *
+ * @author mlaux
+ */
+public class QueryResult {
+
+    private final static Comparator<List<Comparable>> KEY_COMPARATOR = (key1, key2) -> {
+        for (int i = 0; i < Math.min(key1.size(), key2.size()); i++) {
+            int c = key1.get(i).compareTo(key2.get(i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(key1.size(), key2.size());
+    };
+
+    private final List<IType> groupBy;
+    private final EmployeeBitmap employees;
+    private final Map<List<Comparable>, Map<CapacityType, Double>> data = new TreeMap<>(KEY_COMPARATOR);
+    private final Map<List<Comparable>, Integer> count = new HashMap<>();
+    private final Map<CapacityType, Double> totalData = new EnumMap<>(CapacityType.class);
+    private int totalCount = 0;
+
+    /**
+     * @param groupBy
+     * @param employees
+     */
+    QueryResult(List<IType> groupBy, EmployeeBitmap employees) {
+        this.groupBy = Collections.unmodifiableList(groupBy);
+        this.employees = employees;
+        for (CapacityType capacityType : CapacityType.values()) {
+            totalData.put(capacityType, 0.0d);
+        }
+    }
+
+    /**
+     * @param key
+     * @param sums The capacity sums by CapacityType ordinal, followed by the
+     * count
+     */
+    void put(List<Comparable> key, double[] sums) {
+        CapacityType[] capacityTypes = CapacityType.values();
+        Map<CapacityType, Double> d = new EnumMap<>(CapacityType.class);
+        for (CapacityType capacityType : capacityTypes) {
+            d.put(capacityType, sums[capacityType.ordinal()]);
+        }
+        data.put(Collections.unmodifiableList(key), d);
+        count.put(key, (int) sums[capacityTypes.length]);
+    }
+
+    /**
+     * @param sums The capacity sums by CapacityType ordinal, followed by the
+     * count
+     */
+    void setTotal(double[] sums) {
+        CapacityType[] capacityTypes = CapacityType.values();
+        for (CapacityType capacityType : capacityTypes) {
+            totalData.put(capacityType, sums[capacityType.ordinal()]);
+        }
+        totalCount = (int) sums[capacityTypes.length];
+    }
+
+    /**
+     * @return The group-by types, in the order of the values in the keys
+     */
+    public List<IType> getGroupBy() {
+        return groupBy;
+    }
+
+    /**
+     * @return The employees selected by the condition of the query
+     */
+    public EmployeeBitmap getEmployees() {
+        return employees;
+    }
+
+    /**
+     * @return The sums per group, ordered by key
+     */
+    public Map<List<Comparable>, Map<CapacityType, Double>> get() {
+        return Collections.unmodifiableMap(data);
+    }
+
+    /**
+     * @param key The values for the group-by types
+     * @return The sums for the group or null if there is no such group
+     */
+    public Map<CapacityType, Double> get(Comparable... key) {
+        if (key == null) {
+            throw new NullPointerException("key may not be null");
+        }
+        return data.get(Arrays.asList(key));
+    }
+
+    /**
+     * @return
+     */
+    public Map<CapacityType, Double> getTotal() {
+        return Collections.unmodifiableMap(totalData);
+    }
+
+    /**
+     * @param key The values for the group-by types
+     * @return The sums for the group relative to the total, or null if there
+     * is no such group
+     */
+    public Map<CapacityType, Double> getPercent(Comparable... key) {
+        Map<CapacityType, Double> d = get(key);
+        if (d == null) {
+            return null;
+        }
+        Map<CapacityType, Double> percent = new EnumMap<>(CapacityType.class);
+        for (CapacityType capacityType : CapacityType.values()) {
+            percent.put(capacityType, d.get(capacityType) / totalData.get(capacityType));
+        }
+        return percent;
+    }
+
+    /**
+     * @param key The values for the group-by types
+     * @return The count for the group or null if there is no such group
+     */
+    public Integer getCount(Comparable... key) {
+        if (key == null) {
+            throw new NullPointerException("key may not be null");
+        }
+        return count.get(Arrays.asList(key));
+    }
+
+    /**
+     * @return
+     */
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+}
@@ -48,6 +48,7 @@ public abstract class AbstractDirectTableDataStep extends AbstractDirectProcessS
     protected Comparator<Employee> comparator;
     protected DataConfiguration dataConfiguration = DataConfiguration.getInstance();
     protected List<IType> outputTypes = new ArrayList<>();
+    private Map<String, TableData> tableData = null;
 
     /**
      *
@@ -91,6 +92,30 @@ public abstract class AbstractDirectTableDataStep extends AbstractDirectProcessS
         return setDescription;
     }
 
+    /**
+     * @return The output data created when this step was run by a
+     * ReportingStepScheduler, or the output data cache otherwise
+     */
+    public Map<String, TableData> getTableData() {
+        if (tableData != null) {
+            return tableData;
+        }
+        return getOutputDataCache();
+    }
+
+    /**
+     * Keep the output data created outside the process framework, see
+     * ReportingStepScheduler
+     *
+     * @param tableData
+     */
+    void setTableData(Map<String, TableData> tableData) {
+        if (tableData == null) {
+            throw new NullPointerException("tableData may not be null");
+        }
+        this.tableData = tableData;
+    }
+
     /**
      * @param type
      * @return
@@ -1,10 +1,17 @@
 package org.ml.capman.reporting;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.ml.capman.Constraint;
 
 import org.ml.tools.logging.LoggerFactory;
 import org.ml.capman.Employee;
@@ -14,12 +21,21 @@ import org.ml.capman.TreeLinkData;
 import org.ml.pf.step.AbstractTransferProcessStep;
 
 /**
+ * Assembles the employee data of several nodes into one tree along the links
+ * of a TreeLinkData instance. The tree is assembled bottom-up: the employee
+ * data of a node is completed with all nodes linked into it before it is
+ * linked into its own parent node. If a pool is given, subtrees below
+ * different nodes are assembled in parallel. This requires that the nodes do
+ * not share Employee instances, which is checked up front; if they do, the
+ * tree is assembled sequentially.
+ *
  * @author mlaux
  */
 public class EmployeeDataAssembleStep extends AbstractTransferProcessStep<Map<String, EmployeeData<Employee>>, EmployeeData<Employee>> {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(EmployeeDataAssembleStep.class.getName());
     private TreeLinkData treeLinkData;
+    private ForkJoinPool pool = null;
 
     /**
      * @param id
@@ -44,6 +60,19 @@ public class EmployeeDataAssembleStep extends AbstractTransferProcessStep<Map<St
         this.treeLinkData = treeLinkData;
     }
 
+    /**
+     * @param id
+     * @param treeLinkData
+     * @param pool The pool to assemble independent subtrees on in parallel
+     */
+    public EmployeeDataAssembleStep(String id, TreeLinkData treeLinkData, ForkJoinPool pool) {
+        this(id, treeLinkData);
+        if (pool == null) {
+            throw new NullPointerException("pool may not be null");
+        }
+        this.pool = pool;
+    }
+
     /**
      * @param employeeDataMap
      * @return
@@ -68,61 +97,33 @@ public class EmployeeDataAssembleStep extends AbstractTransferProcessStep<Map<St
 
             LOGGER.log(Level.INFO, "Starting tree assembly");
 
-            //.... Evaluate and treat all links (a tree needs to be linked into another tree)
+            //.... Check all nodes up front, so a missing node does not leave the tree half assembled
             String rootNodeID = treeLinkData.getRootNodeID();
-            Map<String, String> linkedParentNodes = new HashMap<>();
-            for (String id : treeLinkData.getLinkData().keySet()) {
-
-                TreeLink treeLink = treeLinkData.getLinkData().get(id);
-                LOGGER.log(Level.INFO, "Working on treeLink: ''{0}''", treeLink.getSummary());
-
-                String childNodeID = treeLink.getChildNodeID();
-                String parentNodeID = treeLink.getParentNodeID();
-                String parentEmployeeId = treeLink.getParentEmployeeID();
-
-                if (!employeeDataMap.containsKey(childNodeID)) {
-                    throw new IllegalArgumentException("Unknown child node ID: " + childNodeID);
-                }
-                if (!employeeDataMap.containsKey(parentNodeID)) {
-                    throw new IllegalArgumentException("Unknown parent node ID: " + parentNodeID);
-                }
-                if (linkedParentNodes.containsKey(parentNodeID)) {
-                    throw new UnsupportedOperationException("Severe problem: the data pulled in by node '" + childNodeID + "' is supposed to hook into '" + parentNodeID + "' which was already hooked into the tree as child of '" + linkedParentNodes.get(parentNodeID) + "' - this leads to an incomplete tree");
-                }
-
-                //.... Now link the two together
-                LOGGER.log(Level.INFO, "Linking child data for node ID {0} into {1} (employee {2})", new Object[]{childNodeID, parentNodeID, parentEmployeeId});
-                EmployeeData<Employee> parentEmployeeData = employeeDataMap.get(parentNodeID);
-                if (parentEmployeeData.getEmployee(parentEmployeeId) == null) {
-                    throw new IllegalArgumentException("Parent employee ID not found: " + parentEmployeeId + " in parent node " + parentNodeID);
+            for (TreeLink treeLink : treeLinkData.getLinkData().values()) {
+                if (!employeeDataMap.containsKey(treeLink.getChildNodeID())) {
+                    throw new IllegalArgumentException("Unknown child node ID: " + treeLink.getChildNodeID());
                 }
-                linkedParentNodes.put(childNodeID, parentNodeID);
-
-                //.... Hook the root employee of the child into the desired parent employee
-                Employee newParent = parentEmployeeData.getEmployee(parentEmployeeId);
-                EmployeeData<Employee> childEmployeeData = employeeDataMap.get(childNodeID);
-                childEmployeeData.getRootEmployee().setManager(newParent);
-                newParent.addEmployee(childEmployeeData.getRootEmployee());
-
-                //.... Copy over all child employees to the parent as well
-                for (Employee employee : childEmployeeData.getEmployees()) {
-                    //.... If the employee is already in there, chances are we're looking at caching importers
-                    if (parentEmployeeData.getEmployee(employee.getID()) != null) {
-                        LOGGER.log(Level.INFO, "Skipping copy process to parent tree for employee: {0}", employee.getID());
-                        continue;
-                    }
-                    LOGGER.log(Level.INFO, "Copying employee to parent tree: {0} (parent importer ID: {1})", new Object[]{employee.getID(), parentNodeID});
-                    parentEmployeeData.addEmployee(employee);
+                if (!employeeDataMap.containsKey(treeLink.getParentNodeID())) {
+                    throw new IllegalArgumentException("Unknown parent node ID: " + treeLink.getParentNodeID());
                 }
-
-                //.... Merge constraints
-                parentEmployeeData.mergeConstraintHandler(childEmployeeData.getConstraintHandler());
             }
-
             if (!employeeDataMap.containsKey(rootNodeID)) {
                 throw new IllegalArgumentException("Unknown root node ID: " + rootNodeID);
             }
 
+            //.... Link all subtrees bottom-up
+            AtomicInteger copied = new AtomicInteger();
+            AtomicInteger skipped = new AtomicInteger();
+            if (pool == null || !isDisjoint(employeeDataMap)) {
+                for (TreeLink treeLink : treeLinkData.getLinkData().values()) {
+                    link(treeLink, employeeDataMap, copied, skipped);
+                }
+            } else {
+                pool.invoke(new LinkTask(rootNodeID, employeeDataMap, copied, skipped));
+            }
+            LOGGER.log(Level.INFO, "Linked {0} nodes: {1} employees copied to parent trees, {2} skipped as already present",
+                    new Object[]{treeLinkData.getLinkData().size(), copied.get(), skipped.get()});
+
             LOGGER.log(Level.INFO, "Finished tree assembly for root node {0}", rootNodeID);
 
             output = employeeDataMap.get(rootNodeID);
@@ -148,4 +149,111 @@ public class EmployeeDataAssembleStep extends AbstractTransferProcessStep<Map<St
         return output;
     }
 
+    /**
+     * Parallel linking changes the employees of sibling subtrees concurrently,
+     * which is only safe if no Employee instance is part of more than one
+     * node
+     *
+     * @param employeeDataMap
+     * @return True if all employees of the nodes in the tree are distinct
+     * instances
+     */
+    private boolean isDisjoint(Map<String, EmployeeData<Employee>> employeeDataMap) {
+        Set<String> nodeIDs = new LinkedHashSet<>();
+        nodeIDs.add(treeLinkData.getRootNodeID());
+        for (TreeLink treeLink : treeLinkData.getLinkData().values()) {
+            nodeIDs.add(treeLink.getChildNodeID());
+            nodeIDs.add(treeLink.getParentNodeID());
+        }
+        Set<Employee> employees = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (String nodeID : nodeIDs) {
+            for (Employee employee : employeeDataMap.get(nodeID).getEmployees()) {
+                if (!employees.add(employee)) {
+                    LOGGER.log(Level.WARNING, "Employee {0} in node {1} is also part of another node - assembling the tree sequentially",
+                            new Object[]{employee.getID(), nodeID});
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Link the employee data of the child node of a link into its parent
+     * node. All links into the child node have to be done before
+     *
+     * @param treeLink
+     * @param employeeDataMap
+     * @param copied
+     * @param skipped
+     */
+    private static void link(TreeLink treeLink, Map<String, EmployeeData<Employee>> employeeDataMap, AtomicInteger copied, AtomicInteger skipped) {
+        EmployeeData<Employee> parentEmployeeData = employeeDataMap.get(treeLink.getParentNodeID());
+        EmployeeData<Employee> childEmployeeData = employeeDataMap.get(treeLink.getChildNodeID());
+
+        //.... The parent employee may have been pulled in by another node linked into the parent node before
+        Employee newParent = parentEmployeeData.getEmployee(treeLink.getParentEmployeeID());
+        if (newParent == null) {
+            throw new IllegalArgumentException("Parent employee ID not found: " + treeLink.getParentEmployeeID() + " in parent node " + treeLink.getParentNodeID());
+        }
+
+        //.... Hook the root employee of the child into the desired parent employee
+        newParent.addEmployee(childEmployeeData.getRootEmployee());
+
+        //.... Copy over all child employees to the parent as well. If an employee is already in there, chances are we're looking at caching importers
+        int n = childEmployeeData.getEmployees().size();
+        int added = parentEmployeeData.addEmployees(childEmployeeData.getEmployees());
+        copied.addAndGet(added);
+        skipped.addAndGet(n - added);
+
+        //.... Merge constraints
+        parentEmployeeData.mergeConstraintHandler(childEmployeeData.getConstraintHandler());
+
+        //.... The child data is not used any more, so its employees do not need to report their changes to it
+        childEmployeeData.detachEmployees();
+
+        LOGGER.log(Level.INFO, "Linked child data for node ID {0} into {1} (employee {2}): {3} employees copied, {4} skipped",
+                new Object[]{treeLink.getChildNodeID(), treeLink.getParentNodeID(), treeLink.getParentEmployeeID(), added, n - added});
+    }
+
+    /**
+     * Assembles the subtree below a node: the subtrees below all nodes linked
+     * into it are assembled in parallel, then these nodes are linked into it
+     * in the order of the links
+     */
+    private class LinkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final String nodeID;
+        private final Map<String, EmployeeData<Employee>> employeeDataMap;
+        private final AtomicInteger copied;
+        private final AtomicInteger skipped;
+
+        /**
+         * @param nodeID
+         * @param employeeDataMap
+         * @param copied
+         * @param skipped
+         */
+        private LinkTask(String nodeID, Map<String, EmployeeData<Employee>> employeeDataMap, AtomicInteger copied, AtomicInteger skipped) {
+            this.nodeID = nodeID;
+            this.employeeDataMap = employeeDataMap;
+            this.copied = copied;
+            this.skipped = skipped;
+        }
+
+        @Override
+        protected void compute() {
+            List<TreeLink> childLinks = treeLinkData.getChildLinks(nodeID);
+            List<LinkTask> tasks = new ArrayList<>(childLinks.size());
+            for (TreeLink treeLink : childLinks) {
+                tasks.add(new LinkTask(treeLink.getChildNodeID(), employeeDataMap, copied, skipped));
+            }
+            invokeAll(tasks);
+            for (TreeLink treeLink : childLinks) {
+                link(treeLink, employeeDataMap, copied, skipped);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,183 @@
+package org.ml.capman.reporting;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.ml.pf.output.TableData;
+
+/**
+ * A read-only map of TableData instances where all keys are known up front,
+ * but a value is only created when it is accessed. Created values are kept in
+ * a bounded cache, least recently used first out, so iterating over the map
+ * holds at most that many values at any time. Several keys can share the same
+ * value (e. g. an index entry for the root of a hierarchy); the value is then
+ * created once for its source key.
+ *
+ * Values are created outside of any lock, so concurrent access is possible;
+ * if two threads request the same uncached value, it may be created twice.
+ *
+ * @author mlaux
+ */
+public class LazyTableDataMap extends AbstractMap<String, TableData> {
+
+    private final Map<String, String> keys;
+    private final Function<String, TableData> builder;
+    private final Map<String, TableData> cache;
+
+    /**
+     * @param keys For each key the source key the value is created for, in
+     * the order of the keys
+     * @param builder Creates the value for a source key
+     * @param cacheSize The maximum number of values kept
+     */
+    public LazyTableDataMap(Map<String, String> keys, Function<String, TableData> builder, int cacheSize) {
+        if (keys == null) {
+            throw new NullPointerException("keys may not be null");
+        }
+        if (builder == null) {
+            throw new NullPointerException("builder may not be null");
+        }
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("cacheSize must be at least 1");
+        }
+        this.keys = Collections.unmodifiableMap(new TreeMap<>(keys));
+        this.builder = builder;
+        this.cache = new LinkedHashMap<String, TableData>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TableData> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @param key
+     * @return
+     */
+    @Override
+    public TableData get(Object key) {
+        String sourceKey = keys.get(key);
+        if (sourceKey == null) {
+            return null;
+        }
+        synchronized (cache) {
+            TableData tableData = cache.get(sourceKey);
+            if (tableData != null) {
+                return tableData;
+            }
+        }
+        TableData tableData = builder.apply(sourceKey);
+        synchronized (cache) {
+            cache.put(sourceKey, tableData);
+        }
+        return tableData;
+    }
+
+    /**
+     * @param key
+     * @return
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return keys.containsKey(key);
+    }
+
+    /**
+     * @return
+     */
+    @Override
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * @return
+     */
+    @Override
+    public Set<String> keySet() {
+        return keys.keySet();
+    }
+
+    /**
+     * @return The entries in key order, the values created as the iteration
+     * proceeds
+     */
+    @Override
+    public Set<Map.Entry<String, TableData>> entrySet() {
+        return new AbstractSet<Map.Entry<String, TableData>>() {
+            @Override
+            public Iterator<Map.Entry<String, TableData>> iterator() {
+                Iterator<String> iterator = keys.keySet().iterator();
+                return new Iterator<Map.Entry<String, TableData>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<String, TableData> next() {
+                        String key = iterator.next();
+                        return new AbstractMap.SimpleImmutableEntry<>(key, get(key));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.size();
+            }
+        };
+    }
+
+    /**
+     * Create all values on the given pool and hand them to the action as soon
+     * as they are created, bypassing the cache. The action is called
+     * concurrently and in no particular order, once for each key
+     *
+     * @param pool
+     * @param action
+     */
+    public void forEach(ForkJoinPool pool, BiConsumer<String, TableData> action) {
+        if (pool == null) {
+            throw new NullPointerException("pool may not be null");
+        }
+        if (action == null) {
+            throw new NullPointerException("action may not be null");
+        }
+
+        //.... All keys sharing a source key get the same value
+        Map<String, List<String>> sourceKeys = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : keys.entrySet()) {
+            sourceKeys.computeIfAbsent(entry.getValue(), k -> new ArrayList<>()).add(entry.getKey());
+        }
+        try {
+            pool.submit(() -> sourceKeys.entrySet().parallelStream().forEach(entry -> {
+                TableData tableData = builder.apply(entry.getKey());
+                for (String key : entry.getValue()) {
+                    action.accept(key, tableData);
+                }
+            })).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+}
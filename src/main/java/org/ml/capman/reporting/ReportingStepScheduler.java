@@ -0,0 +1,181 @@
+package org.ml.capman.reporting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ml.tools.logging.LoggerFactory;
+import org.ml.capman.Employee;
+import org.ml.capman.EmployeeData;
+
+/**
+ * Runs a set of reporting steps on the same EmployeeData instance on a bounded
+ * thread pool. Steps only read the employee data, so all steps without
+ * declared dependencies run concurrently; a step with dependencies is started
+ * once all the steps it depends on are done. run() returns when all steps are
+ * done, and the returned map can directly be fed into the
+ * ReportingOverviewStep.
+ *
+ * Data which is derived lazily from the employee data and shared between steps
+ * (organisation sizes, the columnar representation) is prepared before the
+ * steps are started. All other shared derived data is built under a lock, and
+ * reading employee values does not change the employees, so the steps may read
+ * concurrently. The employee data must not be changed while run() is active.
+ *
+ * The steps are run by calling createOutputData() directly rather than through
+ * the process framework, which runs its steps one after the other. The output
+ * data of a step is therefore not in the output data cache of the framework;
+ * it is handed to the step via AbstractDirectTableDataStep.setTableData() and
+ * read from there by getTableData() (as ReportingOverviewStep does).
+ *
+ * @author mlaux
+ */
+public class ReportingStepScheduler {
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(ReportingStepScheduler.class.getName());
+
+    private final int threads;
+    private final Map<String, AbstractDirectTableDataStep> steps = new LinkedHashMap<>();
+    private final Map<String, List<String>> dependencies = new LinkedHashMap<>();
+    private final Map<String, Long> wallTimes = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    /**
+     * A scheduler using one thread per available processor
+     */
+    public ReportingStepScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads The maximum number of steps running concurrently
+     */
+    public ReportingStepScheduler(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * @param stepID
+     * @param step
+     * @param dependsOn The IDs of steps which need to be done before this step
+     * can start. These have to be added before this step
+     * @return
+     */
+    public ReportingStepScheduler addStep(String stepID, AbstractDirectTableDataStep step, String... dependsOn) {
+        if (stepID == null) {
+            throw new NullPointerException("stepID may not be null");
+        }
+        if (step == null) {
+            throw new NullPointerException("step may not be null");
+        }
+        if (steps.containsKey(stepID)) {
+            throw new IllegalArgumentException("A step with ID " + stepID + " has already been added");
+        }
+        List<String> d = new ArrayList<>();
+        for (String dependency : dependsOn) {
+            if (!steps.containsKey(dependency)) {
+                throw new IllegalArgumentException("Step " + stepID + " depends on unknown step " + dependency);
+            }
+            d.add(dependency);
+        }
+        steps.put(stepID, step);
+        dependencies.put(stepID, d);
+        return this;
+    }
+
+    /**
+     * Run all steps and wait for them to finish. If a step fails, steps
+     * depending on it are not run and the exception is rethrown once all other
+     * steps are done
+     *
+     * @param employeeData
+     * @return All steps, in the order they were added, with their output data
+     * available through AbstractDirectTableDataStep.getTableData()
+     */
+    public Map<String, AbstractDirectTableDataStep> run(EmployeeData<Employee> employeeData) {
+        if (employeeData == null) {
+            throw new NullPointerException("employeeData may not be null");
+        }
+
+        //.... Shared lazily derived data is built up front, so the steps only ever read it
+        employeeData.updateOrganisationAggregates();
+        employeeData.getColumns();
+
+        wallTimes.clear();
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "reporting-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, steps.size())), threadFactory);
+
+        Map<String, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        try {
+            for (String stepID : steps.keySet()) {
+                AbstractDirectTableDataStep step = steps.get(stepID);
+                List<CompletableFuture<Void>> d = new ArrayList<>();
+                for (String dependency : dependencies.get(stepID)) {
+                    d.add(futures.get(dependency));
+                }
+                futures.put(stepID, CompletableFuture.allOf(d.toArray(new CompletableFuture[d.size()]))
+                        .thenRunAsync(() -> runStep(stepID, step, employeeData), executor));
+            }
+
+            RuntimeException exception = null;
+            for (String stepID : futures.keySet()) {
+                try {
+                    futures.get(stepID).join();
+                } catch (CompletionException ex) {
+                    if (exception == null) {
+                        exception = ex.getCause() instanceof RuntimeException ? (RuntimeException) ex.getCause() : ex;
+                    }
+                }
+            }
+            if (exception != null) {
+                throw exception;
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        return Collections.unmodifiableMap(steps);
+    }
+
+    /**
+     * @param stepID
+     * @param step
+     * @param employeeData
+     */
+    private void runStep(String stepID, AbstractDirectTableDataStep step, EmployeeData<Employee> employeeData) {
+        long start = System.nanoTime();
+        LOGGER.log(Level.INFO, "Starting step ''{0}''", stepID);
+        step.setTableData(step.createOutputData(employeeData));
+        long wallTime = (System.nanoTime() - start) / 1000000L;
+        wallTimes.put(stepID, wallTime);
+        LOGGER.log(Level.INFO, "Step ''{0}'' done after {1} ms", new Object[]{stepID, wallTime});
+    }
+
+    /**
+     * @return The wall time in milliseconds for each step of the last run
+     * which completed successfully
+     */
+    public Map<String, Long> getWallTimes() {
+        synchronized (wallTimes) {
+            return new LinkedHashMap<>(wallTimes);
+        }
+    }
+
+}
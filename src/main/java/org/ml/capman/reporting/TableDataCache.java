@@ -0,0 +1,125 @@
+package org.ml.capman.reporting;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.ml.capman.Employee;
+import org.ml.pf.output.TableData;
+
+/**
+ * The TableData instances created by a step for individual employees, together
+ * with the version of the input data they were created from (see
+ * DataContainer.getVersion(), Employee.getReportsVersion() and
+ * Employee.getOrganisationVersion()). When the step is run again, the entries
+ * for employees whose input data has not changed are reused and only the other
+ * ones are rebuilt. Entries are tied to the Employee instance they were created
+ * for, so a new EmployeeData instance leads to a complete rebuild.
+ *
+ * A run of a step requests all entries it needs via get() and then calls
+ * commit(); entries not requested during a run are dropped at that point.
+ *
+ * @author mlaux
+ */
+public class TableDataCache {
+
+    private Map<String, Entry> entries = new HashMap<>();
+    private Map<String, Entry> used = new HashMap<>();
+    private int reused = 0;
+    private int rebuilt = 0;
+    private int lastReused = 0;
+    private int lastRebuilt = 0;
+
+    /**
+     * @param key
+     * @param employee The employee the entry is created for
+     * @param version The version of all input data for the entry
+     * @param builder Creates the entry if there is no entry for the key, or if
+     * it was created for a different employee or version
+     * @return
+     */
+    public synchronized TableData get(String key, Employee employee, long version, Supplier<TableData> builder) {
+        if (key == null) {
+            throw new NullPointerException("key may not be null");
+        }
+        if (employee == null) {
+            throw new NullPointerException("employee may not be null");
+        }
+        if (builder == null) {
+            throw new NullPointerException("builder may not be null");
+        }
+        Entry entry = entries.get(key);
+        if (entry != null && entry.employee == employee && entry.version == version) {
+            reused++;
+        } else {
+            entry = new Entry(employee, version, builder.get());
+            rebuilt++;
+        }
+        used.put(key, entry);
+        return entry.tableData;
+    }
+
+    /**
+     * Finish a run: keep the entries requested since the last commit and drop
+     * all others
+     */
+    public synchronized void commit() {
+        entries = used;
+        used = new HashMap<>();
+        lastReused = reused;
+        lastRebuilt = rebuilt;
+        reused = 0;
+        rebuilt = 0;
+    }
+
+    /**
+     * Drop all entries, e. g. after a change of the data configuration
+     */
+    public synchronized void clear() {
+        entries.clear();
+        used.clear();
+    }
+
+    /**
+     * @return The number of entries reused in the last run
+     */
+    public synchronized int getReused() {
+        return lastReused;
+    }
+
+    /**
+     * @return The number of entries rebuilt in the last run
+     */
+    public synchronized int getRebuilt() {
+        return lastRebuilt;
+    }
+
+    /**
+     * @return The number of entries currently kept
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     *
+     */
+    private static class Entry {
+
+        private final Employee employee;
+        private final long version;
+        private final TableData tableData;
+
+        /**
+         * @param employee
+         * @param version
+         * @param tableData
+         */
+        private Entry(Employee employee, long version, TableData tableData) {
+            this.employee = employee;
+            this.version = version;
+            this.tableData = tableData;
+        }
+    }
+
+}
@@ -1,10 +1,9 @@
 package org.ml.capman.reporting.impl;
 
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -101,10 +100,7 @@ public class EmployeeIndexStep extends AbstractDirectTableDataStep {
         }
 
         //.... Get a sorted list for the employees 
-        Set<Employee> employeeSet = new TreeSet<>(comparator);
-        for (Employee employee : employeeData.getEmployees()) {
-            employeeSet.add(employee);
-        }
+        List<Employee> sortedEmployees = employeeData.getSortedEmployees(comparator);
 
         //.... Create the table
         LOGGER.log(Level.INFO, "Creating the table");
@@ -132,7 +128,7 @@ public class EmployeeIndexStep extends AbstractDirectTableDataStep {
 
         //.... Data
         int n = 1;
-        for (Employee employee : employeeSet) {
+        for (Employee employee : sortedEmployees) {
 
             row++;
             col = 0;
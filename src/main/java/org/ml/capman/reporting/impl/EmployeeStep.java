@@ -1,7 +1,11 @@
 package org.ml.capman.reporting.impl;
 
+import java.util.AbstractMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.ml.tools.PropertyManager;
@@ -15,6 +19,7 @@ import org.ml.capman.EmployeeCapacity.CapacityType;
 import org.ml.capman.EmployeeData;
 import org.ml.capman.IType;
 import org.ml.capman.reporting.AbstractDirectTableDataStep;
+import org.ml.capman.reporting.TableDataCache;
 
 import static org.ml.capman.render.RenderingType.*;
 
@@ -29,6 +34,7 @@ public class EmployeeStep extends AbstractDirectTableDataStep {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(EmployeeStep.class.getName());
     public static final String UNDEFINED = "(Undefined)";
+    private final TableDataCache tableDataCache = new TableDataCache();
 
     /**
      * @param id
@@ -55,33 +61,116 @@ public class EmployeeStep extends AbstractDirectTableDataStep {
             throw new IllegalArgumentException("employeeData may not be null");
         }
 
+        //.... The data for an employee only changes with the employee itself and its direct reports, so the data from
+        //     the previous run is reused for all employees where neither has changed
         Map<String, TableData> tables = new TreeMap<>();
         for (Employee employee : employeeData.getEmployees()) {
+            tables.put(employee.getID(), tableDataCache.get(employee.getID(), employee,
+                    employee.getVersion() + employee.getReportsVersion(), () -> createTableData(employee)));
+        }
+        tableDataCache.commit();
+        LOGGER.log(Level.FINE, "Employee data reused: {0}, rebuilt: {1}", new Object[]{tableDataCache.getReused(), tableDataCache.getRebuilt()});
 
-            TableData tableData = new TableData(propertyManager);
-            tableData.setTableHeader("Detailed Data for Employee: " + employee.getName());
+        setDescription = propertyManager.getString(OptionalKey.setDescription, "Employee");
+        return tables;
+    }
 
-            Table[] t = createTables(employee);
+    /**
+     * Streaming variant of createOutputData() for large employee sets: the
+     * TableData for each employee is created and handed to the sink right
+     * away, with the same keys and in the same order as in the map returned
+     * by createOutputData(). Only the TableData currently handed to the sink
+     * is held by this step, and the TableData cache is neither used nor
+     * filled
+     *
+     * @param employeeData
+     * @param sink Receives the key (the employee ID) and the TableData for
+     * each employee
+     */
+    public void createOutputData(EmployeeData<Employee> employeeData, BiConsumer<String, TableData> sink) {
+        if (sink == null) {
+            throw new NullPointerException("sink may not be null");
+        }
+        Iterator<Map.Entry<String, TableData>> iterator = iterateOutputData(employeeData);
+        while (iterator.hasNext()) {
+            Map.Entry<String, TableData> entry = iterator.next();
+            sink.accept(entry.getKey(), entry.getValue());
+        }
+    }
 
-            int ind = 0;
-            tableData.setTableSubHeader("tableBody" + ind, "Scalar Type Values");
-            tableData.addTable("tableBody" + ind, t[ind++]);
-            tableData.setTableSubHeader("tableBody" + ind, "Capacity");
-            tableData.addTable("tableBody" + ind, t[ind++]);
-            tableData.setTableSubHeader("tableBody" + ind, "Field Type Values");
-            tableData.addTable("tableBody" + ind, t[ind++]);
-            if (employee.getEmployees().size() > 0) {
-                tableData.setTableSubHeader("tableBody" + ind, "Direct Reports");
-                tableData.addTable("tableBody" + ind, t[ind++]);
+    /**
+     * Streaming variant of createOutputData() for large employee sets, see
+     * createOutputData(EmployeeData, BiConsumer)
+     *
+     * @param employeeData
+     * @return An iterator over the same entries as in the map returned by
+     * createOutputData(), creating the TableData for an employee only when
+     * the entry is requested
+     */
+    public Iterator<Map.Entry<String, TableData>> iterateOutputData(EmployeeData<Employee> employeeData) {
+        if (employeeData == null) {
+            throw new IllegalArgumentException("employeeData may not be null");
+        }
+
+        //.... Only the employees are sorted up front; as in createOutputData(), a later employee wins for duplicate IDs
+        Map<String, Employee> employees = new TreeMap<>();
+        for (Employee employee : employeeData.getEmployees()) {
+            employees.put(employee.getID(), employee);
+        }
+        setDescription = propertyManager.getString(OptionalKey.setDescription, "Employee");
+
+        Iterator<Employee> iterator = employees.values().iterator();
+        return new Iterator<Map.Entry<String, TableData>>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
             }
 
-            tables.put(employee.getID(), tableData);
-            //.... There is only one table in this set, so the one table uses the same description as the entire set
-            tableData.setDescription(employee.getID());
+            @Override
+            public Map.Entry<String, TableData> next() {
+                Employee employee = iterator.next();
+                return new AbstractMap.SimpleImmutableEntry<>(employee.getID(), createTableData(employee));
+            }
+        };
+    }
 
+    /**
+     * @param employee
+     * @return
+     */
+    private TableData createTableData(Employee employee) {
+        if (employee == null) {
+            throw new NullPointerException("employee may not be null");
         }
-        setDescription = propertyManager.getString(OptionalKey.setDescription, "Employee");
-        return tables;
+
+        TableData tableData = new TableData(propertyManager);
+        tableData.setTableHeader("Detailed Data for Employee: " + employee.getName());
+
+        Table[] t = createTables(employee);
+
+        int ind = 0;
+        tableData.setTableSubHeader("tableBody" + ind, "Scalar Type Values");
+        tableData.addTable("tableBody" + ind, t[ind++]);
+        tableData.setTableSubHeader("tableBody" + ind, "Capacity");
+        tableData.addTable("tableBody" + ind, t[ind++]);
+        tableData.setTableSubHeader("tableBody" + ind, "Field Type Values");
+        tableData.addTable("tableBody" + ind, t[ind++]);
+        if (employee.getEmployees().size() > 0) {
+            tableData.setTableSubHeader("tableBody" + ind, "Direct Reports");
+            tableData.addTable("tableBody" + ind, t[ind++]);
+        }
+
+        //.... There is only one table in this set, so the one table uses the same description as the entire set
+        tableData.setDescription(employee.getID());
+        return tableData;
+    }
+
+    /**
+     * @return The TableData instances of previous runs, reused for employees
+     * which have not changed since
+     */
+    public TableDataCache getTableDataCache() {
+        return tableDataCache;
     }
 
     /**
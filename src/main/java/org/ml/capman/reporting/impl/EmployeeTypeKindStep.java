@@ -1,10 +1,9 @@
 package org.ml.capman.reporting.impl;
 
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -158,19 +157,18 @@ public class EmployeeTypeKindStep extends AbstractDirectTableDataStep {
             throw new IllegalArgumentException("employeeData may not be null");
         }
 
-        //.... Get a sorted list for the employees 
-        Set<Employee> employeeSet = new TreeSet<>(comparator);
-        for (Employee employee : employeeData.getEmployees()) {
-            employeeSet.add(employee);
-        }
-
         //.... Create the tables
         LOGGER.log(Level.INFO, "Creating the tables");
 
         for (TypeDimension typeDimension : TypeDimension.values()) {
             for (IType type : dataConfiguration.get(typeDimension).values()) {
                 if (type.getTypeKind().equals(selectedKind)) {
-                    Table table = getTable(type, employeeSet);
+                    if (!type.getTypeDimension().equals(One)) {
+                        throw new UnsupportedOperationException("Not yet implemented for TypeDimension other than " + One);
+                    }
+
+                    //.... The matching employees come from the value index, in sorted order
+                    Table table = getTable(type, employeeData.getSortedEmployees(comparator, type, selectedValue));
                     tableData.addTable(type.getTypeName(), table);
                     tableData.setTableSubHeader(type.getTypeName(), "Employees for type: " + type.getTypeName());
                 }
@@ -181,15 +179,16 @@ public class EmployeeTypeKindStep extends AbstractDirectTableDataStep {
 
     /**
      * @param type
-     * @param employeeSet
+     * @param sortedEmployees The employees with the selected value for the
+     * type, in sorted order
      * @return
      */
-    private Table getTable(IType type, Set<Employee> employeeSet) {
+    private Table getTable(IType type, List<Employee> sortedEmployees) {
         if (type == null) {
             throw new NullPointerException("type may not be null");
         }
-        if (employeeSet == null) {
-            throw new NullPointerException("employeeSet may not be null");
+        if (sortedEmployees == null) {
+            throw new NullPointerException("sortedEmployees may not be null");
         }
 
         Table table = new Table();
@@ -217,47 +216,35 @@ public class EmployeeTypeKindStep extends AbstractDirectTableDataStep {
 
         //.... Data
         int n = 1;
-        for (Employee employee : employeeSet) {
-
-            boolean include = false;
-            switch (type.getTypeDimension()) {
-                case One:
-                    include = employee.get(type).equals(selectedValue);
-                    break;
-                default:
-                    throw new UnsupportedOperationException("Not yet implemented for TypeDimension other than " + One);
-            }
-
-            if (include) {
-                row++;
-                col = 0;
+        for (Employee employee : sortedEmployees) {
+            row++;
+            col = 0;
 
-                table.setCell(new Cell().setStyle(cellLeft).setContent(n++), row, col++);
+            table.setCell(new Cell().setStyle(cellLeft).setContent(n++), row, col++);
 
-                table.setCell(new Cell().setStyle(cellLeft).setContent(employee.getUrl(Employee.EmployeeUrl.DATA_NAME)), row, col++);
-                if (employee.getEmployees().size() > 0) {
-                    table.setCell(new Cell().setStyle(cellCenter).setContent(employee.getUrl(Employee.EmployeeUrl.ORGA_X)), row, col++);
-                } else {
-                    table.setCell(new Cell().setStyle(cellLeft).setContent(""), row, col++);
-                }
+            table.setCell(new Cell().setStyle(cellLeft).setContent(employee.getUrl(Employee.EmployeeUrl.DATA_NAME)), row, col++);
+            if (employee.getEmployees().size() > 0) {
+                table.setCell(new Cell().setStyle(cellCenter).setContent(employee.getUrl(Employee.EmployeeUrl.ORGA_X)), row, col++);
+            } else {
+                table.setCell(new Cell().setStyle(cellLeft).setContent(""), row, col++);
+            }
+            for (IType t : outputTypes) {
+                table.setCell(new Cell().setStyle(cellLeft).setContent(employee.get(t)), row, col++);
+            }
+            if (employee.hasManager()) {
+                table.setCell(new Cell().setStyle(cellLeft).setContent(employee.getManager().getUrl(Employee.EmployeeUrl.DATA_NAME)), row, col++);
+                table.setCell(new Cell().setStyle(cellCenter).setContent(employee.getManager().getUrl(Employee.EmployeeUrl.ORGA_X)), row, col++);
                 for (IType t : outputTypes) {
-                    table.setCell(new Cell().setStyle(cellLeft).setContent(employee.get(t)), row, col++);
+                    table.setCell(new Cell().setStyle(cellLeft).setContent(employee.getManager().get(t)), row, col++);
                 }
-                if (employee.hasManager()) {
-                    table.setCell(new Cell().setStyle(cellLeft).setContent(employee.getManager().getUrl(Employee.EmployeeUrl.DATA_NAME)), row, col++);
-                    table.setCell(new Cell().setStyle(cellCenter).setContent(employee.getManager().getUrl(Employee.EmployeeUrl.ORGA_X)), row, col++);
-                    for (IType t : outputTypes) {
-                        table.setCell(new Cell().setStyle(cellLeft).setContent(employee.getManager().get(t)), row, col++);
-                    }
-                } else {
-                    for (int i = 0; i < 2 + outputTypes.size(); i++) {
-                        table.setCell(new Cell().setStyle(cellLeft).setContent(""), row, col++);
-                    }
-                }
-                for (CapacityType capacityType : CapacityType.values()) {
-                    table.setCell(new Cell().setStyle(cellCenter).setContent(employee.getCapacity(capacityType)), row, col++);
+            } else {
+                for (int i = 0; i < 2 + outputTypes.size(); i++) {
+                    table.setCell(new Cell().setStyle(cellLeft).setContent(""), row, col++);
                 }
             }
+            for (CapacityType capacityType : CapacityType.values()) {
+                table.setCell(new Cell().setStyle(cellCenter).setContent(employee.getCapacity(capacityType)), row, col++);
+            }
         }
 
         table.compact();
@@ -1,6 +1,7 @@
 package org.ml.capman.reporting.impl;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -17,6 +18,8 @@ import org.ml.capman.EmployeeData;
 
 import static org.ml.capman.render.RenderingType.*;
 import org.ml.capman.reporting.AbstractDirectTableDataStep;
+import org.ml.capman.reporting.LazyTableDataMap;
+import org.ml.capman.reporting.TableDataCache;
 
 import org.ml.pf.output.TableData;
 import org.ml.table.Cell;
@@ -34,6 +37,7 @@ public class OrgaStep extends AbstractDirectTableDataStep {
     private final static int CELL_VSPACING = 2;
     public final static String ORG_PREFIX = "h_";
     public final static String KEY_NAME = "name";
+    private final TableDataCache tableDataCache = new TableDataCache();
 
     /**
      *
@@ -70,7 +74,12 @@ public class OrgaStep extends AbstractDirectTableDataStep {
         Map<String, TableData> tables = new TreeMap<>();
         String rootFileName = ORG_PREFIX + employeeData.getRootEmployee().getID();
 
+        //.... All org charts show organisation sizes, so get them for the complete tree in one go
+        employeeData.updateOrganisationAggregates();
+
         assembleContextData(tables, employeeData.getRootEmployee(), rootFileName);
+        tableDataCache.commit();
+        LOGGER.log(Level.FINE, "Org charts reused: {0}, rebuilt: {1}", new Object[]{tableDataCache.getReused(), tableDataCache.getRebuilt()});
         for (String fileName : tables.keySet()) {
             LOGGER.log(Level.INFO, "Hierarchy file to be created: {0}", fileName);
         }
@@ -82,6 +91,54 @@ public class OrgaStep extends AbstractDirectTableDataStep {
 
     }
 
+    /**
+     * Lazy variant of createOutputData(): all keys are determined up front by
+     * a walk over the hierarchy, but an org chart is only created when it is
+     * accessed (see LazyTableDataMap). The TableData cache of this step is
+     * neither used nor filled
+     *
+     * @param employeeData
+     * @param cacheSize The maximum number of org charts kept by the map
+     * @return A map with the same keys as the map returned by
+     * createOutputData()
+     */
+    public LazyTableDataMap createLazyOutputData(EmployeeData<Employee> employeeData, int cacheSize) {
+        if (employeeData == null) {
+            throw new IllegalArgumentException("employeeData may not be null");
+        }
+
+        Employee root = employeeData.getRootEmployee();
+        String rootFileName = ORG_PREFIX + root.getID();
+
+        //.... Organisation sizes are computed here, so charts can be created concurrently later on
+        employeeData.updateOrganisationAggregates();
+
+        Map<String, Employee> managers = new HashMap<>();
+        Map<String, String> keys = new HashMap<>();
+        collectManagers(managers, keys, root);
+        if (keys.containsKey(rootFileName)) {
+            keys.put("index", rootFileName);
+        }
+        setDescription = propertyManager.getString(AbstractDirectTableDataStep.OptionalKey.setDescription, "Org Charts");
+
+        return new LazyTableDataMap(keys, key -> createTableData(managers.get(key), rootFileName), cacheSize);
+    }
+
+    /**
+     * @param managers
+     * @param keys
+     * @param employee
+     */
+    private void collectManagers(Map<String, Employee> managers, Map<String, String> keys, Employee employee) {
+        if (!employee.getEmployees().isEmpty()) {
+            managers.put(ORG_PREFIX + employee.getID(), employee);
+            keys.put(ORG_PREFIX + employee.getID(), ORG_PREFIX + employee.getID());
+            for (Employee child : employee.getEmployees().values()) {
+                collectManagers(managers, keys, child);
+            }
+        }
+    }
+
     /**
      * @param tables
      * @param employee
@@ -99,16 +156,9 @@ public class OrgaStep extends AbstractDirectTableDataStep {
         }
         if (!employee.getEmployees().isEmpty()) {
 
-            TableData tableData = new TableData(propertyManager);
-            String setContext = propertyManager.getString(OptionalKey.setContext, "");
-            if (setContext.length() > 0) {
-                tableData.setTableHeader("Org Chart (Data Context: " + setContext + ")");
-            } else {
-                tableData.setTableHeader("Org Chart");
-            }
-            tableData.addTable("tableBody", createTable(employee, rootFileName));
-            tableData.setDescription(employee.getID());
-            tables.put(ORG_PREFIX + employee.getID(), tableData);
+            //.... A chart only shows data from the organisation of the employee, so it is reused until that changes
+            tables.put(ORG_PREFIX + employee.getID(), tableDataCache.get(ORG_PREFIX + employee.getID(), employee,
+                    employee.getOrganisationVersion(), () -> createTableData(employee, rootFileName)));
 
             for (Employee child : employee.getEmployees().values()) {
                 assembleContextData(tables, child, rootFileName);
@@ -118,6 +168,32 @@ public class OrgaStep extends AbstractDirectTableDataStep {
         setDescription = propertyManager.getString(AbstractDirectTableDataStep.OptionalKey.setDescription, "Org Charts");
     }
 
+    /**
+     * @param employee
+     * @param rootFileName
+     * @return
+     */
+    private TableData createTableData(Employee employee, String rootFileName) {
+        TableData tableData = new TableData(propertyManager);
+        String setContext = propertyManager.getString(OptionalKey.setContext, "");
+        if (setContext.length() > 0) {
+            tableData.setTableHeader("Org Chart (Data Context: " + setContext + ")");
+        } else {
+            tableData.setTableHeader("Org Chart");
+        }
+        tableData.addTable("tableBody", createTable(employee, rootFileName));
+        tableData.setDescription(employee.getID());
+        return tableData;
+    }
+
+    /**
+     * @return The org charts of previous runs, reused for managers whose
+     * organisation has not changed since
+     */
+    public TableDataCache getTableDataCache() {
+        return tableDataCache;
+    }
+
     /**
      * @param employee
      * @param rootFileName
@@ -243,6 +319,7 @@ public class OrgaStep extends AbstractDirectTableDataStep {
      * @param employee
      * @param row
      * @param col
+     * @param topLevel
      */
     private void setupCell(Table table, Employee employee, int row, int col, boolean topLevel) {
         if (employee.getEmployees().size() > 0) {
@@ -114,7 +114,7 @@ public class ReportingOverviewStep extends AbstractDirectProcessStep<Map<String,
 
         //.... Data
         int n = 1;
-        Map<String, TableData> dataCache = step.getOutputDataCache();
+        Map<String, TableData> dataCache = step.getTableData();
         for (String key : dataCache.keySet()) {
             String url = relativePath + stepID + File.separatorChar + key.replaceAll("\\..+$", "");
             UrlContent urlContent = new UrlContent(url, dataCache.get(key).getDescription(), true);
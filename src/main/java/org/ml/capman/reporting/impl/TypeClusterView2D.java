@@ -1,15 +1,18 @@
 package org.ml.capman.reporting.impl;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.logging.Logger;
 
 import org.ml.tools.PropertyManager;
 import org.ml.tools.logging.LoggerFactory;
+import org.ml.capman.CapacitySummaryCube;
+import org.ml.capman.CapacitySummaryData2D;
 import org.ml.capman.DataConfiguration;
 import org.ml.capman.DataConfiguration.TypeDimension;
 
@@ -19,6 +22,7 @@ import org.ml.capman.Employee;
 import org.ml.capman.EmployeeCapacity;
 import org.ml.capman.EmployeeData;
 import org.ml.capman.IType;
+import org.ml.capman.ValueIndex;
 import org.ml.capman.reporting.AbstractDirectTableDataStep;
 
 import static org.ml.capman.render.RenderingType.*;
@@ -35,7 +39,6 @@ import org.ml.table.content.UrlContent;
 public class TypeClusterView2D extends AbstractDirectTableDataStep {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(TypeClusterView2D.class.getName());
-    private Map<Comparable, Map<Comparable, Set<Employee>>> employees = new TreeMap<>();
     public static final String UNASSIGNED = "(unassigned)";
     private int typesDelta = 0;
 
@@ -83,6 +86,18 @@ public class TypeClusterView2D extends AbstractDirectTableDataStep {
 
         Map<String, TableData> tables = new TreeMap<>();
 
+        //.... Compute the capacity summaries for all type pairs in one go, these are shared with the other 2D steps
+        List<IType> types = new ArrayList<>();
+        for (TypeDimension typeDimension : TypeDimension.values()) {
+            for (IType type : configuration.get(typeDimension).values()) {
+                if (type.getLevel() >= minimumLevel && type.getTypeDimension().equals(One)) {
+                    types.add(type);
+                }
+            }
+        }
+        CapacitySummaryCube summaryCube = employeeData.getSummaryCube();
+        summaryCube.prepare(types);
+
         for (TypeDimension typeDimension1 : TypeDimension.values()) {
             for (String typeName1 : configuration.get(typeDimension1).keySet()) {
                 IType type1 = configuration.get(typeDimension1).get(typeName1);
@@ -101,7 +116,7 @@ public class TypeClusterView2D extends AbstractDirectTableDataStep {
                                         } else {
                                             tableData.setTableHeader("Cluster View for " + typeName2 + " by " + typeName1);
                                         }
-                                        tableData.addTable("tableBody", createTable(employeeData, type1, type2));
+                                        tableData.addTable("tableBody", createTable(employeeData, type1, type2, summaryCube.get(type1, type2)));
                                         tableData.setDescription("Type " + typeName2 + " by " + typeName1);
                                         tables.put("clusterView_" + typeName2 + "_by_" + typeName1, tableData);
                                     }
@@ -136,9 +151,10 @@ public class TypeClusterView2D extends AbstractDirectTableDataStep {
      * @param employeeData
      * @param type1
      * @param type2
+     * @param summaryData The capacity summary data for the given types
      * @return
      */
-    private Table createTable(EmployeeData<Employee> employeeData, IType type1, IType type2) {
+    private Table createTable(EmployeeData<Employee> employeeData, IType type1, IType type2, CapacitySummaryData2D summaryData) {
         if (employeeData == null) {
             throw new IllegalArgumentException("employeeData may not be null");
         }
@@ -149,29 +165,17 @@ public class TypeClusterView2D extends AbstractDirectTableDataStep {
             throw new NullPointerException("type2 may not be null");
         }
 
-        //.... Collect employees 
-        Set<Comparable> primaryKeys1 = new TreeSet<>();
+        //.... The keys present for the given types are the ones of the capacity summary
+        Set<Comparable> primaryKeys1 = summaryData.get().keySet();
         Map<Comparable, Set<Comparable>> primaryKeys2 = new HashMap<>();
-
-        for (Employee employee : employeeData.getEmployees()) {
-            Comparable primaryKey1 = employee.get(type1);
-            if (!employees.containsKey(primaryKey1)) {
-                employees.put(primaryKey1, new TreeMap<>());
-            }
-            primaryKeys1.add(primaryKey1);
-
-            Comparable primaryKey2 = employee.get(type2);
-            if (!employees.get(primaryKey1).containsKey(primaryKey2)) {
-                employees.get(primaryKey1).put(primaryKey2, new TreeSet<>(comparator));
-            }
-            if (!primaryKeys2.containsKey(primaryKey1)) {
-                primaryKeys2.put(primaryKey1, new TreeSet<>());
-            }
-            primaryKeys2.get(primaryKey1).add(primaryKey2);
-
-            employees.get(primaryKey1).get(primaryKey2).add(employee);
+        for (Comparable primaryKey1 : primaryKeys1) {
+            primaryKeys2.put(primaryKey1, summaryData.get(primaryKey1).keySet());
         }
 
+        //.... The employees for each pair of keys are looked up in the value indexes of both types
+        ValueIndex valueIndex1 = employeeData.getValueIndex(type1);
+        ValueIndex valueIndex2 = employeeData.getValueIndex(type2);
+
         int maxPrimaryKey2 = 0;
         for (Comparable primaryKey1 : primaryKeys2.keySet()) {
             maxPrimaryKey2 = Math.max(maxPrimaryKey2, primaryKeys2.get(primaryKey1).size());
@@ -226,7 +230,8 @@ public class TypeClusterView2D extends AbstractDirectTableDataStep {
             int remainder = primaryKeys2.get(primaryKey1).size();
             for (Comparable primaryKey2 : primaryKeys2.get(primaryKey1)) {
 
-                table.addTable(createSubTable(primaryKey1, primaryKey2), row, col);
+                int[] rows = ValueIndex.intersect(valueIndex1.getRows(primaryKey1), valueIndex2.getRows(primaryKey2));
+                table.addTable(createSubTable(primaryKey1, primaryKey2, employeeData.getSortedEmployees(comparator, rows)), row, col);
                 remainder--;
                 col += internalTableColumns;
 
@@ -255,15 +260,19 @@ public class TypeClusterView2D extends AbstractDirectTableDataStep {
     /**
      * @param primaryKey1
      * @param primaryKey2
+     * @param employees The employees for both keys, in sorted order
      * @return
      */
-    private Table createSubTable(Comparable primaryKey1, Comparable primaryKey2) {
+    private Table createSubTable(Comparable primaryKey1, Comparable primaryKey2, List<Employee> employees) {
         if (primaryKey1 == null) {
             throw new NullPointerException("primaryKey1 may not be null");
         }
         if (primaryKey2 == null) {
             throw new NullPointerException("primaryKey2 may not be null");
         }
+        if (employees == null) {
+            throw new NullPointerException("employees may not be null");
+        }
 
         //.... Build the table
         Table table = new Table(10, 10);
@@ -281,7 +290,7 @@ public class TypeClusterView2D extends AbstractDirectTableDataStep {
         //.... Get the sum of the effective FTE and HC for the subtable employees
         double totalEffectiveFTE = 0.0d;
         double totalHC = 0.0d;
-        for (Employee employee : employees.get(primaryKey1).get(primaryKey2)) {
+        for (Employee employee : employees) {
             totalEffectiveFTE += employee.getCapacity(EmployeeCapacity.CapacityType.EffectiveFTE);
             totalHC += employee.getCapacity(EmployeeCapacity.CapacityType.HC);
         }
@@ -317,7 +326,7 @@ public class TypeClusterView2D extends AbstractDirectTableDataStep {
 
         //.... Subtable data
         col = 0;
-        for (Employee employee : employees.get(primaryKey1).get(primaryKey2)) {
+        for (Employee employee : employees) {
             table.setCell(new Cell().setStyle(cellCenter).setContent(n++), row, col++);
             table.setCell(new Cell().setStyle(cellLeft).setContent(employee.getUrl(Employee.EmployeeUrl.DATA_NAME)), row, col++);
             table.setCell(new Cell().setStyle(cellLeft).setContent(employee.getUrl(Employee.EmployeeUrl.DATA_ID)), row, col++);
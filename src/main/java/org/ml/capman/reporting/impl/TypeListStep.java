@@ -1,15 +1,16 @@
 package org.ml.capman.reporting.impl;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.logging.Logger;
 
 import org.ml.tools.PropertyManager;
 import org.ml.tools.logging.LoggerFactory;
 import org.ml.capman.CapacitySummaryData;
+import org.ml.capman.CapacitySummaryDataSet;
 import org.ml.capman.DataConfiguration;
 import org.ml.capman.DataConfiguration.TypeDimension;
 
@@ -20,6 +21,7 @@ import org.ml.capman.Employee;
 import org.ml.capman.EmployeeCapacity.CapacityType;
 import org.ml.capman.EmployeeData;
 import org.ml.capman.IType;
+import org.ml.capman.ValueIndex;
 import org.ml.capman.reporting.AbstractDirectTableDataStep;
 
 import static org.ml.capman.render.RenderingType.*;
@@ -75,6 +77,17 @@ public class TypeListStep extends AbstractDirectTableDataStep {
 
         Map<String, TableData> tables = new TreeMap<>();
 
+        //.... Collect the capacity summary data for all types in one go
+        List<IType> types = new ArrayList<>();
+        for (TypeDimension typeDimension : TypeDimension.values()) {
+            for (IType type : DataConfiguration.getInstance().get(typeDimension).values()) {
+                if (type.getLevel() >= minimumLevel) {
+                    types.add(type);
+                }
+            }
+        }
+        CapacitySummaryDataSet summaryDataSet = new CapacitySummaryDataSet(types, employeeData);
+
         for (TypeDimension typeDimension : TypeDimension.values()) {
             for (String typeName : DataConfiguration.getInstance().get(typeDimension).keySet()) {
                 IType type = DataConfiguration.getInstance().get(typeDimension).get(typeName);
@@ -85,7 +98,7 @@ public class TypeListStep extends AbstractDirectTableDataStep {
                     } else {
                         tableData.setTableHeader("Employees by " + typeName);
                     }
-                    tableData.addTable("tableBody", createTable(employeeData, type));
+                    tableData.addTable("tableBody", createTable(employeeData, type, summaryDataSet.get(type)));
                     tableData.setDescription("Employees by " + typeName);
                     tables.put("employeeListBy_" + typeName, tableData);
                 }
@@ -100,48 +113,25 @@ public class TypeListStep extends AbstractDirectTableDataStep {
     /**
      * @param employeeData
      * @param type
+     * @param summaryData The capacity summary data for the given type
      * @return
      */
-    private Table createTable(EmployeeData<Employee> employeeData, IType type) {
+    private Table createTable(EmployeeData<Employee> employeeData, IType type, CapacitySummaryData summaryData) {
         if (employeeData == null) {
             throw new IllegalArgumentException("employeeData may not be null");
         }
         if (type == null) {
             throw new NullPointerException("type may not be null");
         }
+        if (summaryData == null) {
+            throw new NullPointerException("summaryData may not be null");
+        }
 
-        CapacitySummaryData summaryData = new CapacitySummaryData(type, employeeData);
-
-        //.... Collect employees 
-        Map<Comparable, Set<Employee>> employees = new TreeMap<>();
-        for (Employee employee : employeeData.getEmployees()) {
-
-            switch (type.getTypeDimension()) {
-
-                case One:
-
-                    Comparable primaryKey = employee.get(type);
-                    if (!employees.containsKey(primaryKey)) {
-                        employees.put(primaryKey, new TreeSet<>(comparator));
-                    }
-                    employees.get(primaryKey).add(employee);
-                    break;
-
-                case Two:
-
-                    for (String field : employee.getFields(type).keySet()) {
-                        if (!employees.containsKey(field)) {
-                            employees.put(field, new TreeSet<>(comparator));
-                        }
-                        employees.get(field).add(employee);
-                    }
-                    break;
-
-                default:
-
-                    throw new UnsupportedOperationException("Not supported: TypeDimension " + type.getTypeDimension());
-
-            }
+        //.... Group the employees via the value index of the type, each group in sorted order
+        ValueIndex valueIndex = employeeData.getValueIndex(type);
+        Map<Comparable, List<Employee>> employees = new TreeMap<>();
+        for (Comparable primaryKey : valueIndex.getValues()) {
+            employees.put(primaryKey, employeeData.getSortedEmployees(comparator, valueIndex.getRows(primaryKey)));
         }
 
         //.... Create the output table
@@ -1,15 +1,16 @@
 package org.ml.capman.reporting.impl;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.logging.Logger;
 
 import org.ml.tools.PropertyManager;
 import org.ml.tools.logging.LoggerFactory;
+import org.ml.capman.CapacitySummaryCube;
 import org.ml.capman.CapacitySummaryData2D;
 import org.ml.capman.DataConfiguration;
 import org.ml.capman.DataConfiguration.TypeDimension;
@@ -77,6 +78,18 @@ public class TypeListStep2D extends AbstractDirectTableDataStep {
         DataConfiguration configuration = DataConfiguration.getInstance();
 
         Map<String, TableData> tables = new TreeMap<>();
+
+        //.... Compute the capacity summaries for all type pairs in one go, these are shared with the other 2D steps
+        List<IType> types = new ArrayList<>();
+        for (TypeDimension typeDimension : TypeDimension.values()) {
+            for (IType type : configuration.get(typeDimension).values()) {
+                if (type.getLevel() >= minimumLevel) {
+                    types.add(type);
+                }
+            }
+        }
+        CapacitySummaryCube summaryCube = employeeData.getSummaryCube();
+        summaryCube.prepare(types);
         
         for (TypeDimension typeDimension1 : TypeDimension.values()) {
             for (String typeName1 : configuration.get(typeDimension1).keySet()) {
@@ -93,7 +106,7 @@ public class TypeListStep2D extends AbstractDirectTableDataStep {
                                     } else {
                                         tableData.setTableHeader("Employees for " + typeName2 + " by " + typeName1);
                                     }
-                                    tableData.addTable("tableBody", createTable(employeeData, type1, type2));
+                                    tableData.addTable("tableBody", createTable(employeeData, type1, type2, summaryCube.get(type1, type2)));
                                     tableData.setDescription("Employees " + typeName2 + " by " + typeName1);
                                     tables.put("employeeList2D_" + typeName2 + "_by_" + typeName1, tableData);
                                 }
@@ -128,9 +141,10 @@ public class TypeListStep2D extends AbstractDirectTableDataStep {
      * @param employeeData
      * @param type1
      * @param type2
+     * @param summaryData The capacity summary data for the given types
      * @return
      */
-    private Table createTable(EmployeeData<Employee> employeeData, IType type1, IType type2) {
+    private Table createTable(EmployeeData<Employee> employeeData, IType type1, IType type2, CapacitySummaryData2D summaryData) {
         if (employeeData == null) {
             throw new IllegalArgumentException("employeeData may not be null");
         }
@@ -140,13 +154,13 @@ public class TypeListStep2D extends AbstractDirectTableDataStep {
         if (type2 == null) {
             throw new NullPointerException("type2 may not be null");
         }
+        if (summaryData == null) {
+            throw new NullPointerException("summaryData may not be null");
+        }
 
-        //.... Collect capacity summary data for the given types
-        CapacitySummaryData2D summaryData = new CapacitySummaryData2D(type1, type2, employeeData);
-
-        //.... Collect employees 
-        Map<Comparable, Map<Comparable, Set<Employee>>> employees = new TreeMap<>();
-        for (Employee employee : employeeData.getEmployees()) {
+        //.... Collect employees; going through them in sorted order keeps the lists sorted
+        Map<Comparable, Map<Comparable, List<Employee>>> employees = new TreeMap<>();
+        for (Employee employee : employeeData.getSortedEmployees(comparator)) {
 
             switch (type1.getTypeDimension()) {
 
@@ -161,14 +175,14 @@ public class TypeListStep2D extends AbstractDirectTableDataStep {
                         case One:
                             Comparable primaryKey2 = employee.get(type2);
                             if (!employees.get(primaryKey1).containsKey(primaryKey2)) {
-                                employees.get(primaryKey1).put(primaryKey2, new TreeSet<>(comparator));
+                                employees.get(primaryKey1).put(primaryKey2, new ArrayList<>());
                             }
                             employees.get(primaryKey1).get(primaryKey2).add(employee);
                             break;
                         case Two:
                             for (String field2 : employee.getFields(type2).keySet()) {
                                 if (!employees.get(primaryKey1).containsKey(field2)) {
-                                    employees.get(primaryKey1).put(field2, new TreeSet<>(comparator));
+                                    employees.get(primaryKey1).put(field2, new ArrayList<>());
                                 }
                                 employees.get(primaryKey1).get(field2).add(employee);
                             }
@@ -190,7 +204,7 @@ public class TypeListStep2D extends AbstractDirectTableDataStep {
                             Comparable primaryKey2 = employee.get(type2);
                             for (String field1 : employee.getFields(type1).keySet()) {
                                 if (!employees.get(field1).containsKey(primaryKey2)) {
-                                    employees.get(field1).put(primaryKey2, new TreeSet<>(comparator));
+                                    employees.get(field1).put(primaryKey2, new ArrayList<>());
                                 }
                                 employees.get(field1).get(primaryKey2).add(employee);
                             }
@@ -203,7 +217,7 @@ public class TypeListStep2D extends AbstractDirectTableDataStep {
                                     for (String field2 : employee.getFields(type2).keySet()) {
                                         if (employeeData.getConstraintHandler().existsConstraint(type1, field1, type2, field2)) {
                                             if (!employees.get(field1).containsKey(field2)) {
-                                                employees.get(field1).put(field2, new TreeSet<>(comparator));
+                                                employees.get(field1).put(field2, new ArrayList<>());
                                             }
                                             employees.get(field1).get(field2).add(employee);
                                         }
@@ -215,7 +229,7 @@ public class TypeListStep2D extends AbstractDirectTableDataStep {
                                 for (String field1 : employee.getFields(type1).keySet()) {
                                     for (String field2 : employee.getFields(type2).keySet()) {
                                         if (!employees.get(field1).containsKey(field2)) {
-                                            employees.get(field1).put(field2, new TreeSet<>(comparator));
+                                            employees.get(field1).put(field2, new ArrayList<>());
                                         }
                                         employees.get(field1).get(field2).add(employee);
                                     }
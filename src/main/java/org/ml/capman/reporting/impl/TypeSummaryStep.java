@@ -1,5 +1,7 @@
 package org.ml.capman.reporting.impl;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Logger;
@@ -7,6 +9,7 @@ import java.util.logging.Logger;
 import org.ml.tools.PropertyManager;
 import org.ml.tools.logging.LoggerFactory;
 import org.ml.capman.CapacitySummaryData;
+import org.ml.capman.CapacitySummaryDataSet;
 import org.ml.capman.DataConfiguration;
 import org.ml.capman.DataConfiguration.TypeDimension;
 
@@ -61,6 +64,17 @@ public class TypeSummaryStep extends AbstractDirectTableDataStep {
 
         Map<String, TableData> tables = new TreeMap<>();
 
+        //.... Collect the capacity summary data for all types in one go
+        List<IType> types = new ArrayList<>();
+        for (TypeDimension typeDimension : TypeDimension.values()) {
+            for (IType type : DataConfiguration.getInstance().get(typeDimension).values()) {
+                if (type.getLevel() >= minimumLevel) {
+                    types.add(type);
+                }
+            }
+        }
+        CapacitySummaryDataSet summaryDataSet = new CapacitySummaryDataSet(types, employeeData);
+
         for (TypeDimension typeDimension : TypeDimension.values()) {
             for (String typeName : DataConfiguration.getInstance().get(typeDimension).keySet()) {
                 IType type = DataConfiguration.getInstance().get(typeDimension).get(typeName);
@@ -71,7 +85,7 @@ public class TypeSummaryStep extends AbstractDirectTableDataStep {
                     } else {
                         tableData.setTableHeader("Capacity by " + typeName);
                     }
-                    tableData.addTable("tableBody", createTable(employeeData, type));
+                    tableData.addTable("tableBody", createTable(employeeData, type, summaryDataSet.get(type)));
                     tableData.setDescription("Type " + typeName);
                     tables.put("typeSummaryBy" + typeName, tableData);
                 }
@@ -97,18 +111,19 @@ public class TypeSummaryStep extends AbstractDirectTableDataStep {
     /**
      * @param employeeData
      * @param type
+     * @param summaryData The capacity summary data for the given type
      * @return
      */
-    private Table createTable(EmployeeData<Employee> employeeData, IType type) {
+    private Table createTable(EmployeeData<Employee> employeeData, IType type, CapacitySummaryData summaryData) {
         if (employeeData == null) {
             throw new IllegalArgumentException("employeeData may not be null");
         }
         if (type == null) {
             throw new NullPointerException("type may not be null");
         }
-
-        //.... Collect capacity summary data for the given type
-        CapacitySummaryData summaryData = new CapacitySummaryData(type, employeeData);
+        if (summaryData == null) {
+            throw new NullPointerException("summaryData may not be null");
+        }
 
         //.... Create the output table
         Table table = new Table();
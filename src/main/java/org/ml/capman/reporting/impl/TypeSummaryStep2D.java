@@ -1,12 +1,15 @@
 package org.ml.capman.reporting.impl;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import org.ml.tools.PropertyManager;
 import org.ml.tools.logging.LoggerFactory;
+import org.ml.capman.CapacitySummaryCube;
 import org.ml.capman.CapacitySummaryData2D;
 import org.ml.capman.DataConfiguration;
 import org.ml.capman.DataConfiguration.TypeDimension;
@@ -64,6 +67,18 @@ public class TypeSummaryStep2D extends AbstractDirectTableDataStep {
 
         Map<String, TableData> tables = new TreeMap<>();
 
+        //.... Compute the capacity summaries for all type pairs in one go, these are shared with the other 2D steps
+        List<IType> types = new ArrayList<>();
+        for (TypeDimension typeDimension : TypeDimension.values()) {
+            for (IType type : configuration.get(typeDimension).values()) {
+                if (type.getLevel() >= minimumLevel) {
+                    types.add(type);
+                }
+            }
+        }
+        CapacitySummaryCube summaryCube = employeeData.getSummaryCube();
+        summaryCube.prepare(types);
+
         for (TypeDimension typeDimension1 : TypeDimension.values()) {
             for (String typeName1 : configuration.get(typeDimension1).keySet()) {
                 IType type1 = configuration.get(typeDimension1).get(typeName1);
@@ -79,7 +94,7 @@ public class TypeSummaryStep2D extends AbstractDirectTableDataStep {
                                     } else {
                                         tableData.setTableHeader("Capacity for " + typeName2 + " by " + typeName1);
                                     }
-                                    tableData.addTable("tableBody", createTable(employeeData, type1, type2));
+                                    tableData.addTable("tableBody", createTable(employeeData, type1, type2, summaryCube.get(type1, type2)));
                                     tableData.setDescription("Capacity " + typeName2 + " by " + typeName1);
                                     tables.put("typeSummary2D_" + typeName2 + "_by_" + typeName1, tableData);
                                 }
@@ -99,9 +114,10 @@ public class TypeSummaryStep2D extends AbstractDirectTableDataStep {
      * @param employeeData
      * @param type1
      * @param type2
+     * @param summaryData The capacity summary data for the given types
      * @return
      */
-    private Table createTable(EmployeeData<Employee> employeeData, IType type1, IType type2) {
+    private Table createTable(EmployeeData<Employee> employeeData, IType type1, IType type2, CapacitySummaryData2D summaryData) {
         if (employeeData == null) {
             throw new IllegalArgumentException("employeeData may not be null");
         }
@@ -111,9 +127,9 @@ public class TypeSummaryStep2D extends AbstractDirectTableDataStep {
         if (type2 == null) {
             throw new NullPointerException("type2 may not be null");
         }
-
-        //.... Collect capacity summary data for the given types
-        CapacitySummaryData2D summaryData = new CapacitySummaryData2D(type1, type2, employeeData);
+        if (summaryData == null) {
+            throw new NullPointerException("summaryData may not be null");
+        }
 
         //.... Create the output table
         Table table = new Table();
@@ -0,0 +1,271 @@
+package org.ml.capman.test;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Dr. Matthias Laux.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.ml.capman.CapacitySummaryCube;
+import org.ml.capman.CapacitySummaryData;
+import org.ml.capman.CapacitySummaryData2D;
+import org.ml.capman.CapacitySummaryListener;
+import org.ml.capman.Employee;
+import org.ml.capman.EmployeeCapacity.CapacityType;
+import org.ml.capman.EmployeeData;
+import org.ml.capman.IType;
+
+/**
+ * Summaries built in parallel or kept up to date by a listener only differ
+ * from freshly built sequential ones in the summation order, so the sums are
+ * compared with a small tolerance
+ *
+ * @author mlaux
+ */
+public class CapacitySummaryDataTest {
+
+    private static final double DELTA = 1.0e-9d;
+
+    /**
+     * @param expected
+     * @param actual
+     */
+    private static void assertCapacities(Map<CapacityType, Double> expected, Map<CapacityType, Double> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (CapacityType capacityType : expected.keySet()) {
+            double e = expected.get(capacityType);
+            assertEquals(e, actual.get(capacityType), DELTA * Math.max(1.0d, Math.abs(e)));
+        }
+    }
+
+    /**
+     * @param expected
+     * @param actual
+     */
+    private static void assertSummary(CapacitySummaryData expected, CapacitySummaryData actual) {
+        assertEquals(expected.get().keySet(), actual.get().keySet());
+        for (Comparable primaryKey : expected.get().keySet()) {
+            assertCapacities(expected.get(primaryKey), actual.get(primaryKey));
+            assertEquals(expected.getCount(primaryKey), actual.getCount(primaryKey));
+        }
+        assertCapacities(expected.getTotal(), actual.getTotal());
+        assertEquals(expected.getTotalCount(), actual.getTotalCount());
+    }
+
+    /**
+     * @param expected
+     * @param actual
+     */
+    private static void assertSummary(CapacitySummaryData2D expected, CapacitySummaryData2D actual) {
+        assertEquals(expected.get().keySet(), actual.get().keySet());
+        for (Comparable primaryKey1 : expected.get().keySet()) {
+            assertEquals(expected.get(primaryKey1).keySet(), actual.get(primaryKey1).keySet());
+            for (Comparable primaryKey2 : expected.get(primaryKey1).keySet()) {
+                assertCapacities(expected.get(primaryKey1, primaryKey2), actual.get(primaryKey1, primaryKey2));
+                assertEquals(expected.getCount(primaryKey1, primaryKey2), actual.getCount(primaryKey1, primaryKey2));
+            }
+        }
+        assertCapacities(expected.getTotal(), actual.getTotal());
+        assertEquals(expected.getTotalCount(), actual.getTotalCount());
+    }
+
+    /**
+     * @param type
+     * @param employeeData
+     * @param compensated
+     * @param pool
+     */
+    private static void assertParallel(IType type, EmployeeData<Employee> employeeData, boolean compensated, ForkJoinPool pool) {
+        assertSummary(new CapacitySummaryData(type, employeeData, compensated), new CapacitySummaryData(type, employeeData, compensated, pool));
+    }
+
+    /**
+     * @param type1
+     * @param type2
+     * @param employeeData
+     * @param compensated
+     * @param pool
+     */
+    private static void assertParallel(IType type1, IType type2, EmployeeData<Employee> employeeData, boolean compensated, ForkJoinPool pool) {
+        assertSummary(new CapacitySummaryData2D(type1, type2, employeeData, compensated),
+                new CapacitySummaryData2D(type1, type2, employeeData, compensated, pool));
+    }
+
+    @Test
+    public void testParallel() {
+        EmployeeData<Employee> employeeData = TestData.create(20000, 11);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (boolean compensated : new boolean[]{false, true}) {
+                assertParallel(TestData.Country, employeeData, compensated, pool);
+                assertParallel(TestData.Project, employeeData, compensated, pool);
+                assertParallel(TestData.Skill, employeeData, compensated, pool);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallel2D() {
+        EmployeeData<Employee> employeeData = TestData.create(20000, 12);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (boolean compensated : new boolean[]{false, true}) {
+                assertParallel(TestData.Country, TestData.Project, employeeData, compensated, pool);
+                assertParallel(TestData.Project, TestData.Skill, employeeData, compensated, pool);
+                assertParallel(TestData.Skill, TestData.Vacancy, employeeData, compensated, pool);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelSmall() {
+        EmployeeData<Employee> employeeData = TestData.create(100, 13);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertParallel(TestData.Project, employeeData, false, pool);
+            assertParallel(TestData.Project, TestData.Skill, employeeData, false, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testListener() {
+        EmployeeData<Employee> employeeData = TestData.create(1000, 16);
+        List<CapacitySummaryData> summaries = new ArrayList<>();
+        List<CapacitySummaryData2D> summaries2D = new ArrayList<>();
+        for (IType type : new IType[]{TestData.Country, TestData.Project, TestData.Skill}) {
+            CapacitySummaryData summaryData = new CapacitySummaryData(type, employeeData);
+            employeeData.addChangeListener(new CapacitySummaryListener(summaryData));
+            summaries.add(summaryData);
+        }
+        CapacitySummaryData compensated = new CapacitySummaryData(TestData.Project, employeeData, true);
+        employeeData.addChangeListener(new CapacitySummaryListener(compensated));
+        IType[][] pairs = {{TestData.Country, TestData.Project}, {TestData.Project, TestData.Skill}, {TestData.Skill, TestData.Vacancy}};
+        for (IType[] pair : pairs) {
+            CapacitySummaryData2D summaryData = new CapacitySummaryData2D(pair[0], pair[1], employeeData);
+            employeeData.addChangeListener(new CapacitySummaryListener(summaryData));
+            summaries2D.add(summaryData);
+        }
+
+        //.... Edits
+        Random random = new Random(17);
+        for (int i = 0; i < 500; i++) {
+            Employee employee = employeeData.getEmployees().get(random.nextInt(employeeData.getEmployees().size()));
+            switch (random.nextInt(4)) {
+                case 0:
+                    employee.set(TestData.Country, "CH");
+                    break;
+                case 1:
+                    employee.set(TestData.Project, "Q", random.nextInt(50));
+                    break;
+                case 2:
+                    employee.set(TestData.Skill, "rust", "x");
+                    break;
+                default:
+                    employee.setCapacity(CapacityType.FTE, random.nextDouble());
+            }
+        }
+
+        //.... Added employees; the ones without a country only contribute to the 1D summaries once they get one
+        List<Employee> added = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Employee employee = new Employee("N" + i);
+            employee.setNameType(TestData.Name);
+            employee.set(TestData.Name, "New " + i);
+            employee.set(TestData.Vacancy, i % 2 == 0);
+            employee.set(TestData.Project, "A", 100);
+            employee.set(TestData.Skill, "java", "x");
+            employee.setCapacity(CapacityType.HC, 1.0d);
+            employee.setCapacity(CapacityType.FTE, 0.5d);
+            employee.setCapacity(CapacityType.EffectiveFTE, 0.5d);
+            employeeData.getRootEmployee().addEmployee(employee);
+            employeeData.addEmployee(employee);
+            added.add(employee);
+        }
+        for (Employee employee : added) {
+            employee.set(TestData.Country, "DE");
+            employee.setCapacity(CapacityType.FTE, 0.75d);
+        }
+
+        //.... Removed employees
+        int removed = 0;
+        for (Employee employee : new ArrayList<>(employeeData.getEmployees())) {
+            if (removed < 100 && employee.hasManager() && employee.getEmployees().isEmpty()) {
+                employeeData.removeEmployee(employee.getID());
+                removed++;
+            }
+        }
+
+        for (CapacitySummaryData summaryData : summaries) {
+            assertSummary(new CapacitySummaryData(summaryData.getType(), employeeData), summaryData);
+        }
+        assertSummary(new CapacitySummaryData(TestData.Project, employeeData, true), compensated);
+        for (CapacitySummaryData2D summaryData : summaries2D) {
+            assertSummary(new CapacitySummaryData2D(summaryData.getType1(), summaryData.getType2(), employeeData), summaryData);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testListenerReadOnly() {
+        EmployeeData<Employee> employeeData = TestData.create(100, 18);
+        new CapacitySummaryListener(employeeData.getSummaryCube().get(TestData.Project));
+    }
+
+    @Test
+    public void testCubeInvalidation() {
+        EmployeeData<Employee> employeeData = TestData.create(1000, 19);
+        CapacitySummaryCube cube = employeeData.getSummaryCube();
+        CapacitySummaryData2D countryProject = cube.get(TestData.Country, TestData.Project);
+        CapacitySummaryData2D projectSkill = cube.get(TestData.Project, TestData.Skill);
+
+        //.... Only the summaries involving the changed type are rebuilt
+        employeeData.getEmployees().get(0).set(TestData.Country, "CH");
+        assertSame(projectSkill, cube.get(TestData.Project, TestData.Skill));
+        assertNotSame(countryProject, cube.get(TestData.Country, TestData.Project));
+        assertSummary(new CapacitySummaryData2D(TestData.Country, TestData.Project, employeeData),
+                cube.get(TestData.Country, TestData.Project));
+
+        //.... A capacity change affects all summaries
+        employeeData.getEmployees().get(1).setCapacity(CapacityType.FTE, 0.5);
+        assertNotSame(projectSkill, cube.get(TestData.Project, TestData.Skill));
+        assertSummary(new CapacitySummaryData2D(TestData.Project, TestData.Skill, employeeData),
+                cube.get(TestData.Project, TestData.Skill));
+    }
+
+}
@@ -0,0 +1,234 @@
+package org.ml.capman.test;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Dr. Matthias Laux.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.ml.capman.Employee;
+import org.ml.capman.EmployeeCapacity.CapacityType;
+import org.ml.capman.EmployeeData;
+import org.ml.capman.EmployeeDataJournal;
+import org.ml.capman.EmployeeDataSnapshot;
+
+/**
+ * @author mlaux
+ */
+public class EmployeeDataJournalTest {
+
+    /**
+     * @param snapshot
+     * @return
+     * @throws IOException
+     */
+    private static EmployeeData<Employee> read(ByteArrayOutputStream snapshot) throws IOException {
+        return EmployeeDataSnapshot.read(new ByteArrayInputStream(snapshot.toByteArray()));
+    }
+
+    /**
+     * Apply the same changes to the employee data and to the journal
+     *
+     * @param employeeData
+     * @param journal
+     * @return The number of records written
+     * @throws IOException
+     */
+    private static int change(EmployeeData<Employee> employeeData, EmployeeDataJournal journal) throws IOException {
+        List<Employee> leaves = new ArrayList<>();
+        for (Employee employee : employeeData.getEmployees()) {
+            if (employee.hasManager() && employee.getEmployees().isEmpty()) {
+                leaves.add(employee);
+            }
+        }
+        Employee root = employeeData.getRootEmployee();
+        Employee employee = employeeData.getEmployees().get(1);
+
+        journal.set(employee.getID(), TestData.Country, "CH");
+        employee.set(TestData.Country, "CH");
+        journal.set(employee.getID(), TestData.Project, "Q", 7);
+        employee.set(TestData.Project, "Q", 7);
+        journal.set(employee.getID(), TestData.Skill, "rust", "x");
+        employee.set(TestData.Skill, "rust", "x");
+        journal.setCapacity(employee.getID(), CapacityType.FTE, 0.25d);
+        employee.setCapacity(CapacityType.FTE, 0.25d);
+
+        //.... A leaf can not be an indirect manager of the root, so there is no cycle
+        Employee moved = leaves.get(0);
+        journal.setManager(moved.getID(), root.getID());
+        moved.getManager().removeEmployee(moved);
+        root.addEmployee(moved);
+
+        Employee removed = leaves.get(1);
+        journal.removeEmployee(removed.getID());
+        employeeData.removeEmployee(removed.getID());
+
+        Employee added = new Employee("N0");
+        journal.addEmployee(added.getID(), TestData.Name, null);
+        added.setNameType(TestData.Name);
+        employeeData.addEmployee(added);
+        journal.set(added.getID(), TestData.Name, "New");
+        added.set(TestData.Name, "New");
+        journal.setManager(added.getID(), employee.getID());
+        employee.addEmployee(added);
+
+        journal.addConstraint(TestData.Project, "C", TestData.Skill, "go");
+        employeeData.getConstraintHandler().addConstraint(TestData.Project, "C", TestData.Skill, "go");
+        return 10;
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        EmployeeData<Employee> employeeData = TestData.create(500, 7);
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        long base = EmployeeDataSnapshot.write(employeeData, snapshot);
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            int records;
+            try (EmployeeDataJournal journal = EmployeeDataJournal.append(path, base)) {
+                records = change(employeeData, journal);
+            }
+
+            EmployeeData<Employee> copy = read(snapshot);
+            assertEquals(records, EmployeeDataJournal.replay(path, copy, base));
+            assertEquals(TestData.describe(employeeData), TestData.describe(copy));
+
+            employeeData.updateOrganisationAggregates();
+            copy.updateOrganisationAggregates();
+            assertEquals(employeeData.getRootEmployee().organisationSize(), copy.getRootEmployee().organisationSize());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        EmployeeData<Employee> employeeData = TestData.create(200, 8);
+        Path snapshot = Files.createTempFile("snapshot", ".bin");
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            long base = EmployeeDataSnapshot.write(employeeData, snapshot);
+            try (EmployeeDataJournal journal = EmployeeDataJournal.append(path, base)) {
+                change(employeeData, journal);
+            }
+            EmployeeDataJournal.compact(snapshot, path, snapshot);
+            EmployeeData<Employee> copy = EmployeeDataSnapshot.read(snapshot);
+            assertEquals(TestData.describe(employeeData), TestData.describe(copy));
+
+            //.... The journal starts again on top of the new snapshot
+            assertEquals(0, EmployeeDataJournal.replay(path, copy, EmployeeDataSnapshot.getChecksum(snapshot)));
+            assertEquals(TestData.describe(employeeData), TestData.describe(copy));
+            try (EmployeeDataJournal journal = EmployeeDataJournal.append(path, EmployeeDataSnapshot.getChecksum(snapshot))) {
+                journal.set(employeeData.getEmployees().get(2).getID(), TestData.Country, "US");
+            }
+            employeeData.getEmployees().get(2).set(TestData.Country, "US");
+            assertEquals(1, EmployeeDataJournal.replay(path, copy, EmployeeDataSnapshot.getChecksum(snapshot)));
+            assertEquals(TestData.describe(employeeData), TestData.describe(copy));
+        } finally {
+            Files.delete(snapshot);
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testIncompleteRecord() throws IOException {
+        EmployeeData<Employee> employeeData = TestData.create(200, 9);
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        long base = EmployeeDataSnapshot.write(employeeData, snapshot);
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            int records;
+            try (EmployeeDataJournal journal = EmployeeDataJournal.append(path, base)) {
+                records = change(employeeData, journal);
+            }
+            long size = Files.size(path);
+            try (OutputStream out = Files.newOutputStream(path, StandardOpenOption.APPEND)) {
+                out.write(new byte[]{0, 0, 0, 50, 1, 2});
+            }
+
+            EmployeeData<Employee> copy = read(snapshot);
+            assertEquals(records, EmployeeDataJournal.replay(path, copy, base));
+            assertEquals(TestData.describe(employeeData), TestData.describe(copy));
+
+            EmployeeDataJournal.append(path, base).close();
+            assertEquals(size, Files.size(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptedRecord() throws IOException {
+        EmployeeData<Employee> employeeData = TestData.create(200, 10);
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        long base = EmployeeDataSnapshot.write(employeeData, snapshot);
+        byte[] journalBytes;
+        Path path = Files.createTempFile("journal", ".bin");
+        try {
+            try (EmployeeDataJournal journal = EmployeeDataJournal.append(path, base)) {
+                change(employeeData, journal);
+            }
+            journalBytes = Files.readAllBytes(path);
+        } finally {
+            Files.delete(path);
+        }
+        journalBytes[journalBytes.length / 2] ^= 1;
+        EmployeeDataJournal.replay(new ByteArrayInputStream(journalBytes), read(snapshot), base);
+    }
+
+    @Test(expected = IOException.class)
+    public void testCompactedBase() throws IOException {
+        EmployeeData<Employee> employeeData = TestData.create(200, 11);
+        Path snapshot = Files.createTempFile("snapshot", ".bin");
+        Path path = Files.createTempFile("journal", ".bin");
+        Path target = Files.createTempFile("target", ".bin");
+        try {
+            long base = EmployeeDataSnapshot.write(employeeData, snapshot);
+            try (EmployeeDataJournal journal = EmployeeDataJournal.append(path, base)) {
+                change(employeeData, journal);
+            }
+            EmployeeDataJournal.compact(snapshot, path, target);
+
+            //.... The changes are part of the target now, so the journal no longer fits the old snapshot
+            EmployeeDataJournal.replay(path, EmployeeDataSnapshot.read(snapshot), base);
+        } finally {
+            Files.delete(snapshot);
+            Files.delete(path);
+            Files.delete(target);
+        }
+    }
+
+}
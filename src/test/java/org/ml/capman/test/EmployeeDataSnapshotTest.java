@@ -0,0 +1,110 @@
+package org.ml.capman.test;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Dr. Matthias Laux.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.ml.capman.CapacitySummaryData;
+import org.ml.capman.Employee;
+import org.ml.capman.Employee.EmployeeUrl;
+import org.ml.capman.EmployeeData;
+import org.ml.capman.EmployeeDataSnapshot;
+import org.ml.table.content.UrlContent;
+
+/**
+ * @author mlaux
+ */
+public class EmployeeDataSnapshotTest {
+
+    /**
+     * @param employeeData
+     * @return
+     * @throws IOException
+     */
+    private static byte[] write(EmployeeData<Employee> employeeData) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        EmployeeDataSnapshot.write(employeeData, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        EmployeeData<Employee> employeeData = TestData.create(2000, 1);
+        employeeData.getEmployees().get(3).setUrl(EmployeeUrl.DATA_ID, new UrlContent("e3.html", "Gr\u00fc\u00dfe"));
+
+        EmployeeData<Employee> copy = EmployeeDataSnapshot.read(new ByteArrayInputStream(write(employeeData)));
+
+        assertEquals(TestData.describe(employeeData), TestData.describe(copy));
+        assertEquals(new CapacitySummaryData(TestData.Project, employeeData).get(), new CapacitySummaryData(TestData.Project, copy).get());
+        assertEquals(employeeData.getEmployees().get(0).organisationSize(), copy.getRootEmployee().organisationSize());
+
+        //.... The min/max data is complete right after reading; for ties the field may differ
+        for (Employee employee : copy.getEmployees()) {
+            Employee original = employeeData.getEmployee(employee.getID());
+            assertEquals(original.getMinValue(TestData.Project), employee.getMinValue(TestData.Project));
+            assertEquals(original.getMaxValue(TestData.Project), employee.getMaxValue(TestData.Project));
+            assertEquals(employee.getMinValue(TestData.Project), employee.get(TestData.Project, employee.getMinField(TestData.Project)));
+            assertEquals(employee.getMaxValue(TestData.Project), employee.get(TestData.Project, employee.getMaxField(TestData.Project)));
+        }
+    }
+
+    @Test
+    public void testRoundTripFile() throws IOException {
+        EmployeeData<Employee> employeeData = TestData.create(100, 2);
+        Path path = Files.createTempFile("snapshot", ".bin");
+        try {
+            EmployeeDataSnapshot.write(employeeData, path);
+            assertEquals(TestData.describe(employeeData), TestData.describe(EmployeeDataSnapshot.read(path)));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testEmptyTree() throws IOException {
+        EmployeeData<Employee> copy = EmployeeDataSnapshot.read(new ByteArrayInputStream(write(new EmployeeData<>())));
+
+        assertTrue(copy.getEmployees().isEmpty());
+        assertNull(copy.getRootEmployee());
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptedChecksum() throws IOException {
+        byte[] snapshot = write(TestData.create(100, 3));
+        snapshot[snapshot.length / 2] ^= 1;
+        EmployeeDataSnapshot.read(new ByteArrayInputStream(snapshot));
+    }
+
+}
@@ -0,0 +1,102 @@
+package org.ml.capman.test;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Dr. Matthias Laux.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.ml.capman.Employee;
+import org.ml.capman.EmployeeData;
+import org.ml.capman.reporting.impl.EmployeeStep;
+import org.ml.pf.output.TableData;
+import org.ml.tools.PropertyManager;
+
+/**
+ * @author mlaux
+ */
+public class EmployeeStepTest {
+
+    @Test
+    public void testStreamedOutput() {
+        EmployeeData<Employee> employeeData = TestData.create(300, 14);
+        EmployeeStep employeeStep = new EmployeeStep(new PropertyManager());
+        Map<String, TableData> tables = employeeStep.createOutputData(employeeData);
+
+        List<String> keys = new ArrayList<>();
+        employeeStep.createOutputData(employeeData, (key, tableData) -> {
+            assertEquals(key, tableData.getDescription());
+            assertEquals(tables.get(key).getDescription(), tableData.getDescription());
+            keys.add(key);
+        });
+        assertEquals(new ArrayList<>(tables.keySet()), keys);
+
+        Iterator<Map.Entry<String, TableData>> iterator = employeeStep.iterateOutputData(employeeData);
+        for (String key : tables.keySet()) {
+            Map.Entry<String, TableData> entry = iterator.next();
+            assertEquals(key, entry.getKey());
+            assertEquals(key, entry.getValue().getDescription());
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testReuse() {
+        EmployeeData<Employee> employeeData = TestData.create(300, 15);
+        EmployeeStep employeeStep = new EmployeeStep(new PropertyManager());
+        Map<String, TableData> tables = employeeStep.createOutputData(employeeData);
+
+        Employee changed = null;
+        Employee unchanged = null;
+        for (Employee employee : employeeData.getEmployees()) {
+            if (!employee.getEmployees().isEmpty()) {
+                continue;
+            }
+            if (changed == null) {
+                changed = employee;
+            } else if (employee.getManager() != changed.getManager()) {
+                unchanged = employee;
+                break;
+            }
+        }
+        changed.set(TestData.Country, "CH");
+
+        Map<String, TableData> update = employeeStep.createOutputData(employeeData);
+        assertEquals(tables.keySet(), update.keySet());
+        assertNotSame(tables.get(changed.getID()), update.get(changed.getID()));
+        assertNotSame(tables.get(changed.getManager().getID()), update.get(changed.getManager().getID()));
+        assertSame(tables.get(unchanged.getID()), update.get(unchanged.getID()));
+    }
+
+}
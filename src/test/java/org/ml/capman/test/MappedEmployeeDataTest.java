@@ -0,0 +1,101 @@
+package org.ml.capman.test;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Dr. Matthias Laux.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.ml.capman.Employee;
+import org.ml.capman.EmployeeData;
+import org.ml.capman.MappedEmployee;
+import org.ml.capman.MappedEmployeeData;
+
+/**
+ * @author mlaux
+ */
+public class MappedEmployeeDataTest {
+
+    /**
+     * @param employeeData
+     * @return The mapped data of a temporary file
+     * @throws IOException
+     */
+    private static MappedEmployeeData map(EmployeeData<Employee> employeeData) throws IOException {
+        Path path = Files.createTempFile("mapped", ".bin");
+
+        //.... A mapped file can not be deleted on all platforms while it is in use
+        path.toFile().deleteOnExit();
+        MappedEmployeeData.write(employeeData, path);
+        return MappedEmployeeData.open(path);
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        EmployeeData<Employee> employeeData = TestData.create(2000, 4);
+        MappedEmployeeData mappedData = map(employeeData);
+
+        assertEquals(employeeData.getEmployees().size(), mappedData.size());
+        assertEquals(TestData.describe(employeeData), TestData.describe(mappedData.toEmployeeData()));
+    }
+
+    @Test
+    public void testMappedValues() throws IOException {
+        EmployeeData<Employee> employeeData = TestData.create(500, 5);
+        employeeData.updateOrganisationAggregates();
+        MappedEmployeeData mappedData = map(employeeData);
+
+        for (Employee employee : employeeData.getEmployees()) {
+            MappedEmployee mappedEmployee = mappedData.getEmployee(employee.getID());
+            assertEquals(employee.get(TestData.Country), mappedEmployee.get(TestData.Country));
+            assertEquals(employee.getFields(TestData.Project), mappedEmployee.getFields(TestData.Project));
+            assertEquals(employee.getFields(TestData.Skill), mappedEmployee.getFields(TestData.Skill));
+            assertEquals(employee.getMaxValue(TestData.Project), mappedEmployee.getMaxValue(TestData.Project));
+            assertEquals(employee.getEmployees().keySet(), mappedEmployee.getEmployees().keySet());
+            assertEquals(employee.organisationSize(), mappedEmployee.organisationSize());
+        }
+        assertEquals(employeeData.getRootEmployee().getID(), mappedData.getRootEmployee().getID());
+    }
+
+    @Test
+    public void testEmptyTree() throws IOException {
+        MappedEmployeeData mappedData = map(new EmployeeData<>());
+
+        assertEquals(0, mappedData.size());
+        assertNull(mappedData.getRootEmployee());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnly() throws IOException {
+        map(TestData.create(10, 6)).getEmployee(0).set(TestData.Project, "A", 50);
+    }
+
+}
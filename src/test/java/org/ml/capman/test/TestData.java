@@ -0,0 +1,163 @@
+package org.ml.capman.test;
+
+/*
+ * The MIT License
+ *
+ * Copyright 2019 Dr. Matthias Laux.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.ml.capman.DataConfiguration;
+import org.ml.capman.DataConfiguration.TypeDimension;
+import org.ml.capman.DataConfiguration.TypeKind;
+
+import static org.ml.capman.DataConfiguration.TypeDimension.One;
+import static org.ml.capman.DataConfiguration.TypeDimension.Two;
+import static org.ml.capman.DataConfiguration.TypeKind.TypeBoolean;
+import static org.ml.capman.DataConfiguration.TypeKind.TypeIntegerPercentage;
+import static org.ml.capman.DataConfiguration.TypeKind.TypeString;
+
+import org.ml.capman.Employee;
+import org.ml.capman.Employee.EmployeeUrl;
+import org.ml.capman.EmployeeCapacity.CapacityType;
+import org.ml.capman.EmployeeData;
+import org.ml.capman.IType;
+import org.ml.table.content.UrlContent;
+
+/**
+ * Types and randomly generated employee trees shared by the tests
+ *
+ * @author mlaux
+ */
+public enum TestData implements IType {
+
+    Country(TypeString, One),
+    Name(TypeString, One),
+    Vacancy(TypeBoolean, One),
+    Project(TypeIntegerPercentage, Two),
+    Skill(TypeString, Two);
+
+    private static final String[] COUNTRIES = {"DE", "FR", "IN", "US"};
+    private static final String[] PROJECTS = {"A", "B", "C"};
+    private static final String[] SKILLS = {"go", "java", "sql"};
+
+    private final TypeKind typeKind;
+    private final TypeDimension typeDimension;
+
+    /**
+     * @param typeKind
+     * @param typeDimension
+     */
+    TestData(TypeKind typeKind, TypeDimension typeDimension) {
+        this.typeKind = typeKind;
+        this.typeDimension = typeDimension;
+    }
+
+    @Override
+    public String getTypeName() {
+        return name();
+    }
+
+    @Override
+    public TypeKind getTypeKind() {
+        return typeKind;
+    }
+
+    @Override
+    public TypeDimension getTypeDimension() {
+        return typeDimension;
+    }
+
+    /**
+     * A random tree with 1D and 2D values, capacities and two constraints
+     * (Project A -> Skill java, Project B -> Skill sql)
+     *
+     * @param size The number of employees
+     * @param seed
+     * @return
+     */
+    public static EmployeeData<Employee> create(int size, long seed) {
+        DataConfiguration.getInstance().add(values());
+        Random random = new Random(seed);
+        EmployeeData<Employee> employeeData = new EmployeeData<>();
+        for (int i = 0; i < size; i++) {
+            Employee employee = new Employee("E" + i);
+            employee.setNameType(Name);
+            employee.set(Name, "Name " + (size - i));
+            employee.set(Country, COUNTRIES[random.nextInt(COUNTRIES.length)]);
+            employee.set(Vacancy, random.nextInt(10) == 0);
+            int percentage = random.nextInt(101);
+            employee.set(Project, PROJECTS[random.nextInt(PROJECTS.length)], percentage);
+            if (percentage < 100) {
+                employee.set(Project, "Z", 100 - percentage);
+            }
+            for (String skill : SKILLS) {
+                if (random.nextBoolean()) {
+                    employee.set(Skill, skill, "x");
+                }
+            }
+            employee.setCapacity(CapacityType.HC, 1.0d);
+            employee.setCapacity(CapacityType.FTE, random.nextDouble());
+            employee.setCapacity(CapacityType.EffectiveFTE, random.nextDouble());
+            if (i > 0) {
+                employeeData.getEmployees().get(random.nextInt(i)).addEmployee(employee);
+            } else {
+                employee.setRoot(true);
+            }
+            employeeData.addEmployee(employee);
+        }
+        if (size > 0) {
+            employeeData.setRootEmployee(employeeData.getEmployees().get(0));
+        }
+        employeeData.getConstraintHandler().addConstraint(Project, "A", Skill, "java");
+        employeeData.getConstraintHandler().addConstraint(Project, "B", Skill, "sql");
+        return employeeData;
+    }
+
+    /**
+     * @param employeeData
+     * @return A text covering everything the persistent formats keep: values,
+     * capacities, URLs, reporting lines, the root employee and the constraints
+     */
+    public static String describe(EmployeeData<? extends Employee> employeeData) {
+        StringBuilder sb = new StringBuilder();
+        for (Employee employee : employeeData.getEmployees()) {
+            sb.append(employee.getID()).append(' ').append(employee.isRoot()).append(' ').append(employee.getName()).append('\n');
+            sb.append(employee);
+            for (CapacityType capacityType : CapacityType.values()) {
+                sb.append(capacityType).append(" : ").append(employee.getCapacity(capacityType)).append('\n');
+            }
+            for (EmployeeUrl employeeUrl : EmployeeUrl.values()) {
+                UrlContent urlContent = employee.getUrl(employeeUrl);
+                if (urlContent != null) {
+                    sb.append(employeeUrl).append(" : ").append(urlContent.getAddress()).append(' ').append(urlContent.getText()).append('\n');
+                }
+            }
+            sb.append(employee.hasManager() ? employee.getManager().getID() : "-").append(' ').append(employee.getEmployees().keySet()).append('\n');
+        }
+        sb.append(employeeData.getRootEmployee() == null ? "-" : employeeData.getRootEmployee().getID());
+        sb.append(new TreeSet<>(employeeData.getConstraintHandler().getConstraints()));
+        return sb.toString();
+    }
+
+}